@@ -0,0 +1,98 @@
+package com.p2p.app;
+
+import java.util.Random;
+
+/**
+ * Offline benchmark for the {@link AudioCodec}s: encode and decode cost per 10 ms frame, bitrate
+ * of the payload and on the wire (with the audio, UDP and IPv4 headers), and the signal-to-noise
+ * ratio of the decoded audio. The input is synthetic voiced speech: a harmonic series on a
+ * gliding pitch, syllable-rate amplitude modulation and a little noise, at 16 kHz.
+ * Run with: java -cp benchmarks/target/benchmarks.jar com.p2p.app.AudioCodecBenchmark [frames]
+ */
+public class AudioCodecBenchmark {
+    private static final int SAMPLE_RATE = 16000;
+    private static final int FRAME_BYTES = SAMPLE_RATE / 100 * 2; // 10 ms
+    private static final int UDP_IP_HEADER = 28;
+
+    public static void main(String[] args) {
+        int frames = args.length > 0 ? Integer.parseInt(args[0]) : 50000;
+        byte[][] source = syntheticSpeech(500);
+
+        run(null, new PcmAudioCodec(), source, frames / 4); // warm up
+        run(null, new ImaAdpcmAudioCodec(), source, frames / 4);
+
+        System.out.println("Audio codec benchmark: " + frames + " frames of 10 ms at " + SAMPLE_RATE + " Hz");
+        run("pcm  ", new PcmAudioCodec(), source, frames);
+        run("adpcm", new ImaAdpcmAudioCodec(), source, frames);
+    }
+
+    private static void run(String name, AudioCodec codec, byte[][] source, int frames) {
+        byte[] encoded = new byte[codec.maxEncodedLength(FRAME_BYTES)];
+        byte[][] packets = new byte[source.length][encoded.length];
+        int[] lengths = new int[source.length];
+        byte[] decoded = new byte[FRAME_BYTES];
+
+        long encodeStart = System.nanoTime();
+        long bytes = 0;
+        for (int f = 0; f < frames; f++) {
+            int i = f % source.length;
+            lengths[i] = codec.encode(source[i], 0, FRAME_BYTES, packets[i], 0);
+            bytes += lengths[i];
+        }
+        long encodeNanos = System.nanoTime() - encodeStart;
+
+        long decodeStart = System.nanoTime();
+        for (int f = 0; f < frames; f++) {
+            int i = f % source.length;
+            codec.decode(packets[i], 0, lengths[i], decoded, 0);
+        }
+        long decodeNanos = System.nanoTime() - decodeStart;
+        if (name == null) {
+            return;
+        }
+
+        double signal = 0.0;
+        double noise = 0.0;
+        for (int i = 0; i < source.length; i++) {
+            codec.decode(packets[i], 0, lengths[i], decoded, 0);
+            for (int s = 0; s < FRAME_BYTES; s += 2) {
+                int x = sample(source[i], s);
+                int e = sample(decoded, s) - x;
+                signal += (double) x * x;
+                noise += (double) e * e;
+            }
+        }
+        double payloadKbps = bytes * 8.0 / frames / 10.0; // bits per 10 ms frame -> kbit/s
+        double wireKbps = payloadKbps + (AudioPacket.HEADER_SIZE + UDP_IP_HEADER) * 8.0 / 10.0;
+        System.out.printf("%s  %4d bytes/frame  payload %6.1f kbit/s  wire %6.1f kbit/s  "
+                        + "encode %6.2f us  decode %6.2f us  SNR %s%n",
+                name, bytes / frames, payloadKbps, wireKbps, encodeNanos / 1e3 / frames, decodeNanos / 1e3 / frames,
+                noise == 0.0 ? "lossless" : String.format("%.1f dB", 10 * Math.log10(signal / noise)));
+    }
+
+    private static byte[][] syntheticSpeech(int count) {
+        Random random = new Random(7);
+        byte[][] frames = new byte[count][FRAME_BYTES];
+        double phase = 0.0;
+        for (int f = 0; f < count; f++) {
+            for (int s = 0; s < FRAME_BYTES / 2; s++) {
+                double t = (f * FRAME_BYTES / 2 + s) / (double) SAMPLE_RATE;
+                double pitch = 140 + 40 * Math.sin(2 * Math.PI * 0.7 * t);
+                phase += 2 * Math.PI * pitch / SAMPLE_RATE;
+                double voice = 0.0;
+                for (int h = 1; h <= 12; h++) {
+                    voice += Math.sin(h * phase) / h;
+                }
+                double envelope = 0.55 + 0.45 * Math.sin(2 * Math.PI * 4 * t);
+                int value = (int) (6000 * envelope * voice + 150 * random.nextGaussian());
+                frames[f][2 * s] = (byte) value;
+                frames[f][2 * s + 1] = (byte) (value >> 8);
+            }
+        }
+        return frames;
+    }
+
+    private static int sample(byte[] data, int offset) {
+        return (short) ((data[offset + 1] << 8) | (data[offset] & 0xFF));
+    }
+}
@@ -0,0 +1,121 @@
+package com.p2p.app;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Cost of the capture DSP chain per 10 ms frame (160 samples at 16 kHz): the legacy byte-based
+ * passes against {@link VoiceDspStage}, both from and to little-endian PCM as AudioManager uses
+ * them, and the stage alone on samples. Input is synthetic speech with pauses, so both the voiced
+ * (limiter) and gated paths run. Setup fails if the two chains ever differ by a single bit.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class AudioDspBenchmark {
+    private static final int SAMPLE_RATE = 16000;
+    private static final int FRAME_SAMPLES = SAMPLE_RATE / 100;
+    private static final int FRAMES = 256;
+
+    private byte[][] input;
+    private short[][] inputSamples;
+    private final byte[] pcm = new byte[FRAME_SAMPLES * 2];
+    private final short[] samples = new short[FRAME_SAMPLES];
+    private LegacyVoiceChain legacy;
+    private AudioDspStage stage;
+    private int next;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        input = syntheticSpeech();
+        inputSamples = new short[FRAMES][FRAME_SAMPLES];
+        for (int f = 0; f < FRAMES; f++) {
+            AudioDspStage.unpack(input[f], input[f].length, inputSamples[f]);
+        }
+        verifyBitExact();
+        legacy = new LegacyVoiceChain();
+        stage = new VoiceDspStage();
+    }
+
+    @Benchmark
+    public boolean legacyChain() {
+        byte[] frame = input[next++ & (FRAMES - 1)];
+        System.arraycopy(frame, 0, pcm, 0, pcm.length);
+        return legacy.process(pcm, pcm.length);
+    }
+
+    @Benchmark
+    public boolean fusedChain() {
+        byte[] frame = input[next++ & (FRAMES - 1)];
+        int count = AudioDspStage.unpack(frame, frame.length, samples);
+        boolean voiced = stage.process(samples, count);
+        if (voiced) {
+            AudioDspStage.pack(samples, count, pcm);
+        }
+        return voiced;
+    }
+
+    @Benchmark
+    public boolean fusedStageOnly() {
+        short[] frame = inputSamples[next++ & (FRAMES - 1)];
+        System.arraycopy(frame, 0, samples, 0, FRAME_SAMPLES);
+        return stage.process(samples, FRAME_SAMPLES);
+    }
+
+    /** Runs every frame through fresh copies of both chains and compares the decision and the samples. */
+    private void verifyBitExact() {
+        LegacyVoiceChain reference = new LegacyVoiceChain();
+        AudioDspStage fused = new VoiceDspStage();
+        byte[] expected = new byte[pcm.length];
+        byte[] actual = new byte[pcm.length];
+        for (int pass = 0; pass < 4; pass++) {
+            for (int f = 0; f < FRAMES; f++) {
+                System.arraycopy(input[f], 0, expected, 0, expected.length);
+                boolean expectedVoiced = reference.process(expected, expected.length);
+                int count = AudioDspStage.unpack(input[f], input[f].length, samples);
+                boolean voiced = fused.process(samples, count);
+                AudioDspStage.pack(samples, count, actual);
+                if (voiced != expectedVoiced || !Arrays.equals(expected, actual)) {
+                    throw new IllegalStateException("Fused chain differs from the legacy chain at frame " + f);
+                }
+            }
+        }
+    }
+
+    private static byte[][] syntheticSpeech() {
+        Random random = new Random(3);
+        byte[][] frames = new byte[FRAMES][FRAME_SAMPLES * 2];
+        double phase = 0.0;
+        for (int f = 0; f < FRAMES; f++) {
+            for (int s = 0; s < FRAME_SAMPLES; s++) {
+                double t = (f * FRAME_SAMPLES + s) / (double) SAMPLE_RATE;
+                phase += 2 * Math.PI * (140 + 40 * Math.sin(2 * Math.PI * 0.7 * t)) / SAMPLE_RATE;
+                double voice = 0.0;
+                for (int h = 1; h <= 12; h++) {
+                    voice += Math.sin(h * phase) / h;
+                }
+                double envelope = Math.max(0.0, Math.sin(2 * Math.PI * 1.5 * t)); // talk, then pause
+                int value = (int) (9000 * envelope * voice + 200 * random.nextGaussian() + 400);
+                frames[f][2 * s] = (byte) value;
+                frames[f][2 * s + 1] = (byte) (value >> 8);
+            }
+        }
+        return frames;
+    }
+}
@@ -0,0 +1,189 @@
+package com.p2p.app;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Random;
+
+import javax.sound.sampled.AudioFileFormat;
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.AudioInputStream;
+import javax.sound.sampled.AudioSystem;
+import javax.sound.sampled.UnsupportedAudioFileException;
+
+/**
+ * Runs the {@link EchoCanceller} offline, 10 ms at a time as the capture thread does. Given a
+ * near-end recording (microphone) and the far-end signal played while it was recorded, both WAV,
+ * 16 kHz mono 16-bit and starting at the same instant, it writes the cancelled microphone signal
+ * and prints ERLE per second and the CPU time per frame. Without arguments it simulates a room
+ * instead: synthetic far-end speech through a decaying echo path, a near-end talker from 6 to 8 s
+ * (double talk) and a changed echo path from 10 s, so convergence and re-convergence can be read
+ * from the ERLE column.
+ * Run with: java -cp benchmarks/target/benchmarks.jar com.p2p.app.EchoCancellerWavTool [near.wav far.wav [out.wav]]
+ */
+public class EchoCancellerWavTool {
+    private static final int SAMPLE_RATE = 16000;
+    private static final int FRAME_SAMPLES = SAMPLE_RATE / 100;
+    private static final AudioFormat FORMAT = new AudioFormat(SAMPLE_RATE, 16, 1, true, false);
+
+    public static void main(String[] args) throws Exception {
+        short[] near;
+        short[] far;
+        boolean[] nearTalk = null;
+        if (args.length >= 2) {
+            near = read(new File(args[0]));
+            far = read(new File(args[1]));
+        } else {
+            short[][] room = simulateRoom(14);
+            near = room[0];
+            far = room[1];
+            nearTalk = talkMask(near.length);
+        }
+        short[] out = cancel(near, far, nearTalk);
+        if (args.length >= 3) {
+            write(out, new File(args[2]));
+            System.out.println("Wrote " + args[2]);
+        }
+    }
+
+    private static short[] cancel(short[] near, short[] far, boolean[] nearTalk) {
+        long[] fed = {0};
+        EchoCanceller canceller = new EchoCanceller(SAMPLE_RATE, Constants.AUDIO_AEC_TAIL_MS, () -> fed[0]);
+        byte[] farFrame = new byte[FRAME_SAMPLES * 2];
+        short[] frame = new short[FRAME_SAMPLES];
+        short[] out = new short[near.length];
+        int frames = near.length / FRAME_SAMPLES;
+        long[] nanos = new long[frames];
+
+        System.out.println("Echo canceller: " + frames + " frames of 10 ms, tail " + Constants.AUDIO_AEC_TAIL_MS + " ms");
+        System.out.println("  second   ERLE     (ERLE: microphone over output power; - while the near end talks)");
+        double nearPower = 0.0;
+        double outPower = 0.0;
+        for (int f = 0; f < frames; f++) {
+            int start = f * FRAME_SAMPLES;
+            for (int i = 0; i < FRAME_SAMPLES; i++) {
+                int value = start + i < far.length ? far[start + i] : 0;
+                farFrame[2 * i] = (byte) value;
+                farFrame[2 * i + 1] = (byte) (value >> 8);
+            }
+            canceller.onFarEnd(farFrame, farFrame.length);
+            fed[0] += FRAME_SAMPLES;
+            System.arraycopy(near, start, frame, 0, FRAME_SAMPLES);
+
+            long t0 = System.nanoTime();
+            canceller.process(frame, FRAME_SAMPLES);
+            nanos[f] = System.nanoTime() - t0;
+            System.arraycopy(frame, 0, out, start, FRAME_SAMPLES);
+
+            boolean talking = false;
+            for (int i = 0; i < FRAME_SAMPLES; i++) {
+                nearPower += (double) near[start + i] * near[start + i];
+                outPower += (double) frame[i] * frame[i];
+                talking |= nearTalk != null && nearTalk[start + i];
+            }
+            if (talking) {
+                nearPower = Double.NaN; // this second is not an echo-only measurement
+            }
+            if ((f + 1) % 100 == 0) {
+                System.out.printf("  %6d   %s%n", (f + 1) / 100, Double.isNaN(nearPower) ? "   -"
+                        : String.format("%5.1f dB", 10 * Math.log10((nearPower + 1) / (outPower + 1))));
+                nearPower = 0.0;
+                outPower = 0.0;
+            }
+        }
+        // Percentiles over everything after the first second, which mostly measures JIT compilation
+        long[] measured = Arrays.copyOfRange(nanos, Math.min(100, frames), frames);
+        Arrays.sort(measured);
+        if (measured.length > 0) {
+            long p50 = measured[measured.length / 2];
+            System.out.printf("CPU per frame: p50 %.1f us (%.1f%% of the 10 ms budget), p99 %.1f us, max %.1f us%n",
+                    p50 / 1e3, p50 / 1e5, measured[measured.length * 99 / 100] / 1e3, measured[measured.length - 1] / 1e3);
+        }
+        return out;
+    }
+
+    /** {near, far}: far-end speech through a room, plus a near-end talker and a little noise. */
+    private static short[][] simulateRoom(int seconds) {
+        Random random = new Random(11);
+        int length = seconds * SAMPLE_RATE;
+        double[] far = speech(length, 120, 0.9, random);
+        double[] talker = speech(length, 210, 1.7, random);
+        double[] first = echoPath(random);
+        double[] second = echoPath(random);
+        boolean[] talk = talkMask(length);
+        short[] nearOut = new short[length];
+        short[] farOut = new short[length];
+        for (int n = 0; n < length; n++) {
+            double[] path = n < 10 * SAMPLE_RATE ? first : second;
+            double echo = 0.0;
+            for (int k = 0; k < path.length && k <= n; k++) {
+                echo += path[k] * far[n - k];
+            }
+            double value = echo + 30 * random.nextGaussian() + (talk[n] ? talker[n] : 0.0);
+            nearOut[n] = (short) Math.max(Short.MIN_VALUE, Math.min(Short.MAX_VALUE, Math.round(value)));
+            farOut[n] = (short) Math.round(far[n]);
+        }
+        return new short[][] {nearOut, farOut};
+    }
+
+    private static boolean[] talkMask(int length) {
+        boolean[] talk = new boolean[length];
+        for (int n = 6 * SAMPLE_RATE; n < Math.min(length, 8 * SAMPLE_RATE); n++) {
+            talk[n] = true;
+        }
+        return talk;
+    }
+
+    /** A bulk delay of a few milliseconds, then an exponentially decaying random tail of about 60 ms. */
+    private static double[] echoPath(Random random) {
+        int delay = 48 + random.nextInt(64);
+        double[] path = new double[delay + 60 * SAMPLE_RATE / 1000];
+        double gain = 0.0;
+        for (int k = delay; k < path.length; k++) {
+            path[k] = random.nextGaussian() * Math.exp(-(k - delay) / (0.012 * SAMPLE_RATE));
+            gain += path[k] * path[k];
+        }
+        double scale = 0.3 / Math.sqrt(gain); // about 10 dB of acoustic loss
+        for (int k = 0; k < path.length; k++) {
+            path[k] *= scale;
+        }
+        return path;
+    }
+
+    private static double[] speech(int length, double pitch, double syllableHz, Random random) {
+        double[] out = new double[length];
+        double phase = 0.0;
+        for (int n = 0; n < length; n++) {
+            double t = n / (double) SAMPLE_RATE;
+            phase += 2 * Math.PI * (pitch + 0.3 * pitch * Math.sin(2 * Math.PI * 0.5 * t)) / SAMPLE_RATE;
+            double voice = 0.0;
+            for (int h = 1; h <= 15; h++) {
+                voice += Math.sin(h * phase + h * h) / h;
+            }
+            double envelope = Math.max(0.0, Math.sin(2 * Math.PI * syllableHz * t)) * 0.8 + 0.2;
+            out[n] = 7000 * envelope * (voice + 0.15 * random.nextGaussian());
+        }
+        return out;
+    }
+
+    private static short[] read(File file) throws IOException, UnsupportedAudioFileException {
+        try (AudioInputStream in = AudioSystem.getAudioInputStream(file)) {
+            AudioFormat format = in.getFormat();
+            if (format.getSampleRate() != SAMPLE_RATE || format.getChannels() != 1 || format.getSampleSizeInBits() != 16) {
+                throw new UnsupportedAudioFileException(file + ": expected 16 kHz mono 16-bit PCM, got " + format);
+            }
+            byte[] bytes = AudioSystem.getAudioInputStream(FORMAT, in).readAllBytes();
+            short[] samples = new short[bytes.length / 2];
+            AudioDspStage.unpack(bytes, bytes.length, samples);
+            return samples;
+        }
+    }
+
+    private static void write(short[] samples, File file) throws IOException {
+        byte[] bytes = new byte[samples.length * 2];
+        AudioDspStage.pack(samples, samples.length, bytes);
+        AudioInputStream stream = new AudioInputStream(new ByteArrayInputStream(bytes), FORMAT, samples.length);
+        AudioSystem.write(stream, AudioFileFormat.Type.WAVE, file);
+    }
+}
@@ -0,0 +1,92 @@
+package com.p2p.app;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.bytedeco.opencv.global.opencv_core;
+import org.bytedeco.opencv.global.opencv_imgproc;
+import org.bytedeco.opencv.opencv_core.Mat;
+import org.bytedeco.opencv.opencv_core.Point;
+import org.bytedeco.opencv.opencv_core.Scalar;
+import org.opencv.core.CvType;
+
+/**
+ * Offline benchmark for {@link ParallelFrameEncoder}: JPEG frames per second at 720p and 1080p
+ * for 1 .. N encoder threads, with output emitted in order into a sink that only counts bytes.
+ * Frames are synthetic (gradient, shapes and noise) so the JPEG cost resembles a camera picture.
+ * Run with: java -cp "benchmarks/target/benchmarks.jar:target/lib/*" com.p2p.app.EncoderScalingBenchmark [frames] [maxThreads]
+ */
+public class EncoderScalingBenchmark {
+    private static final int[][] RESOLUTIONS = {{1280, 720}, {1920, 1080}};
+    private static final int SOURCE_FRAMES = 8;
+
+    public static void main(String[] args) throws InterruptedException {
+        int frames = args.length > 0 ? Integer.parseInt(args[0]) : 300;
+        int maxThreads = args.length > 1 ? Integer.parseInt(args[1]) : Runtime.getRuntime().availableProcessors();
+
+        System.out.println("Encoder scaling benchmark: " + frames + " frames per run, "
+                + Runtime.getRuntime().availableProcessors() + " cores available");
+        for (int[] resolution : RESOLUTIONS) {
+            int width = resolution[0];
+            int height = resolution[1];
+            CapturedFrame[] sources = syntheticFrames(width, height);
+            RateController.Level level = new RateController.Level(width, height, Constants.FRAME_RATE,
+                    (int) (Constants.JPEG_QUALITY * 100), 0);
+            run(sources, level, 1, frames / 4); // warm up
+
+            double single = 0;
+            for (int threads = 1; threads <= maxThreads; threads++) {
+                double fps = run(sources, level, threads, frames);
+                if (threads == 1) {
+                    single = fps;
+                }
+                System.out.printf("%4dx%-4d  %2d thread(s)  %7.1f fps  speedup %4.2fx%n",
+                        width, height, threads, fps, fps / single);
+            }
+            for (CapturedFrame source : sources) {
+                source.mat.release();
+            }
+        }
+    }
+
+    private static double run(CapturedFrame[] sources, RateController.Level level, int threads, int frames)
+            throws InterruptedException {
+        CountDownLatch finished = new CountDownLatch(frames);
+        AtomicLong bytes = new AtomicLong();
+        ParallelFrameEncoder encoder = new ParallelFrameEncoder("jpeg", threads, 1,
+                (layer, data, length, flags, captureNanos) -> bytes.addAndGet(length), frame -> finished.countDown());
+        long start = System.nanoTime();
+        for (int i = 0; i < frames; i++) {
+            encoder.submit(sources[i % sources.length], level, false); // frames are only read
+        }
+        finished.await();
+        double seconds = (System.nanoTime() - start) / 1e9;
+        encoder.close();
+        return frames / seconds;
+    }
+
+    private static CapturedFrame[] syntheticFrames(int width, int height) {
+        CapturedFrame[] frames = new CapturedFrame[SOURCE_FRAMES];
+        Mat noise = new Mat(height, width, CvType.CV_8UC3);
+        Mat low = new Mat(1, 1, CvType.CV_64FC1, new Scalar(0.0));
+        Mat high = new Mat(1, 1, CvType.CV_64FC1, new Scalar(24.0));
+        for (int i = 0; i < SOURCE_FRAMES; i++) {
+            Mat frame = new Mat(height, width, CvType.CV_8UC3);
+            for (int y = 0; y < height; y += 8) {
+                opencv_imgproc.rectangle(frame, new Point(0, y), new Point(width - 1, y + 7),
+                        new Scalar(40 + 150.0 * y / height, 90, 200 - 150.0 * y / height, 0), -1, opencv_imgproc.LINE_8, 0);
+            }
+            opencv_imgproc.circle(frame, new Point(width / 3 + i * 16, height / 2), height / 4,
+                    new Scalar(30, 180, 230, 0), -1, opencv_imgproc.LINE_AA, 0);
+            opencv_imgproc.rectangle(frame, new Point(width / 2, height / 5), new Point(width * 4 / 5 - i * 8, height * 3 / 5),
+                    new Scalar(200, 60, 60, 0), -1, opencv_imgproc.LINE_AA, 0);
+            opencv_core.randu(noise, low, high);
+            opencv_core.add(frame, noise, frame);
+            frames[i] = new CapturedFrame(frame);
+        }
+        noise.release();
+        low.release();
+        high.release();
+        return frames;
+    }
+}
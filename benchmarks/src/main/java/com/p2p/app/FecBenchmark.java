@@ -0,0 +1,108 @@
+package com.p2p.app;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Offline benchmark for the video FEC codecs.
+ * Reports encode/decode throughput and the share of frames that survive simulated random
+ * packet loss with and without parity.
+ * Run with: java -cp benchmarks/target/benchmarks.jar com.p2p.app.FecBenchmark [frames] [frameBytes]
+ */
+public class FecBenchmark {
+    private static final double[] LOSS_RATES = {0.01, 0.03, 0.05, 0.10};
+
+    public static void main(String[] args) {
+        int frames = args.length > 0 ? Integer.parseInt(args[0]) : 2000;
+        int frameBytes = args.length > 1 ? Integer.parseInt(args[1]) : 40 * 1024; // typical 640x480 JPEG
+
+        // Warm up the JIT so the first configuration is not penalised
+        run(null, new ReedSolomonFecCodec(), 10, 2, frames / 4, frameBytes);
+        run(null, new XorFecCodec(), 10, 1, frames / 4, frameBytes);
+
+        System.out.println("FEC benchmark: " + frames + " frames of " + frameBytes + " bytes, "
+                + VideoPacket.MAX_PAYLOAD_SIZE + "-byte chunks");
+        run("XOR  k=10 m=1", new XorFecCodec(), 10, 1, frames, frameBytes);
+        run("RS   k=10 m=2", new ReedSolomonFecCodec(), 10, 2, frames, frameBytes);
+        run("RS   k=10 m=4", new ReedSolomonFecCodec(), 10, 4, frames, frameBytes);
+        run("RS   k=20 m=4", new ReedSolomonFecCodec(), 20, 4, frames, frameBytes);
+    }
+
+    private static void run(String name, FecCodec codec, int k, int m, int frames, int frameBytes) {
+        int shard = VideoPacket.MAX_PAYLOAD_SIZE;
+        int chunks = (frameBytes + shard - 1) / shard;
+        int groups = (chunks + k - 1) / k;
+        Random random = new Random(42);
+
+        byte[][] data = new byte[k][shard];
+        byte[][] original = new byte[k][shard];
+        byte[][] parity = new byte[m][shard];
+        boolean[] dataPresent = new boolean[k];
+        boolean[] parityPresent = new boolean[m];
+        for (byte[] d : original) random.nextBytes(d);
+
+        // Encode throughput over data bytes
+        for (int i = 0; i < k; i++) System.arraycopy(original[i], 0, data[i], 0, shard);
+        long encodeStart = System.nanoTime();
+        for (int f = 0; f < frames; f++) {
+            for (int g = 0; g < groups; g++) {
+                codec.encode(data, groupSize(chunks, g, k), parity, m, shard);
+            }
+        }
+        double encodeSeconds = (System.nanoTime() - encodeStart) / 1e9;
+        double encodeMBps = (double) frames * chunks * shard / encodeSeconds / (1024 * 1024);
+        if (name == null) {
+            return;
+        }
+        System.out.printf("%s  overhead %3.0f%%  encode %8.1f MB/s%n", name, 100.0 * m / k, encodeMBps);
+
+        for (double loss : LOSS_RATES) {
+            int plainOk = 0;
+            int fecOk = 0;
+            long decodeNanos = 0;
+            long decodeBytes = 0;
+            for (int f = 0; f < frames; f++) {
+                boolean plainFrame = true;
+                boolean fecFrame = true;
+                for (int g = 0; g < groups; g++) {
+                    int n = groupSize(chunks, g, k);
+                    for (int i = 0; i < n; i++) System.arraycopy(original[i], 0, data[i], 0, shard);
+                    codec.encode(data, n, parity, m, shard);
+
+                    int lost = 0;
+                    for (int i = 0; i < n; i++) {
+                        dataPresent[i] = random.nextDouble() >= loss;
+                        if (!dataPresent[i]) {
+                            lost++;
+                            Arrays.fill(data[i], (byte) 0);
+                        }
+                    }
+                    for (int p = 0; p < m; p++) parityPresent[p] = random.nextDouble() >= loss;
+                    if (lost == 0) continue;
+                    plainFrame = false;
+
+                    long start = System.nanoTime();
+                    boolean ok = codec.decode(data, dataPresent, n, parity, parityPresent, m, shard);
+                    if (ok) {
+                        // Only successful decodes do real work; failures bail out before touching data
+                        decodeNanos += System.nanoTime() - start;
+                        decodeBytes += (long) n * shard;
+                        for (int i = 0; i < n && ok; i++) {
+                            ok = Arrays.equals(data[i], original[i]);
+                        }
+                    }
+                    fecFrame &= ok;
+                }
+                if (plainFrame) plainOk++;
+                if (fecFrame) fecOk++;
+            }
+            double decodeMBps = decodeNanos > 0 ? decodeBytes / (decodeNanos / 1e9) / (1024 * 1024) : 0;
+            System.out.printf("    loss %4.1f%%  frames intact: no FEC %5.1f%%, with FEC %5.1f%%  decode %8.1f MB/s%n",
+                    loss * 100, 100.0 * plainOk / frames, 100.0 * fecOk / frames, decodeMBps);
+        }
+    }
+
+    private static int groupSize(int chunks, int group, int k) {
+        return Math.min(k, chunks - group * k);
+    }
+}
@@ -0,0 +1,73 @@
+package com.p2p.app;
+
+/**
+ * The capture chain {@link VoiceDspStage} replaced, kept verbatim as the benchmark baseline:
+ * high-pass, RMS, VAD, then the soft limiter, which measures the RMS again, each pass decoding
+ * and re-encoding little-endian samples.
+ */
+class LegacyVoiceChain {
+    private static final double VAD_TARGET_RMS = 2000.0;
+    private static final double VAD_THRESHOLD = 300.0;
+    private static final double VAD_DECAY = 0.9;
+    private static final double HP_A = 0.995;
+
+    private short hpPrevInCapture = 0;
+    private short hpPrevOutCapture = 0;
+    private double vadAvgCapture = 0.0;
+
+    /** One frame as AudioManager's capture loop processed it; true if it would have been sent. */
+    boolean process(byte[] buffer, int bytesRead) {
+        processHighPassCapture(buffer, bytesRead);
+        double rms = computeRms(buffer, bytesRead);
+        vadAvgCapture = VAD_DECAY * vadAvgCapture + (1.0 - VAD_DECAY) * rms;
+        if (vadAvgCapture > VAD_THRESHOLD) {
+            applySoftLimiter(buffer, bytesRead, VAD_TARGET_RMS);
+            return true;
+        }
+        return false;
+    }
+
+    private double computeRms(byte[] data, int length) {
+        long sumSq = 0;
+        int count = 0;
+        for (int i = 0; i + 1 < length; i += 2) {
+            short s = (short) ((data[i + 1] << 8) | (data[i] & 0xFF));
+            sumSq += (long) s * (long) s;
+            count++;
+        }
+        if (count == 0) return 0.0;
+        return Math.sqrt(sumSq / (double) count);
+    }
+
+    private void processHighPassCapture(byte[] data, int length) {
+        for (int i = 0; i + 1 < length; i += 2) {
+            short x = (short) ((data[i + 1] << 8) | (data[i] & 0xFF));
+            int y = (int) (x - hpPrevInCapture + HP_A * hpPrevOutCapture);
+            // clamp
+            if (y > Short.MAX_VALUE) y = Short.MAX_VALUE;
+            if (y < Short.MIN_VALUE) y = Short.MIN_VALUE;
+            hpPrevInCapture = x;
+            hpPrevOutCapture = (short) y;
+            data[i] = (byte) (y & 0xFF);
+            data[i + 1] = (byte) ((y >>> 8) & 0xFF);
+        }
+    }
+
+    private void applySoftLimiter(byte[] data, int length, double targetRms) {
+        double rms = computeRms(data, length);
+        if (rms <= 1e-6) return;
+        double scale = targetRms / rms;
+        // limit maximum boost to avoid amplifying noise too much
+        if (scale > 2.0) scale = 2.0;
+        // slight attenuation if too loud
+        if (scale < 0.5) scale = 0.5;
+        for (int i = 0; i + 1 < length; i += 2) {
+            short x = (short) ((data[i + 1] << 8) | (data[i] & 0xFF));
+            int y = (int) Math.round(x * scale);
+            if (y > Short.MAX_VALUE) y = Short.MAX_VALUE;
+            if (y < Short.MIN_VALUE) y = Short.MIN_VALUE;
+            data[i] = (byte) (y & 0xFF);
+            data[i + 1] = (byte) ((y >>> 8) & 0xFF);
+        }
+    }
+}
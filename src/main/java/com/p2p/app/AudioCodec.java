@@ -0,0 +1,51 @@
+package com.p2p.app;
+
+/**
+ * Compresses one frame of 16-bit little-endian mono PCM for {@link AudioManager}. Every frame
+ * is coded on its own, so a lost datagram never affects the frames after it, and the codec id
+ * travels in each {@link AudioPacket} so the receiver needs no negotiation.
+ * Implementations keep no per-call allocations; encoding state, if any, belongs to one capture thread.
+ */
+public interface AudioCodec {
+    byte ID_PCM = 0;
+    byte ID_IMA_ADPCM = 1;
+    byte ID_COMFORT_NOISE = 2; // not a codec: the payload is a DtxController silence descriptor
+
+    byte id();
+
+    /** Largest encoded size of a frame of pcmLength bytes. */
+    int maxEncodedLength(int pcmLength);
+
+    /** PCM bytes a frame of encodedLength bytes decodes to, or -1 if no frame has that size. */
+    int decodedLength(int encodedLength);
+
+    /** @return bytes written to out */
+    int encode(byte[] pcm, int pcmOffset, int pcmLength, byte[] out, int outOffset);
+
+    /** @return PCM bytes written, {@link #decodedLength} of length */
+    int decode(byte[] in, int offset, int length, byte[] pcm, int pcmOffset);
+
+    static AudioCodec forMode(String mode) {
+        switch (mode.toLowerCase()) {
+            case "pcm":
+                return new PcmAudioCodec();
+            case "adpcm":
+                return new ImaAdpcmAudioCodec();
+            default:
+                PerformanceLogger.logWarning("Audio codec", "Unknown codec '" + mode + "', using adpcm");
+                return new ImaAdpcmAudioCodec();
+        }
+    }
+
+    /** Decoder for a codec id read from a packet, or null if unknown. */
+    static AudioCodec forId(byte id) {
+        switch (id) {
+            case ID_PCM:
+                return new PcmAudioCodec();
+            case ID_IMA_ADPCM:
+                return new ImaAdpcmAudioCodec();
+            default:
+                return null;
+        }
+    }
+}
@@ -0,0 +1,152 @@
+package com.p2p.app;
+
+/**
+ * Packet loss concealment by waveform substitution, after ITU-T G.711 Appendix I. The last
+ * frames played are kept as history; for a missing frame the pitch period of the end of the
+ * history is found by normalised autocorrelation and that period is repeated, picking up where
+ * the real signal stopped. The first {@link #FADE_START_MS} of a loss play at full level, then
+ * the level ramps down to silence at {@link #MAX_CONCEAL_MS}, so a long loss fades instead of
+ * buzzing. The first real frame after a loss, or after frames were skipped, is cross-faded from
+ * the substituted waveform so the join does not click.
+ * Frames are 16-bit little-endian mono PCM. Not thread-safe: owned by the playback thread.
+ */
+public class AudioConcealer {
+    public static final int MAX_CONCEAL_MS = 60; // Silent from here on
+    private static final int FADE_START_MS = 10;
+    private static final int MIN_PITCH_HZ = 66;
+    private static final int MAX_PITCH_HZ = 400;
+    private static final int MATCH_MS = 10; // Stretch of history compared against its shifted copy
+    private static final int CROSSFADE_MS = 5;
+
+    private final int minLag;
+    private final int maxLag;
+    private final int matchLength;
+    private final int fadeStart; // in samples
+    private final int silentAfter;
+    private final int crossfade;
+    private final short[] history;
+    private int historyLength = 0;
+
+    private boolean substituting = false; // the next real frame must be cross-faded in
+    private int pitch;
+    private int phase;
+    private int concealedSamples;
+
+    public AudioConcealer(int sampleRate) {
+        this.minLag = sampleRate / MAX_PITCH_HZ;
+        this.maxLag = sampleRate / MIN_PITCH_HZ;
+        this.matchLength = sampleRate * MATCH_MS / 1000;
+        this.fadeStart = sampleRate * FADE_START_MS / 1000;
+        this.silentAfter = sampleRate * MAX_CONCEAL_MS / 1000;
+        this.crossfade = sampleRate * CROSSFADE_MS / 1000;
+        this.history = new short[maxLag + matchLength];
+    }
+
+    /** Records a received frame as played, cross-fading its start if it follows substituted audio. */
+    public void onFrame(byte[] frame, int length) {
+        if (substituting) {
+            int samples = Math.min(crossfade, length / 2);
+            for (int i = 0; i < samples; i++) {
+                double w = (i + 1) / (double) (samples + 1);
+                int s = (int) Math.round(w * sample(frame, i) + (1.0 - w) * nextSubstitute());
+                putSample(frame, i, s);
+            }
+            substituting = false;
+        }
+        remember(frame, length);
+    }
+
+    /** Fills a frame for a missing one, continuing an earlier concealment if there was no frame since. */
+    public void conceal(byte[] out, int length) {
+        if (!substituting) {
+            begin();
+        }
+        int samples = length / 2;
+        for (int i = 0; i < samples; i++) {
+            putSample(out, i, (int) Math.round(nextSubstitute()));
+        }
+    }
+
+    /** Frames were dropped to shorten the delay: cross-fade into whichever frame plays next. */
+    public void splice() {
+        begin();
+    }
+
+    /** True once a concealment has faded to silence; playing on would only write zeros. */
+    public boolean isExhausted() {
+        return substituting && concealedSamples >= silentAfter;
+    }
+
+    private void begin() {
+        substituting = true;
+        concealedSamples = 0;
+        phase = 0;
+        pitch = historyLength > 0 ? estimatePitch() : 0;
+    }
+
+    /** One sample of the repeated pitch period at the current fade level. */
+    private double nextSubstitute() {
+        if (pitch == 0) {
+            return 0.0;
+        }
+        double gain;
+        if (concealedSamples < fadeStart) {
+            gain = 1.0;
+        } else if (concealedSamples < silentAfter) {
+            gain = 1.0 - (concealedSamples - fadeStart) / (double) (silentAfter - fadeStart);
+        } else {
+            gain = 0.0;
+        }
+        short s = history[historyLength - pitch + phase];
+        phase = phase + 1 == pitch ? 0 : phase + 1;
+        concealedSamples++;
+        return s * gain;
+    }
+
+    /** Lag in [minLag, maxLag] whose shifted history best matches the most recent matchLength samples. */
+    private int estimatePitch() {
+        int match = Math.min(matchLength, historyLength - minLag);
+        if (match <= 0) {
+            return historyLength;
+        }
+        int end = historyLength;
+        int best = Math.min(maxLag, historyLength - match);
+        double bestScore = Double.NEGATIVE_INFINITY;
+        for (int lag = minLag; lag <= Math.min(maxLag, historyLength - match); lag++) {
+            double cross = 0.0;
+            double energy = 1.0;
+            for (int i = end - match; i < end; i++) {
+                int shifted = history[i - lag];
+                cross += history[i] * shifted;
+                energy += shifted * shifted;
+            }
+            double score = cross / Math.sqrt(energy);
+            if (score > bestScore) {
+                bestScore = score;
+                best = lag;
+            }
+        }
+        return best;
+    }
+
+    private void remember(byte[] frame, int length) {
+        int samples = Math.min(length / 2, history.length);
+        int keep = Math.min(historyLength, history.length - samples);
+        System.arraycopy(history, historyLength - keep, history, 0, keep);
+        for (int i = 0; i < samples; i++) {
+            history[keep + i] = sample(frame, length / 2 - samples + i);
+        }
+        historyLength = keep + samples;
+    }
+
+    private static short sample(byte[] data, int index) {
+        return (short) ((data[2 * index + 1] << 8) | (data[2 * index] & 0xFF));
+    }
+
+    private static void putSample(byte[] data, int index, int value) {
+        if (value > Short.MAX_VALUE) value = Short.MAX_VALUE;
+        if (value < Short.MIN_VALUE) value = Short.MIN_VALUE;
+        data[2 * index] = (byte) (value & 0xFF);
+        data[2 * index + 1] = (byte) ((value >>> 8) & 0xFF);
+    }
+}
@@ -0,0 +1,33 @@
+package com.p2p.app;
+
+/**
+ * One step of per-frame audio processing in {@link AudioManager}, on 16-bit mono samples.
+ * Stages keep their filter state between frames, so each direction of audio needs its own
+ * instance; they must not allocate per frame.
+ */
+public interface AudioDspStage {
+
+    /**
+     * Processes a frame in place.
+     * @return false if the frame carries nothing worth sending or playing (e.g. no voice)
+     */
+    boolean process(short[] samples, int count);
+
+    /** Reads 16-bit little-endian PCM into samples; returns the sample count. */
+    static int unpack(byte[] pcm, int length, short[] samples) {
+        int count = length / 2;
+        for (int i = 0; i < count; i++) {
+            samples[i] = (short) ((pcm[2 * i + 1] << 8) | (pcm[2 * i] & 0xFF));
+        }
+        return count;
+    }
+
+    /** Writes samples as 16-bit little-endian PCM; returns the byte length. */
+    static int pack(short[] samples, int count, byte[] pcm) {
+        for (int i = 0; i < count; i++) {
+            pcm[2 * i] = (byte) samples[i];
+            pcm[2 * i + 1] = (byte) (samples[i] >> 8);
+        }
+        return count * 2;
+    }
+}
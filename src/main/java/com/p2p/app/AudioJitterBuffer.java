@@ -0,0 +1,300 @@
+package com.p2p.app;
+
+/**
+ * Reorders received audio frames by sequence number and plays them out after a delay that
+ * follows measured network jitter. The jitter is estimated RFC 3550 style from the frames'
+ * capture timestamps and arrival times; the target delay is that times
+ * {@link Constants#AUDIO_JITTER_MULTIPLIER}, rising at once and decaying slowly, between
+ * {@link Constants#AUDIO_JITTER_MIN_MS} and {@link Constants#AUDIO_JITTER_MAX_MS}.
+ *
+ * Frames are whatever one datagram carries, 10 to {@link Constants#AUDIO_PTIME_MAX_MS} ms, and
+ * need not all be the same length. A talk spurt starts playing once the target delay is buffered
+ * behind its first frame, or that frame has waited that long. From then on the playback thread pulls one frame each time the speaker needs one:
+ * <ul>
+ * <li>the next frame in sequence if it is here;</li>
+ * <li>if it is missing while the target delay is buffered behind it, it is taken as lost and
+ * concealed;</li>
+ * <li>otherwise it is late: the gap is concealed without moving on, which deepens the buffer by
+ * one frame. Once {@link AudioConcealer#MAX_CONCEAL_MS} have faded out, the frame is given up if
+ * later ones are here, and the spurt ends if not;</li>
+ * <li>when more than the target plus {@link #SHRINK_MARGIN_FRAMES} frames are buffered, one frame
+ * is skipped (at most every {@link #SHRINK_SPACING_FRAMES} frames) to bring the delay back down.</li>
+ * </ul>
+ * A frame arriving after its turn was concealed is dropped as late. Frames recovered from a later
+ * datagram's redundancy ({@link #offerRecovered}) fill gaps the same way, in time or not at all.
+ * Once the sender says where a talk spurt ended ({@link #markSpurtEnd}), the spurt stops there
+ * instead of being stretched by concealment, and frames still missing before it count as lost.
+ */
+public class AudioJitterBuffer {
+    private static final double TARGET_DECAY = 0.02; // Per 10 ms of audio, when the jitter has calmed down
+    private static final int SHRINK_MARGIN_FRAMES = 2;
+    private static final int SHRINK_SPACING_FRAMES = 5;
+
+    private static final class Slot {
+        final byte[] data;
+        int length;
+        int seq;
+        int timestamp;
+        boolean present;
+
+        Slot(int capacity) {
+            data = new byte[capacity];
+        }
+    }
+
+    private final Slot[] slots = new Slot[Constants.AUDIO_JITTER_SLOTS]; // by seq
+    private final int mask = Constants.AUDIO_JITTER_SLOTS - 1;
+    private final int bytesPerMilli;
+    private final AudioConcealer concealer;
+    private int count = 0;
+    private boolean playing = false;
+    private int nextSeq;
+    private int endedAt; // nextSeq when the previous talk spurt ended
+    private boolean endMarked = false;
+    private int endMark; // first seq after the spurt, from the sender's silence descriptor
+    private long firstArrivalMillis;
+    private int frameMillis = 10; // of the last frame received
+    private int lastLength = 0;
+    private int sinceShrink = 0;
+
+    // Jitter estimate
+    private boolean haveTransit = false;
+    private int lastTransit;
+    private int lastTimestamp;
+    private double jitterMillis = 0.0;
+    private double targetDelayMillis = Constants.AUDIO_JITTER_MIN_MS;
+
+    // What the last poll returned
+    private boolean playedReceived;
+    private int playedTimestamp;
+
+    /** @param maxFrameBytes largest PCM payload of one frame */
+    public AudioJitterBuffer(int sampleRate, int maxFrameBytes) {
+        this.bytesPerMilli = sampleRate / 1000 * 2;
+        this.concealer = new AudioConcealer(sampleRate);
+        for (int i = 0; i < slots.length; i++) {
+            slots[i] = new Slot(maxFrameBytes);
+        }
+    }
+
+    /** Stores a received frame; called from the receive thread. */
+    public synchronized void offer(byte[] buf, int offset, int length, int seq, int timestamp, long nowMillis) {
+        updateDelay(timestamp, (int) nowMillis - timestamp);
+        if (endMarked && AudioPacket.seqDistance(seq, endMark) >= 0) {
+            endMarked = false; // talking again
+        }
+        int distance = AudioPacket.seqDistance(seq, nextSeq);
+        if (!playing && count == 0) {
+            if (lastLength > 0 && distance < 0 && distance > -slots.length) {
+                PerformanceLogger.logAudioJitterLate(); // straggler of the spurt that already ended
+                return;
+            }
+            endedAt = nextSeq;
+            nextSeq = seq; // a new talk spurt
+            firstArrivalMillis = nowMillis;
+        } else if (distance >= slots.length || distance <= -slots.length) {
+            clear(); // far off: the sender restarted
+            endedAt = seq;
+            nextSeq = seq;
+            firstArrivalMillis = nowMillis;
+        } else if (distance < 0) {
+            if (playing) {
+                PerformanceLogger.logAudioJitterLate();
+                return;
+            }
+            nextSeq = seq; // reordered ahead of the first frame of a spurt still buffering
+        }
+        store(buf, offset, length, seq, timestamp);
+    }
+
+    /**
+     * Stores a frame recovered from a later datagram's redundancy; called from the receive thread.
+     * Unlike {@link #offer} it leaves the jitter estimate alone, since the copy arrived a frame or
+     * more after the original should have, and it never starts a talk spurt on its own.
+     * @return true if the frame was missing and is still to be played
+     */
+    public synchronized boolean offerRecovered(byte[] buf, int offset, int length, int seq, int timestamp) {
+        if (!playing && count == 0) {
+            return false;
+        }
+        int distance = AudioPacket.seqDistance(seq, nextSeq);
+        if (distance >= slots.length || distance <= -slots.length) {
+            return false;
+        }
+        if (distance < 0) {
+            if (playing || (lastLength > 0 && AudioPacket.seqDistance(seq, endedAt) < 0)) {
+                return false; // its turn has passed
+            }
+            nextSeq = seq; // ahead of the first frame of a spurt still buffering
+        }
+        Slot slot = slots[seq & mask];
+        if (slot.present && slot.seq == seq) {
+            return false;
+        }
+        store(buf, offset, length, seq, timestamp);
+        return true;
+    }
+
+    /** The sender went silent; seq is the number its next frame will have. Called from the receive thread. */
+    public synchronized void markSpurtEnd(int seq) {
+        endMarked = true;
+        endMark = seq;
+    }
+
+    private void store(byte[] buf, int offset, int length, int seq, int timestamp) {
+        Slot slot = slots[seq & mask];
+        if (slot.present && slot.seq == seq) {
+            return; // duplicate
+        }
+        if (!slot.present) {
+            count++;
+        }
+        System.arraycopy(buf, offset, slot.data, 0, length);
+        slot.length = length;
+        slot.seq = seq;
+        slot.timestamp = timestamp;
+        slot.present = true;
+        frameMillis = Math.max(1, length / bytesPerMilli);
+        notifyAll();
+    }
+
+    /** Waits up to timeoutMillis while there is nothing to play; true if {@link #poll} would return a frame. */
+    public synchronized boolean awaitPlayable(long timeoutMillis) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + timeoutMillis;
+        while (!playing) {
+            long now = MediaClock.nowMillis();
+            if (isReady(now)) {
+                return true;
+            }
+            long wait = deadline - System.currentTimeMillis();
+            if (wait <= 0) {
+                return false;
+            }
+            if (count > 0) {
+                wait = Math.max(1, Math.min(wait, firstArrivalMillis + (long) Math.ceil(targetDelayMillis) - now));
+            }
+            wait(wait);
+        }
+        return true;
+    }
+
+    private boolean isReady(long nowMillis) {
+        // The frame played first is no margin: the next one is due as soon as it has played out
+        return count > 0 && ((count - 1) * frameMillis >= targetDelayMillis
+                || nowMillis - firstArrivalMillis >= targetDelayMillis);
+    }
+
+    /**
+     * The frame to play now, received or concealed, copied into out.
+     * @return its length in bytes, or 0 when no talk spurt is playing
+     */
+    public synchronized int poll(byte[] out, long nowMillis) {
+        playedReceived = false;
+        if (!playing) {
+            if (!isReady(nowMillis)) {
+                return 0;
+            }
+            playing = true;
+            sinceShrink = 0;
+        }
+        Slot slot = slots[nextSeq & mask];
+        int length;
+        if (slot.present && slot.seq == nextSeq) {
+            length = take(slot, out);
+            concealer.onFrame(out, length);
+            playedReceived = true;
+            playedTimestamp = slot.timestamp;
+            shrinkIfDeep();
+        } else if (lastLength == 0) {
+            // Nothing played yet to conceal from: skip ahead to what has arrived
+            if (count > 0) {
+                nextSeq = (nextSeq + 1) & 0xFFFF;
+            } else {
+                playing = false;
+            }
+            return 0;
+        } else if (endMarked && count == 0 && AudioPacket.seqDistance(endMark, nextSeq) <= 0) {
+            playing = false; // the sender went silent right here: nothing to stretch
+            return 0;
+        } else if (endMarked || (count > 0 && (count * frameMillis >= targetDelayMillis || concealer.isExhausted()))) {
+            length = lastLength;
+            concealer.conceal(out, length);
+            nextSeq = (nextSeq + 1) & 0xFFFF;
+            PerformanceLogger.logAudioConcealed(true);
+        } else if (count == 0 && concealer.isExhausted()) {
+            playing = false; // faded out: the talk spurt is over or the stream has stalled
+            return 0;
+        } else {
+            length = lastLength;
+            concealer.conceal(out, length); // late: stretch and wait for it
+            PerformanceLogger.logAudioConcealed(false);
+        }
+        PerformanceLogger.logAudioJitterDelay((int) Math.round(targetDelayMillis), (int) Math.round(jitterMillis),
+                count * frameMillis);
+        return length;
+    }
+
+    private int take(Slot slot, byte[] out) {
+        System.arraycopy(slot.data, 0, out, 0, slot.length);
+        slot.present = false;
+        count--;
+        nextSeq = (nextSeq + 1) & 0xFFFF;
+        lastLength = slot.length;
+        return slot.length;
+    }
+
+    /** Skips the next frame when the buffer holds well over the target, then cross-fades the join. */
+    private void shrinkIfDeep() {
+        sinceShrink++;
+        if (sinceShrink < SHRINK_SPACING_FRAMES
+                || count * frameMillis < targetDelayMillis + SHRINK_MARGIN_FRAMES * frameMillis) {
+            return;
+        }
+        Slot next = slots[nextSeq & mask];
+        if (next.present && next.seq == nextSeq) {
+            next.present = false;
+            count--;
+            nextSeq = (nextSeq + 1) & 0xFFFF;
+            sinceShrink = 0;
+            concealer.splice();
+            PerformanceLogger.logAudioJitterShrink();
+        }
+    }
+
+    /** True if the last {@link #poll} returned a received frame rather than a concealed one. */
+    public synchronized boolean playedReceived() {
+        return playedReceived;
+    }
+
+    /** Capture timestamp of the last received frame returned by {@link #poll}. */
+    public synchronized int playedTimestamp() {
+        return playedTimestamp;
+    }
+
+    private void updateDelay(int timestamp, int transit) {
+        if (!haveTransit) {
+            haveTransit = true;
+        } else if (timestamp != lastTimestamp) {
+            jitterMillis += (Math.abs(transit - lastTransit) - jitterMillis) / 16.0;
+        }
+        lastTransit = transit;
+        lastTimestamp = timestamp;
+
+        double wanted = Math.max(Constants.AUDIO_JITTER_MIN_MS,
+                Math.min(Constants.AUDIO_JITTER_MAX_MS, jitterMillis * Constants.AUDIO_JITTER_MULTIPLIER));
+        if (wanted > targetDelayMillis) {
+            targetDelayMillis = wanted;
+        } else {
+            targetDelayMillis += (wanted - targetDelayMillis) * Math.min(1.0, TARGET_DECAY * frameMillis / 10.0);
+        }
+    }
+
+    private void clear() {
+        for (Slot slot : slots) {
+            slot.present = false;
+        }
+        count = 0;
+        playing = false;
+        endMarked = false;
+    }
+}
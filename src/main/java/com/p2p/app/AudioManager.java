@@ -1,6 +1,7 @@
 package com.p2p.app;
 
 import javax.sound.sampled.*;
+import java.io.IOException;
 import java.net.DatagramPacket;
 import java.net.DatagramSocket;
 import java.net.InetAddress;
@@ -17,14 +18,17 @@ public class AudioManager {
     // 10ms frame at 16kHz, 16-bit mono => 160 samples => 320 bytes
     private static final int FRAME_BYTES = (SAMPLE_RATE / 100) * (SAMPLE_SIZE / 8) * CHANNELS; // 320
     private static final int BUFFER_SIZE = FRAME_BYTES; // use fixed frame size for stable latency
-    // VAD parameters
-    private static final double VAD_TARGET_RMS = 2000.0; // target RMS for soft limiter scaling
-    private static final double VAD_THRESHOLD = 300.0;   // minimum RMS to consider voice present
-    private static final double VAD_DECAY = 0.9;         // moving average decay
+    private static final int FRAME_MILLIS = 10;
+    private static final int BYTES_PER_MILLI = SAMPLE_RATE / 1000 * (SAMPLE_SIZE / 8) * CHANNELS;
+    // Playback keeps only this much queued in the speaker line; the jitter buffer holds the rest
+    private static final int LINE_AHEAD_BYTES = 2 * FRAME_BYTES;
+    // Frames are captured and processed 10 ms at a time but sent up to this much per datagram
+    private static final int MAX_PACKET_BYTES = Constants.AUDIO_PTIME_MAX_MS * BYTES_PER_MILLI;
     
     private final String remoteIp;
     private final int sendPort;
     private final int receivePort;
+    private final AvSyncController avSync;
     
     private DatagramSocket sendSocket;
     private DatagramSocket receiveSocket;
@@ -36,23 +40,50 @@ public class AudioManager {
     private final AtomicBoolean enabled = new AtomicBoolean(false);
     
     private Thread captureThread;
+    private Thread receiveThread;
     private Thread playbackThread;
+    private Thread feedbackThread;
+    private final AudioJitterBuffer jitterBuffer = new AudioJitterBuffer(SAMPLE_RATE, MAX_PACKET_BYTES);
+    private int sendSeq = 0; // capture thread only
+    private final AudioCodec encoder = AudioCodec.forMode(Constants.AUDIO_CODEC); // capture thread only
+    private final AudioCodec[] decoders = new AudioCodec[256]; // by codec id, created on first use; receive thread only
 
-    // High-pass filter state (simple DC-blocking IIR): y[n] = x[n] - x[n-1] + a*y[n-1]
-    private short hpPrevInCapture = 0;
-    private short hpPrevOutCapture = 0;
-    private short hpPrevInPlayback = 0;
-    private short hpPrevOutPlayback = 0;
-    private static final double HP_A = 0.995; // pole close to 1 for low cutoff
+    // Packet time: processed frames are collected here until a datagram's worth is ready (capture thread only)
+    private final AudioPtimeController ptime = new AudioPtimeController(Constants.AUDIO_PTIME);
+    private final byte[] pending = new byte[MAX_PACKET_BYTES];
+    private int pendingLength = 0;
+    private int pendingTarget; // bytes, from the packet time when the first frame went in
+    private long pendingCaptureMillis;
 
-    // VAD moving average state
-    private double vadAvgCapture = 0.0;
-    private double vadAvgPlayback = 0.0;
+    // Redundancy (RED): the last frames sent in this talk spurt, coded for repeating in later
+    // datagrams (capture thread only). Copies are IMA ADPCM: the primary payload itself, or a second
+    // encoding under PCM.
+    private final AudioRedundancyController redundancy =
+            new AudioRedundancyController(Constants.AUDIO_RED_MODE, Constants.AUDIO_RED_MAX_DEPTH);
+    private final AudioCodec redundantEncoder = encoder.id() == AudioCodec.ID_PCM ? new ImaAdpcmAudioCodec() : encoder;
+    private final byte[][] history = new byte[Constants.AUDIO_RED_MAX_DEPTH][redundantEncoder.maxEncodedLength(MAX_PACKET_BYTES)];
+    private final int[] historyLengths = new int[Constants.AUDIO_RED_MAX_DEPTH];
+    private final long[] historyTimestamps = new long[Constants.AUDIO_RED_MAX_DEPTH];
+    private int historyNext = 0;
+    private int historyCount = 0;
+    private final AudioReceiveStatistics receiveStats = new AudioReceiveStatistics(); // receive thread only
+    private long lastReportMillis = 0; // receive thread only
+
+    // High-pass, VAD and soft limiter, with separate filter state per direction
+    private final AudioDspStage captureDsp = new VoiceDspStage();
+    private final AudioDspStage playbackDsp = new VoiceDspStage();
+    private final DtxController dtx = new DtxController(FRAME_MILLIS); // capture thread only
+    private final ComfortNoiseGenerator comfortNoise = new ComfortNoiseGenerator();
+    private EchoCanceller echoCanceller; // null when disabled; fed from the playback thread
+
+    // Lip sync: silence written into the speaker line (or frames skipped) to follow avSync
+    private int syncAddedMillis = 0;
     
-    public AudioManager(String remoteIp, int sendPort, int receivePort) {
+    public AudioManager(String remoteIp, int sendPort, int receivePort, AvSyncController avSync) {
         this.remoteIp = remoteIp;
         this.sendPort = sendPort;
         this.receivePort = receivePort;
+        this.avSync = avSync;
     }
     
     public boolean initialize() {
@@ -60,8 +91,10 @@ public class AudioManager {
             sendSocket = new DatagramSocket();
             receiveSocket = new DatagramSocket(receivePort);
             receiveSocket.setSoTimeout(1000);
+            sendSocket.setSoTimeout(1000); // receiver reports come back to it
             
-            System.out.println("AudioManager: Initialized (DISABLED - use /audio to enable)");
+            System.out.println("AudioManager: Initialized (DISABLED - use /audio to enable), codec " + Constants.AUDIO_CODEC
+                    + ", redundancy " + Constants.AUDIO_RED_MODE + ", ptime " + Constants.AUDIO_PTIME);
             return true;
             
         } catch (Exception e) {
@@ -91,19 +124,29 @@ public class AudioManager {
             speakers = (SourceDataLine) AudioSystem.getLine(speakerInfo);
             
             microphone.open(format, BUFFER_SIZE * 4); // slightly larger internal buffer
-            speakers.open(format, BUFFER_SIZE * 8);   // extra headroom to avoid underruns
+            // extra headroom to avoid underruns, plus room for the lip-sync delay
+            speakers.open(format, BUFFER_SIZE * 8 + Constants.AV_SYNC_MAX_DELAY_MS * BYTES_PER_MILLI);
             
             microphone.start();
             speakers.start();
+            if (Constants.AUDIO_AEC_ENABLED) {
+                // The speaker sample playing as the newest unread microphone sample was captured
+                echoCanceller = new EchoCanceller(SAMPLE_RATE, Constants.AUDIO_AEC_TAIL_MS,
+                        () -> speakers.getLongFramePosition() - microphone.available() / 2);
+            }
             
             enabled.set(true);
             running.set(true);
             
             captureThread = new Thread(this::captureLoop, "AudioCapture");
+            receiveThread = new Thread(this::receiveLoop, "AudioReceive");
             playbackThread = new Thread(this::playbackLoop, "AudioPlayback");
+            feedbackThread = new Thread(this::feedbackLoop, "AudioFeedback");
             
             captureThread.start();
+            receiveThread.start();
             playbackThread.start();
+            feedbackThread.start();
             
             System.out.println("✓ AudioManager: ENABLED (muted - use /mute to unmute)");
             
@@ -118,7 +161,9 @@ public class AudioManager {
         
         try {
             if (captureThread != null) captureThread.interrupt();
+            if (receiveThread != null) receiveThread.interrupt();
             if (playbackThread != null) playbackThread.interrupt();
+            if (feedbackThread != null) feedbackThread.interrupt();
             
             if (microphone != null) {
                 microphone.stop();
@@ -157,26 +202,53 @@ public class AudioManager {
     
     private void captureLoop() {
         byte[] buffer = new byte[BUFFER_SIZE];
+        short[] samples = new short[BUFFER_SIZE / 2];
+        byte[] packetBuffer = new byte[AudioPacket.HEADER_SIZE + encoder.maxEncodedLength(MAX_PACKET_BYTES)
+                + Constants.AUDIO_RED_MAX_DEPTH * (AudioPacket.BLOCK_SIZE + history[0].length)];
         
         try {
             InetAddress remoteAddress = InetAddress.getByName(remoteIp);
             
             while (running.get() && !Thread.currentThread().isInterrupted()) {
                 if (muted.get()) {
+                    pendingLength = 0; // a partial packet would be sent later with someone else's timestamp
                     Thread.sleep(50);
                     continue;
                 }
                 
                 int bytesRead = microphone.read(buffer, 0, buffer.length);
+                // read returns once the frame is complete, so its first sample is one frame old
+                long captureMillis = MediaClock.nowMillis() - bytesRead / BYTES_PER_MILLI;
                 if (bytesRead > 0) {
-                    // process: high-pass + soft limiter + VAD
-                    processHighPassCapture(buffer, bytesRead);
-                    double rms = computeRms(buffer, bytesRead);
-                    vadAvgCapture = VAD_DECAY * vadAvgCapture + (1.0 - VAD_DECAY) * rms;
-                    if (vadAvgCapture > VAD_THRESHOLD) {
-                        applySoftLimiter(buffer, bytesRead, VAD_TARGET_RMS);
-                        DatagramPacket packet = new DatagramPacket(buffer, 0, bytesRead, remoteAddress, sendPort);
-                        sendSocket.send(packet);
+                    // process: echo cancellation, then high-pass + soft limiter + VAD, then DTX
+                    int count = AudioDspStage.unpack(buffer, bytesRead, samples);
+                    if (echoCanceller != null) {
+                        echoCanceller.process(samples, count);
+                    }
+                    int action = dtx.onFrame(captureDsp.process(samples, count), samples, count);
+                    if (action == DtxController.SEND_FRAME) {
+                        if (pendingLength == 0) {
+                            pendingTarget = ptime.getPtimeMillis() * BYTES_PER_MILLI;
+                            pendingCaptureMillis = captureMillis;
+                        }
+                        AudioDspStage.pack(samples, count, buffer);
+                        System.arraycopy(buffer, 0, pending, pendingLength, bytesRead);
+                        pendingLength += bytesRead;
+                        if (pendingLength >= pendingTarget) {
+                            sendPending(packetBuffer, remoteAddress);
+                        }
+                    } else {
+                        if (pendingLength > 0) {
+                            sendPending(packetBuffer, remoteAddress); // the talk spurt's last, shorter packet
+                        }
+                        historyCount = 0; // copies never reach across silence into another talk spurt
+                        if (action == DtxController.SEND_SID) {
+                            // The next frame's seq, not used up: it marks where the talk spurt ended
+                            AudioPacket.writeHeader(packetBuffer, sendSeq, captureMillis, AudioCodec.ID_COMFORT_NOISE, 0);
+                            int length = AudioPacket.HEADER_SIZE + dtx.writeSid(packetBuffer, AudioPacket.HEADER_SIZE);
+                            sendSocket.send(new DatagramPacket(packetBuffer, 0, length, remoteAddress, sendPort));
+                            PerformanceLogger.logAudioSidSent();
+                        }
                     }
                 }
             }
@@ -187,21 +259,68 @@ public class AudioManager {
         }
     }
     
-    private void playbackLoop() {
-        byte[] buffer = new byte[BUFFER_SIZE];
+    /** Decodes received frames into the jitter buffer; playback pulls them out on the speaker's clock. */
+    private void receiveLoop() {
+        // PCM is the largest payload, and every frame may come with the deepest redundancy
+        byte[] packetBuffer = new byte[AudioPacket.HEADER_SIZE
+                + (Constants.AUDIO_RED_MAX_DEPTH + 1) * (AudioPacket.BLOCK_SIZE + MAX_PACKET_BYTES)];
+        byte[] pcm = new byte[MAX_PACKET_BYTES];
+        byte[] report = new byte[AudioPacket.REPORT_SIZE];
+        DatagramPacket packet = new DatagramPacket(packetBuffer, packetBuffer.length);
         
         while (running.get() && !Thread.currentThread().isInterrupted()) {
             try {
-                DatagramPacket packet = new DatagramPacket(buffer, buffer.length);
+                packet.setLength(packetBuffer.length);
                 receiveSocket.receive(packet);
                 
-                if (packet.getLength() > 0) {
-                    processHighPassPlayback(packet.getData(), packet.getLength());
-                    double rms = computeRms(packet.getData(), packet.getLength());
-                    vadAvgPlayback = VAD_DECAY * vadAvgPlayback + (1.0 - VAD_DECAY) * rms;
-                    if (vadAvgPlayback > VAD_THRESHOLD) {
-                        applySoftLimiter(packet.getData(), packet.getLength(), VAD_TARGET_RMS);
-                        speakers.write(packet.getData(), packet.getOffset(), packet.getLength());
+                // The primary payload sits between the block headers and the redundant payloads
+                int payload = AudioPacket.payloadOffset(packetBuffer, 0);
+                int length = packet.getLength() - payload;
+                for (int i = 0; i < AudioPacket.redundancy(packetBuffer, 0); i++) {
+                    length -= AudioPacket.blockLength(packetBuffer, 0, i);
+                }
+                if (packet.getLength() > AudioPacket.HEADER_SIZE && length > 0) {
+                    int seq = AudioPacket.seq(packetBuffer, 0);
+                    int timestamp = AudioPacket.timestamp(packetBuffer, 0);
+                    byte codec = AudioPacket.codec(packetBuffer, 0);
+                    if (codec == AudioCodec.ID_COMFORT_NOISE) {
+                        if (comfortNoise.update(packetBuffer, payload, length, MediaClock.nowMillis())) {
+                            jitterBuffer.markSpurtEnd(seq);
+                            PerformanceLogger.logAudioSidReceived();
+                        }
+                        continue;
+                    }
+                    PerformanceLogger.logAudioPacketReceived();
+                    int pcmLength = decode(codec, packetBuffer, payload, length, pcm);
+                    if (pcmLength < 0) {
+                        PerformanceLogger.logAudioPacketDropped();
+                        PerformanceLogger.logWarningRateLimited("AudioManager", "Undecodable audio packet (codec " + codec
+                                + ", " + length + " bytes)");
+                        continue;
+                    }
+                    long now = MediaClock.nowMillis();
+                    receiveStats.onPacket(seq, timestamp, now);
+                    jitterBuffer.offer(pcm, 0, pcmLength, seq, timestamp, now);
+                    
+                    // Redundant copies fill gaps the jitter buffer still has, newest first
+                    int offset = payload + length;
+                    for (int i = 0; i < AudioPacket.redundancy(packetBuffer, 0); i++) {
+                        int blockLength = AudioPacket.blockLength(packetBuffer, 0, i);
+                        int copyLength = decode(AudioPacket.blockCodec(packetBuffer, 0, i), packetBuffer, offset,
+                                blockLength, pcm);
+                        if (copyLength > 0 && jitterBuffer.offerRecovered(pcm, 0, copyLength, (seq - 1 - i) & 0xFFFF,
+                                timestamp - AudioPacket.blockTimestampOffset(packetBuffer, 0, i))) {
+                            PerformanceLogger.logAudioRedundancyRecovered();
+                        }
+                        offset += blockLength;
+                    }
+                    
+                    if (now - lastReportMillis >= Constants.AUDIO_REPORT_INTERVAL_MS) {
+                        lastReportMillis = now;
+                        double loss = receiveStats.closeInterval();
+                        int reportLength = AudioPacket.writeReport(report, loss, receiveStats.intervalBurst(),
+                                receiveStats.jitterMillis());
+                        receiveSocket.send(new DatagramPacket(report, reportLength, packet.getSocketAddress()));
                     }
                 }
                 
@@ -209,69 +328,176 @@ public class AudioManager {
                 // Normal timeout, continue
             } catch (Exception e) {
                 if (running.get()) {
-                    System.err.println("AudioManager: Playback error - " + e.getMessage());
+                    System.err.println("AudioManager: Receive error - " + e.getMessage());
                 }
             }
         }
     }
     
-    private double computeRms(byte[] data, int length) {
-        long sumSq = 0;
-        int count = 0;
-        for (int i = 0; i + 1 < length; i += 2) {
-            short s = (short) ((data[i + 1] << 8) | (data[i] & 0xFF));
-            sumSq += (long) s * (long) s;
-            count++;
+    /** Decodes one payload into pcm; returns its PCM length, or -1 if it cannot be decoded into pcm. */
+    private int decode(byte codec, byte[] in, int offset, int length, byte[] pcm) {
+        AudioCodec decoder = decoders[codec & 0xFF];
+        if (decoder == null) {
+            decoder = AudioCodec.forId(codec);
+            if (decoder == null) {
+                return -1;
+            }
+            decoders[codec & 0xFF] = decoder;
+        }
+        int pcmLength = decoder.decodedLength(length);
+        if (pcmLength <= 0 || pcmLength > pcm.length) {
+            return -1;
         }
-        if (count == 0) return 0.0;
-        return Math.sqrt(sumSq / (double) count);
+        return decoder.decode(in, offset, length, pcm, 0);
     }
 
-    private void processHighPassCapture(byte[] data, int length) {
-        for (int i = 0; i + 1 < length; i += 2) {
-            short x = (short) ((data[i + 1] << 8) | (data[i] & 0xFF));
-            int y = (int) (x - hpPrevInCapture + HP_A * hpPrevOutCapture);
-            // clamp
-            if (y > Short.MAX_VALUE) y = Short.MAX_VALUE;
-            if (y < Short.MIN_VALUE) y = Short.MIN_VALUE;
-            hpPrevInCapture = x;
-            hpPrevOutCapture = (short) y;
-            data[i] = (byte) (y & 0xFF);
-            data[i + 1] = (byte) ((y >>> 8) & 0xFF);
+    /** Sends the collected frames as one datagram, with redundant copies of the datagrams before it. */
+    private void sendPending(byte[] packetBuffer, InetAddress remoteAddress) throws IOException {
+        int depth = Math.min(redundancy.getDepth(), historyCount);
+        AudioPacket.writeHeader(packetBuffer, sendSeq++, pendingCaptureMillis, encoder.id(), depth);
+        int payload = AudioPacket.HEADER_SIZE + depth * AudioPacket.BLOCK_SIZE;
+        int encoded = encoder.encode(pending, 0, pendingLength, packetBuffer, payload);
+        int length = appendRedundancy(packetBuffer, payload + encoded, depth, pendingCaptureMillis);
+        remember(pending, pendingLength, packetBuffer, payload, encoded, pendingCaptureMillis);
+        sendSocket.send(new DatagramPacket(packetBuffer, 0, length, remoteAddress, sendPort));
+        PerformanceLogger.logAudioPacketSent(length, pendingTarget / BYTES_PER_MILLI, ptime.isAdaptive());
+        pendingLength = 0;
+    }
+
+    /** Writes the block headers and payloads of the last depth frames after the primary one; returns the datagram length. */
+    private int appendRedundancy(byte[] packet, int offset, int depth, long captureMillis) {
+        for (int i = 0; i < depth; i++) {
+            int h = (historyNext - 1 - i + history.length) % history.length;
+            int timestampOffset = (int) Math.min(0xFFFF, captureMillis - historyTimestamps[h]);
+            AudioPacket.writeBlock(packet, i, timestampOffset, redundantEncoder.id(), historyLengths[h]);
+            System.arraycopy(history[h], 0, packet, offset, historyLengths[h]);
+            offset += historyLengths[h];
+        }
+        return offset;
+    }
+
+    /** Keeps the frame just sent for repeating in later datagrams. */
+    private void remember(byte[] pcm, int pcmLength, byte[] packet, int payload, int encoded, long captureMillis) {
+        if (!redundancy.isEnabled()) {
+            return;
+        }
+        int h = historyNext;
+        if (redundantEncoder == encoder) {
+            System.arraycopy(packet, payload, history[h], 0, encoded);
+            historyLengths[h] = encoded;
+        } else {
+            historyLengths[h] = redundantEncoder.encode(pcm, 0, pcmLength, history[h], 0);
         }
+        historyTimestamps[h] = captureMillis;
+        historyNext = (h + 1) % history.length;
+        historyCount = Math.min(historyCount + 1, history.length);
     }
 
-    private void processHighPassPlayback(byte[] data, int length) {
-        for (int i = 0; i + 1 < length; i += 2) {
-            short x = (short) ((data[i + 1] << 8) | (data[i] & 0xFF));
-            int y = (int) (x - hpPrevInPlayback + HP_A * hpPrevOutPlayback);
-            if (y > Short.MAX_VALUE) y = Short.MAX_VALUE;
-            if (y < Short.MIN_VALUE) y = Short.MIN_VALUE;
-            hpPrevInPlayback = x;
-            hpPrevOutPlayback = (short) y;
-            data[i] = (byte) (y & 0xFF);
-            data[i + 1] = (byte) ((y >>> 8) & 0xFF);
+    /** Receives the peer's reports on the send socket and adapts the redundancy depth and packet time. */
+    private void feedbackLoop() {
+        byte[] buffer = new byte[AudioPacket.REPORT_SIZE];
+        DatagramPacket packet = new DatagramPacket(buffer, buffer.length);
+        while (running.get() && !Thread.currentThread().isInterrupted()) {
+            try {
+                packet.setLength(buffer.length);
+                sendSocket.receive(packet);
+                if (packet.getLength() >= AudioPacket.REPORT_SIZE && buffer[0] == AudioPacket.TYPE_REPORT) {
+                    double loss = AudioPacket.reportLossFraction(buffer);
+                    redundancy.onReport(loss, AudioPacket.reportMaxBurst(buffer));
+                    ptime.onReport(loss, AudioPacket.reportJitterMillis(buffer));
+                }
+            } catch (java.net.SocketTimeoutException e) {
+                // No report in this period, keep listening
+            } catch (Exception e) {
+                if (running.get()) {
+                    System.err.println("AudioManager: Feedback error - " + e.getMessage());
+                }
+            }
         }
     }
 
-    private void applySoftLimiter(byte[] data, int length, double targetRms) {
-        double rms = computeRms(data, length);
-        if (rms <= 1e-6) return;
-        double scale = targetRms / rms;
-        // limit maximum boost to avoid amplifying noise too much
-        if (scale > 2.0) scale = 2.0;
-        // slight attenuation if too loud
-        if (scale < 0.5) scale = 0.5;
-        for (int i = 0; i + 1 < length; i += 2) {
-            short x = (short) ((data[i + 1] << 8) | (data[i] & 0xFF));
-            int y = (int) Math.round(x * scale);
-            if (y > Short.MAX_VALUE) y = Short.MAX_VALUE;
-            if (y < Short.MIN_VALUE) y = Short.MIN_VALUE;
-            data[i] = (byte) (y & 0xFF);
-            data[i + 1] = (byte) ((y >>> 8) & 0xFF);
+    private void playbackLoop() {
+        byte[] buffer = new byte[MAX_PACKET_BYTES];
+        short[] samples = new short[MAX_PACKET_BYTES / 2];
+        byte[] silence = new byte[FRAME_BYTES];
+        
+        while (running.get() && !Thread.currentThread().isInterrupted()) {
+            try {
+                // Between talk spurts comfort noise keeps the line fed, so only wait when there is none
+                boolean noise = comfortNoise.isActive(MediaClock.nowMillis());
+                if (!noise && !jitterBuffer.awaitPlayable(1000)) {
+                    continue;
+                }
+                // Pull the next frame only when the line is about to need it
+                int queuedBytes = speakers.getBufferSize() - speakers.available();
+                if (queuedBytes > LINE_AHEAD_BYTES + syncAddedMillis * BYTES_PER_MILLI) {
+                    Thread.sleep(FRAME_MILLIS / 5);
+                    continue;
+                }
+                int length = jitterBuffer.poll(buffer, MediaClock.nowMillis());
+                if (length > 0) {
+                    // No second VAD gate: the sender's DTX already decided what is speech, and
+                    // gating again here would cut the word tails its hangover keeps
+                    int count = AudioDspStage.unpack(buffer, length, samples);
+                    playbackDsp.process(samples, count);
+                    AudioDspStage.pack(samples, count, buffer);
+                    writeSynced(buffer, length, jitterBuffer.playedReceived(), jitterBuffer.playedTimestamp(), silence);
+                } else if (noise) {
+                    comfortNoise.generate(buffer, FRAME_BYTES);
+                    PerformanceLogger.logAudioComfortNoise();
+                    writeSynced(buffer, FRAME_BYTES, false, 0, silence);
+                }
+                
+            } catch (InterruptedException e) {
+                break;
+            } catch (Exception e) {
+                if (running.get()) {
+                    System.err.println("AudioManager: Playback error - " + e.getMessage());
+                }
+            }
         }
     }
     
+    /**
+     * Writes a frame to the speakers, holding audio back by the lip-sync delay. The delay is built
+     * by writing silence and given back by skipping frames: all at once when the line has run dry
+     * (the start of a talk spurt), at most one 10 ms step per packet while it is playing, and a
+     * packet is only skipped once it is no longer than the delay to give back. Only received
+     * frames are reported to the lip-sync controller; concealed ones have no timestamp.
+     */
+    private void writeSynced(byte[] data, int length, boolean received, int timestamp, byte[] silence) {
+        int queuedBytes = speakers.getBufferSize() - speakers.available();
+        if (queuedBytes == 0) {
+            syncAddedMillis = 0; // whatever delay was built up has played out
+        }
+        int wanted = avSync.audioDelayMillis();
+        if (wanted - syncAddedMillis >= FRAME_MILLIS) {
+            do {
+                play(silence, silence.length);
+                syncAddedMillis += FRAME_MILLIS;
+            } while (queuedBytes == 0 && wanted - syncAddedMillis >= FRAME_MILLIS);
+        } else if (syncAddedMillis - wanted >= Math.max(FRAME_MILLIS, length / BYTES_PER_MILLI)) {
+            syncAddedMillis -= length / BYTES_PER_MILLI;
+            return; // skipped: the next frame plays in its place
+        }
+        play(data, length);
+        if (!received) {
+            return;
+        }
+        queuedBytes = speakers.getBufferSize() - speakers.available();
+        // The frame's first sample is heard once everything queued ahead of it has played
+        avSync.onAudioPlayout(timestamp, MediaClock.nowMillis() + (queuedBytes - length) / BYTES_PER_MILLI,
+                syncAddedMillis);
+    }
+
+    /** Every write to the speakers goes through here so the echo canceller sees what is played. */
+    private void play(byte[] data, int length) {
+        if (echoCanceller != null) {
+            echoCanceller.onFarEnd(data, length);
+        }
+        speakers.write(data, 0, length);
+    }
+
     public void shutdown() {
         System.out.println("AudioManager: Shutting down...");
         disableAudio();
@@ -0,0 +1,138 @@
+package com.p2p.app;
+
+/**
+ * Wire format of the audio datagrams sent by {@link AudioManager}: a fixed big-endian header,
+ * one block header per redundant frame, the frame itself coded with {@link AudioCodec}, then the
+ * redundant frames' payloads in block order.
+ * seq(2) timestamp(4) codec(1) redundancy(1), then redundancy x [timestampOffset(2) codec(1) length(2)]
+ *
+ * A frame here is one datagram's worth of audio, the packet time: any whole number of 10 ms
+ * capture frames up to {@link Constants#AUDIO_PTIME_MAX_MS}, coded as one block; the last frame
+ * of a talk spurt may be shorter.
+ * seq counts sent frames and wraps at 16 bits; frames not sent (silence) do not use a number, so
+ * a gap always means a frame was lost. timestamp is the low 32 bits of the sender's {@link MediaClock} when the first sample of the
+ * frame was captured, the same clock video frames are stamped with, so a receiver can line up
+ * the two streams. codec is the {@link AudioCodec#id()} of the payload.
+ *
+ * While the sender is silent it sends silence descriptors instead, with codec
+ * {@link AudioCodec#ID_COMFORT_NOISE}, no redundancy and the payload {@link DtxController}
+ * describes. A SID does not use up a sequence number: its seq is the one the next frame will
+ * have, which tells the receiver where the talk spurt ended.
+ *
+ * Redundant block i carries frame seq - 1 - i again (RED, in the spirit of RFC 2198), captured
+ * timestampOffset ms before this one, so a receiver can fill a gap left by a lost datagram from
+ * the next ones that arrive. The redundancy depth is chosen by the sender from the loss the
+ * receiver reports back.
+ *
+ * The receiver reports back to the socket the datagrams came from:
+ * REPORT: type(1) lossPermille(2) maxBurst(1) jitterMillis(2)
+ *         loss before redundancy recovery over the report interval, the longest run of
+ *         consecutive missing packets in it, and the smoothed interarrival jitter.
+ */
+public final class AudioPacket {
+    public static final int HEADER_SIZE = 8;
+    public static final int BLOCK_SIZE = 5;
+    public static final byte TYPE_REPORT = 32;
+    public static final int REPORT_SIZE = 6;
+
+    private static final int OFFSET_SEQ = 0;
+    private static final int OFFSET_TIMESTAMP = 2;
+    private static final int OFFSET_CODEC = 6;
+    private static final int OFFSET_REDUNDANCY = 7;
+
+    private AudioPacket() {
+    }
+
+    public static void writeHeader(byte[] buf, int seq, long timestampMillis, byte codec, int redundancy) {
+        buf[OFFSET_SEQ] = (byte) (seq >>> 8);
+        buf[OFFSET_SEQ + 1] = (byte) seq;
+        putInt(buf, OFFSET_TIMESTAMP, (int) timestampMillis);
+        buf[OFFSET_CODEC] = codec;
+        buf[OFFSET_REDUNDANCY] = (byte) redundancy;
+    }
+
+    public static void writeBlock(byte[] buf, int index, int timestampOffset, byte codec, int length) {
+        int offset = HEADER_SIZE + index * BLOCK_SIZE;
+        buf[offset] = (byte) (timestampOffset >>> 8);
+        buf[offset + 1] = (byte) timestampOffset;
+        buf[offset + 2] = codec;
+        buf[offset + 3] = (byte) (length >>> 8);
+        buf[offset + 4] = (byte) length;
+    }
+
+    public static int seq(byte[] buf, int offset) {
+        return (buf[offset + OFFSET_SEQ] & 0xFF) << 8 | (buf[offset + OFFSET_SEQ + 1] & 0xFF);
+    }
+
+    public static int timestamp(byte[] buf, int offset) {
+        return getInt(buf, offset + OFFSET_TIMESTAMP);
+    }
+
+    public static byte codec(byte[] buf, int offset) {
+        return buf[offset + OFFSET_CODEC];
+    }
+
+    public static int redundancy(byte[] buf, int offset) {
+        return buf[offset + OFFSET_REDUNDANCY] & 0xFF;
+    }
+
+    /** Where the primary payload starts, after the redundant block headers. */
+    public static int payloadOffset(byte[] buf, int offset) {
+        return offset + HEADER_SIZE + redundancy(buf, offset) * BLOCK_SIZE;
+    }
+
+    public static int blockTimestampOffset(byte[] buf, int offset, int index) {
+        int o = offset + HEADER_SIZE + index * BLOCK_SIZE;
+        return (buf[o] & 0xFF) << 8 | (buf[o + 1] & 0xFF);
+    }
+
+    public static byte blockCodec(byte[] buf, int offset, int index) {
+        return buf[offset + HEADER_SIZE + index * BLOCK_SIZE + 2];
+    }
+
+    public static int blockLength(byte[] buf, int offset, int index) {
+        int o = offset + HEADER_SIZE + index * BLOCK_SIZE + 3;
+        return (buf[o] & 0xFF) << 8 | (buf[o + 1] & 0xFF);
+    }
+
+    public static int writeReport(byte[] buf, double lossFraction, int maxBurst, double jitterMillis) {
+        int permille = (int) Math.round(Math.min(1.0, Math.max(0.0, lossFraction)) * 1000);
+        buf[0] = TYPE_REPORT;
+        buf[1] = (byte) (permille >>> 8);
+        buf[2] = (byte) permille;
+        buf[3] = (byte) Math.min(255, maxBurst);
+        int jitter = (int) Math.min(0xFFFF, Math.round(jitterMillis));
+        buf[4] = (byte) (jitter >>> 8);
+        buf[5] = (byte) jitter;
+        return REPORT_SIZE;
+    }
+
+    public static double reportLossFraction(byte[] buf) {
+        return ((buf[1] & 0xFF) << 8 | (buf[2] & 0xFF)) / 1000.0;
+    }
+
+    public static int reportMaxBurst(byte[] buf) {
+        return buf[3] & 0xFF;
+    }
+
+    public static int reportJitterMillis(byte[] buf) {
+        return (buf[4] & 0xFF) << 8 | (buf[5] & 0xFF);
+    }
+
+    /** Signed distance from sequence number b to a, for 16-bit numbers that wrap. */
+    public static int seqDistance(int a, int b) {
+        return (short) (a - b);
+    }
+
+    private static void putInt(byte[] buf, int offset, int value) {
+        buf[offset] = (byte) (value >>> 24);
+        buf[offset + 1] = (byte) (value >>> 16);
+        buf[offset + 2] = (byte) (value >>> 8);
+        buf[offset + 3] = (byte) value;
+    }
+
+    private static int getInt(byte[] buf, int offset) {
+        return (buf[offset] & 0xFF) << 24 | (buf[offset + 1] & 0xFF) << 16
+                | (buf[offset + 2] & 0xFF) << 8 | (buf[offset + 3] & 0xFF);
+    }
+}
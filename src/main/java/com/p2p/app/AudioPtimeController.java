@@ -0,0 +1,88 @@
+package com.p2p.app;
+
+/**
+ * Chooses the packet time: how many 10 ms frames go into each audio datagram. Fixed unless the
+ * mode is "auto", in which case it follows the receiver's reports between
+ * {@link Constants#AUDIO_PTIME_MIN_MS} and {@link Constants#AUDIO_PTIME_MAX_MS}. Longer packets
+ * mean fewer datagrams and less header overhead but more delay and more audio per loss, so it
+ * steps up while the path is congested (the reported jitter shows queues building) or clean, and
+ * back down when loss is high on an otherwise uncongested path. Steps are at least
+ * {@link #HOLD_REPORTS} reports apart.
+ * Updated from the feedback thread and read by the capture thread.
+ */
+public class AudioPtimeController {
+    private static final int[] STEPS = {10, 20, 40, 60};
+    private static final double SMOOTHING = 0.3; // weight of the newest report
+    private static final int HOLD_REPORTS = 4;
+
+    private final boolean adaptive;
+    private double smoothedLoss = 0.0;
+    private double smoothedJitter = 0.0;
+    private int sinceChange = 0;
+    private volatile int ptimeMillis;
+
+    /** @param mode "auto" or a packet time in ms, as in {@link Constants#AUDIO_PTIME} */
+    public AudioPtimeController(String mode) {
+        if ("auto".equalsIgnoreCase(mode)) {
+            adaptive = true;
+            ptimeMillis = Constants.AUDIO_PTIME_MIN_MS;
+            return;
+        }
+        adaptive = false;
+        int wanted;
+        try {
+            wanted = Integer.parseInt(mode.trim());
+        } catch (NumberFormatException e) {
+            wanted = -1;
+        }
+        int nearest = STEPS[0];
+        for (int step : STEPS) {
+            if (Math.abs(step - wanted) < Math.abs(nearest - wanted)) {
+                nearest = step;
+            }
+        }
+        if (nearest != wanted) {
+            PerformanceLogger.logWarning("Audio ptime", "Unsupported packet time '" + mode + "', using " + nearest + " ms");
+        }
+        ptimeMillis = nearest;
+    }
+
+    public int getPtimeMillis() {
+        return ptimeMillis;
+    }
+
+    public boolean isAdaptive() {
+        return adaptive;
+    }
+
+    public synchronized void onReport(double lossFraction, int jitterMillis) {
+        smoothedLoss = SMOOTHING * lossFraction + (1.0 - SMOOTHING) * smoothedLoss;
+        smoothedJitter = SMOOTHING * jitterMillis + (1.0 - SMOOTHING) * smoothedJitter;
+        if (!adaptive || ++sinceChange < HOLD_REPORTS) {
+            return;
+        }
+        boolean congested = smoothedJitter >= Constants.AUDIO_PTIME_CONGESTION_JITTER_MS;
+        int wanted = ptimeMillis;
+        if (congested || smoothedLoss < Constants.AUDIO_RED_MIN_LOSS) {
+            wanted = step(+1);
+        } else if (smoothedLoss >= Constants.AUDIO_PTIME_HIGH_LOSS) {
+            wanted = step(-1);
+        }
+        if (wanted != ptimeMillis) {
+            PerformanceLogger.logInfo("Audio ptime", String.format("loss %.1f%%, jitter %.0f ms -> %d ms",
+                    smoothedLoss * 100, smoothedJitter, wanted));
+            ptimeMillis = wanted;
+            sinceChange = 0;
+        }
+    }
+
+    /** The neighbouring step in the given direction, kept within the auto range. */
+    private int step(int direction) {
+        int index = 0;
+        while (STEPS[index] < ptimeMillis) {
+            index++;
+        }
+        int next = STEPS[Math.max(0, Math.min(STEPS.length - 1, index + direction))];
+        return Math.max(Constants.AUDIO_PTIME_MIN_MS, Math.min(Constants.AUDIO_PTIME_MAX_MS, next));
+    }
+}
@@ -0,0 +1,62 @@
+package com.p2p.app;
+
+/**
+ * Tracks audio sequence numbers on the receive side and derives, per report interval, the loss
+ * fraction and the longest burst of consecutive missing frames, plus the RFC 3550 interarrival
+ * jitter. Audio is only numbered while
+ * someone talks, so silence does not count as loss. Losses are counted as the network left them,
+ * before any redundancy recovery.
+ */
+public class AudioReceiveStatistics {
+    private static final int RESTART_DISTANCE = 1000; // a jump this large means the sender restarted
+
+    private boolean started = false;
+    private int highestSeq;
+    private int expected = 0;
+    private int received = 0;
+    private int burst = 0;
+    private int intervalBurst = 0;
+    private boolean haveTransit = false;
+    private int lastTransit;
+    private double jitterMillis = 0.0;
+
+    public void onPacket(int seq, int timestampMillis, long nowMillis) {
+        int transit = (int) nowMillis - timestampMillis; // clocks need not agree, only differences are used
+        if (haveTransit) {
+            jitterMillis += (Math.abs(transit - lastTransit) - jitterMillis) / 16.0;
+        }
+        lastTransit = transit;
+        haveTransit = true;
+
+        int distance = started ? AudioPacket.seqDistance(seq, highestSeq) : 1;
+        if (Math.abs(distance) >= RESTART_DISTANCE) {
+            distance = 1;
+        }
+        if (distance > 0) {
+            expected += distance;
+            burst = Math.max(burst, distance - 1);
+            highestSeq = seq;
+            started = true;
+        }
+        received++; // a reordered frame fills a gap counted earlier
+    }
+
+    /** Loss fraction since the previous call; also closes the interval. */
+    public double closeInterval() {
+        double loss = expected > 0 ? Math.max(0, expected - received) / (double) expected : 0.0;
+        intervalBurst = burst;
+        expected = 0;
+        received = 0;
+        burst = 0;
+        return loss;
+    }
+
+    public double jitterMillis() {
+        return jitterMillis;
+    }
+
+    /** Longest run of missing frames in the interval most recently closed. */
+    public int intervalBurst() {
+        return intervalBurst;
+    }
+}
@@ -0,0 +1,73 @@
+package com.p2p.app;
+
+/**
+ * Chooses how many earlier frames each audio datagram repeats, from the loss the receiver reports.
+ * With independent losses one copy brings a loss rate p down to about p squared, so the depth
+ * steps up with the smoothed loss; it also covers the longest recent burst, since a burst of n
+ * frames is only recovered by n copies. A clean link gets no redundancy at all.
+ * Updated from the feedback thread and read by the capture thread.
+ */
+public class AudioRedundancyController {
+    private static final double LOSS_SMOOTHING = 0.3; // weight of the newest report
+    private static final double BURST_DECAY = 0.8; // per report
+    private static final double[] DEPTH_LOSS = {Constants.AUDIO_RED_MIN_LOSS, 0.05, 0.15}; // loss for depth 1, 2, 3
+
+    private final boolean adaptive;
+    private final int maxDepth;
+    private double smoothedLoss = 0.0;
+    private double burst = 0.0;
+    private volatile int depth;
+
+    /** @param mode "auto", "off" or a fixed depth, as in {@link Constants#AUDIO_RED_MODE} */
+    public AudioRedundancyController(String mode, int maxDepth) {
+        this.maxDepth = maxDepth;
+        if ("off".equalsIgnoreCase(mode)) {
+            adaptive = false;
+            depth = 0;
+        } else if ("auto".equalsIgnoreCase(mode)) {
+            adaptive = true;
+            depth = 0;
+        } else {
+            int fixed;
+            try {
+                fixed = Integer.parseInt(mode.trim());
+            } catch (NumberFormatException e) {
+                PerformanceLogger.logWarning("Audio RED", "Unknown mode '" + mode + "', using auto");
+                fixed = -1;
+            }
+            adaptive = fixed < 0;
+            depth = Math.max(0, Math.min(maxDepth, fixed));
+        }
+    }
+
+    /** Earlier frames to repeat in the next datagram. */
+    public int getDepth() {
+        return depth;
+    }
+
+    /** True if frames may ever be repeated, so the sender has to keep them. */
+    public boolean isEnabled() {
+        return adaptive || depth > 0;
+    }
+
+    public synchronized void onReport(double lossFraction, int maxBurst) {
+        smoothedLoss = LOSS_SMOOTHING * lossFraction + (1.0 - LOSS_SMOOTHING) * smoothedLoss;
+        burst = Math.max(maxBurst, burst * BURST_DECAY);
+        if (adaptive) {
+            int wanted = 0;
+            while (wanted < DEPTH_LOSS.length && smoothedLoss >= DEPTH_LOSS[wanted]) {
+                wanted++;
+            }
+            if (wanted > 0) {
+                wanted = Math.max(wanted, (int) Math.round(burst));
+            }
+            wanted = Math.min(maxDepth, wanted);
+            if (wanted != depth) {
+                PerformanceLogger.logInfo("Audio RED", String.format("loss %.1f%%, burst %.1f -> depth %d",
+                        smoothedLoss * 100, burst, wanted));
+                depth = wanted;
+            }
+        }
+        PerformanceLogger.logAudioRedundancy(depth, smoothedLoss);
+    }
+}
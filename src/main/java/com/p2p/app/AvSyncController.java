@@ -0,0 +1,81 @@
+package com.p2p.app;
+
+/**
+ * Receive-side lip sync. The audio and video playout stages report, for each frame they play,
+ * the sender's media timestamp and the local {@link MediaClock} time it reaches the user. The
+ * difference is that stream's end-to-end delay plus a clock offset common to both streams, so
+ * comparing the two gives the A/V offset without synchronised clocks.
+ *
+ * Only the stream that is ahead is held back, by the measured offset and never more than
+ * {@link Constants#AV_SYNC_MAX_DELAY_MS}; the slower stream keeps its own latency. The added
+ * delay moves by at most {@link Constants#AV_SYNC_SLEW_MS} per update so corrections are not
+ * audible or visible as jumps, and drops to zero when either stream stops reporting.
+ * Reports come from the video decode thread and the audio playback thread.
+ */
+public class AvSyncController {
+    private static final double SMOOTHING = 0.05; // Per report; frames arrive every 10-40 ms
+    private static final long STALE_MS = 1000; // A stream silent this long is out of sync control
+
+    private boolean haveAudio = false;
+    private boolean haveVideo = false;
+    private double audioDelayMillis; // measured, less the delay this controller added
+    private double videoDelayMillis;
+    private long lastAudioMillis;
+    private long lastVideoMillis;
+    private volatile int audioExtraMillis = 0;
+    private volatile int videoExtraMillis = 0;
+
+    /**
+     * An audio frame stamped timestamp is heard at playoutMillis on the receiver's MediaClock,
+     * after syncMillis of delay added on this controller's behalf.
+     */
+    public synchronized void onAudioPlayout(int timestamp, long playoutMillis, int syncMillis) {
+        double delay = (int) playoutMillis - timestamp - syncMillis;
+        audioDelayMillis = haveAudio ? audioDelayMillis + (delay - audioDelayMillis) * SMOOTHING : delay;
+        haveAudio = true;
+        lastAudioMillis = playoutMillis;
+        update(playoutMillis);
+    }
+
+    /** A video frame stamped timestamp is shown at playoutMillis, as for {@link #onAudioPlayout}. */
+    public synchronized void onVideoPlayout(int timestamp, long playoutMillis, int syncMillis) {
+        double delay = (int) playoutMillis - timestamp - syncMillis;
+        videoDelayMillis = haveVideo ? videoDelayMillis + (delay - videoDelayMillis) * SMOOTHING : delay;
+        haveVideo = true;
+        lastVideoMillis = playoutMillis;
+        update(playoutMillis);
+    }
+
+    private void update(long nowMillis) {
+        boolean both = haveAudio && haveVideo
+                && nowMillis - lastAudioMillis < STALE_MS && nowMillis - lastVideoMillis < STALE_MS;
+        int audioWanted = 0;
+        int videoWanted = 0;
+        if (both) {
+            double skew = videoDelayMillis - audioDelayMillis; // without any added delay
+            if (skew > 0) {
+                audioWanted = (int) Math.min(Math.round(skew), Constants.AV_SYNC_MAX_DELAY_MS); // audio is ahead
+            } else {
+                videoWanted = (int) Math.min(Math.round(-skew), Constants.AV_SYNC_MAX_DELAY_MS);
+            }
+            PerformanceLogger.logAvSync((int) Math.round(skew) + videoExtraMillis - audioExtraMillis,
+                    audioExtraMillis, videoExtraMillis);
+        }
+        audioExtraMillis = slew(audioExtraMillis, audioWanted);
+        videoExtraMillis = slew(videoExtraMillis, videoWanted);
+    }
+
+    private static int slew(int current, int wanted) {
+        return current + Math.max(-Constants.AV_SYNC_SLEW_MS, Math.min(Constants.AV_SYNC_SLEW_MS, wanted - current));
+    }
+
+    /** Extra playout delay for audio, in milliseconds. */
+    public int audioDelayMillis() {
+        return audioExtraMillis;
+    }
+
+    /** Extra playout delay for video, in milliseconds. */
+    public int videoDelayMillis() {
+        return videoExtraMillis;
+    }
+}
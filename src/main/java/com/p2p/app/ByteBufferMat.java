@@ -0,0 +1,60 @@
+package com.p2p.app;
+
+import java.nio.ByteBuffer;
+
+import org.bytedeco.javacpp.BytePointer;
+import org.bytedeco.opencv.opencv_core.Mat;
+import org.opencv.core.CvType;
+
+/**
+ * Long-lived 1 x N CV_8UC1 Mat header over a direct buffer, so encoded data can be handed to
+ * OpenCV where it lies. {@link #range} narrows the header to a byte range in place with
+ * adjustROI instead of building a new header per frame.
+ */
+public final class ByteBufferMat {
+    final ByteBuffer buffer;
+    final BytePointer pointer;
+    private final Mat whole;
+    private int start;
+    private int end;
+
+    public ByteBufferMat(ByteBuffer buffer) {
+        this.buffer = buffer;
+        this.pointer = new BytePointer(buffer); // starts at the buffer's position: rewind to index 0
+        this.pointer.position(0).limit(buffer.capacity());
+        this.whole = new Mat(1, buffer.capacity(), CvType.CV_8UC1, pointer);
+        this.start = 0;
+        this.end = buffer.capacity();
+    }
+
+    /** @return the header, narrowed to [offset, offset + length) of the buffer */
+    public Mat range(int offset, int length) {
+        whole.adjustROI(0, 0, start - offset, offset + length - end);
+        start = offset;
+        end = offset + length;
+        return whole;
+    }
+
+    public void release() {
+        whole.release();
+    }
+
+    /**
+     * Finds or creates the view for buffer in a small fixed cache, evicting the last entry when
+     * full. Meant for the handful of buffers an {@link VideoJitterBuffer} cycles through.
+     */
+    static ByteBufferMat lookup(ByteBufferMat[] cache, ByteBuffer buffer) {
+        for (int i = 0; i < cache.length; i++) {
+            if (cache[i] == null) {
+                cache[i] = new ByteBufferMat(buffer);
+                return cache[i];
+            }
+            if (cache[i].buffer == buffer) {
+                return cache[i];
+            }
+        }
+        cache[cache.length - 1].release();
+        cache[cache.length - 1] = new ByteBufferMat(buffer);
+        return cache[cache.length - 1];
+    }
+}
@@ -0,0 +1,32 @@
+package com.p2p.app;
+
+import javax.swing.WindowConstants;
+
+import org.bytedeco.javacv.CanvasFrame;
+import org.bytedeco.javacv.OpenCVFrameConverter;
+import org.bytedeco.opencv.opencv_core.Mat;
+
+/**
+ * Swing window; closing it exits the application, as before the sinks were pluggable.
+ */
+public class CanvasFrameSink implements FrameSink {
+    private final CanvasFrame canvas;
+    private final OpenCVFrameConverter.ToMat converter = new OpenCVFrameConverter.ToMat();
+
+    public CanvasFrameSink(String title, double sourceGamma) {
+        canvas = sourceGamma > 0 ? new CanvasFrame(title, CanvasFrame.getDefaultGamma() / sourceGamma) : new CanvasFrame(title);
+        canvas.setDefaultCloseOperation(WindowConstants.EXIT_ON_CLOSE);
+        canvas.setCanvasSize(Constants.FRAME_WIDTH, Constants.FRAME_HEIGHT);
+    }
+
+    @Override
+    public void show(Mat frame) {
+        canvas.showImage(converter.convert(frame));
+    }
+
+    @Override
+    public void close() {
+        canvas.dispose();
+        System.out.println("CanvasFrameSink: " + canvas.getTitle() + " window disposed.");
+    }
+}
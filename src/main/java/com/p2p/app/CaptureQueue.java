@@ -0,0 +1,110 @@
+package com.p2p.app;
+
+import java.util.ArrayDeque;
+import java.util.function.Consumer;
+
+/**
+ * Bounded hand-off of captured frames from the capture thread to the compression thread, with a
+ * configurable overload policy ({@link Constants#VIDEO_QUEUE_POLICY}):
+ * <ul>
+ * <li>drop-newest - a full queue turns new frames away; the oldest frames are encoded first</li>
+ * <li>drop-oldest - a full queue gives up its oldest frame to make room for the new one</li>
+ * <li>deadline - as drop-oldest, and frames that have waited longer than
+ * {@link Constants#VIDEO_ENCODE_BUDGET_MS} since capture are skipped when a newer one is queued</li>
+ * </ul>
+ * Dropped frames are handed back to the caller for their pool. Depth on entry and the wait until
+ * the encoder takes a frame are recorded as the "Capture queue" stage.
+ */
+public class CaptureQueue {
+    public enum Policy {
+        DROP_NEWEST, DROP_OLDEST, DEADLINE;
+
+        public static Policy forName(String name) {
+            if ("drop-newest".equalsIgnoreCase(name)) {
+                return DROP_NEWEST;
+            } else if ("drop-oldest".equalsIgnoreCase(name)) {
+                return DROP_OLDEST;
+            } else if (!"deadline".equalsIgnoreCase(name)) {
+                PerformanceLogger.logWarning("Capture queue", "Unknown policy '" + name + "', using deadline");
+            }
+            return DEADLINE;
+        }
+    }
+
+    private final ArrayDeque<CapturedFrame> frames;
+    private final int capacity;
+    private final Policy policy;
+    private final long budgetNanos;
+    private final StageStats stats = PerformanceLogger.stage("Capture queue");
+
+    public CaptureQueue(int capacity, Policy policy, long budgetMillis) {
+        this.frames = new ArrayDeque<>(capacity);
+        this.capacity = capacity;
+        this.policy = policy;
+        this.budgetNanos = budgetMillis * 1000000L;
+    }
+
+    public Policy policy() {
+        return policy;
+    }
+
+    /**
+     * Queues a frame, never blocking.
+     * @return a frame the caller must give back to its pool (the new one or an evicted one), or null
+     */
+    public synchronized CapturedFrame offer(CapturedFrame frame) {
+        CapturedFrame dropped = null;
+        if (frames.size() >= capacity) {
+            if (policy == Policy.DROP_NEWEST) {
+                stats.recordDropped(1);
+                return frame;
+            }
+            dropped = frames.poll();
+            stats.recordDropped(1);
+        }
+        frames.add(frame);
+        stats.recordDepth(frames.size());
+        notifyAll();
+        return dropped;
+    }
+
+    /**
+     * Gives up the oldest queued frame so the capture thread can reuse it when its pool is empty.
+     * @return the frame, or null if the policy keeps old frames or nothing is queued
+     */
+    public synchronized CapturedFrame reclaimOldest() {
+        if (policy == Policy.DROP_NEWEST || frames.isEmpty()) {
+            return null;
+        }
+        stats.recordDropped(1);
+        return frames.poll();
+    }
+
+    /**
+     * Waits for the next frame to encode. Under the deadline policy, frames past their budget are
+     * passed to expired (for their pool) as long as a newer frame is waiting behind them.
+     */
+    public synchronized CapturedFrame take(Consumer<CapturedFrame> expired) throws InterruptedException {
+        while (frames.isEmpty()) {
+            wait();
+        }
+        long now = System.nanoTime();
+        if (policy == Policy.DEADLINE) {
+            while (frames.size() > 1 && now - frames.peek().captureNanos > budgetNanos) {
+                expired.accept(frames.poll());
+                stats.recordDropped(1);
+            }
+        }
+        CapturedFrame frame = frames.poll();
+        stats.recordWait(now - frame.captureNanos);
+        return frame;
+    }
+
+    /** Removes every queued frame, handing each to the consumer. */
+    public synchronized void drain(Consumer<CapturedFrame> consumer) {
+        CapturedFrame frame;
+        while ((frame = frames.poll()) != null) {
+            consumer.accept(frame);
+        }
+    }
+}
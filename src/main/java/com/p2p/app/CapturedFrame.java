@@ -0,0 +1,16 @@
+package com.p2p.app;
+
+import org.bytedeco.opencv.opencv_core.Mat;
+
+/**
+ * A pooled capture-sized picture and the monotonic time it was grabbed at
+ * ({@link System#nanoTime()}), carried together from the capture loop through encoding.
+ */
+public final class CapturedFrame {
+    public final Mat mat;
+    public long captureNanos;
+
+    CapturedFrame(Mat mat) {
+        this.mat = mat;
+    }
+}
@@ -0,0 +1,70 @@
+package com.p2p.app;
+
+import java.util.zip.CRC32;
+
+import org.bytedeco.javacpp.BytePointer;
+import org.bytedeco.opencv.opencv_core.Mat;
+
+/**
+ * Headless verification sink. Folds every picture into a CRC32 and, for pictures from a
+ * {@link SyntheticFrameSource}, reads the frame index back to count frames that never arrived
+ * or arrived out of order. Summaries go to the log every REPORT_EVERY frames and on close.
+ */
+public class ChecksumFrameSink implements FrameSink {
+    private static final int REPORT_EVERY = 300;
+
+    private final String name;
+    private final CRC32 crc = new CRC32();
+    private byte[] row = new byte[0];
+    private long frames = 0;
+    private long missing = 0;
+    private long outOfOrder = 0;
+    private long unidentified = 0;
+    private int lastId = -1;
+
+    public ChecksumFrameSink(String name) {
+        this.name = name;
+    }
+
+    @Override
+    public void show(Mat frame) {
+        int rowBytes = frame.cols() * (int) frame.elemSize();
+        if (row.length != rowBytes) {
+            row = new byte[rowBytes];
+        }
+        BytePointer data = frame.data();
+        for (int y = 0; y < frame.rows(); y++) {
+            data.position((long) y * frame.step()).get(row);
+            crc.update(row, 0, rowBytes);
+        }
+
+        int id = SyntheticFrameSource.readFrameId(frame);
+        if (id < 0) {
+            unidentified++;
+        } else if (lastId >= 0) {
+            int step = (id - lastId) & 0xFFFF; // ids wrap at 16 bits
+            if (step == 0 || step > 0x8000) {
+                outOfOrder++;
+            } else {
+                missing += step - 1;
+            }
+        }
+        if (id >= 0) {
+            lastId = id;
+        }
+        frames++;
+        if (frames % REPORT_EVERY == 0) {
+            report();
+        }
+    }
+
+    private void report() {
+        PerformanceLogger.logInfo("ChecksumSink", String.format("%s: %d frames, missing %d, out of order %d, "
+                + "unidentified %d, checksum %08x", name, frames, missing, outOfOrder, unidentified, crc.getValue()));
+    }
+
+    @Override
+    public void close() {
+        report();
+    }
+}
@@ -0,0 +1,82 @@
+package com.p2p.app;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Plays comfort noise while the peer sends silence descriptors instead of audio (see
+ * {@link DtxController} for the SID format): white noise through the all-pole filter the SID's
+ * reflection coefficients describe, scaled so its RMS is the SID's level. The level glides towards
+ * each new SID rather than stepping, and the noise stops {@link #TIMEOUT_SID_INTERVALS} SID
+ * intervals after the last one, when the peer has muted or gone.
+ * SIDs arrive on the receive thread; noise is generated on the playback thread.
+ */
+public class ComfortNoiseGenerator {
+    private static final int TIMEOUT_SID_INTERVALS = 5;
+    private static final double LEVEL_GLIDE = 0.3; // of the way to the new level, per frame
+
+    private final double[] a = new double[DtxController.ORDER + 1]; // predictor, a[1..order]
+    private final double[] previous = new double[DtxController.ORDER + 1];
+    private final double[] past = new double[DtxController.ORDER]; // filter output history, newest first
+    private final Random random = new Random();
+    private int order = 0;
+    private double gain = 0.0; // excitation scale for a unit-RMS output
+    private double targetLevel = 0.0;
+    private double level = 0.0;
+    private long lastSidMillis = Long.MIN_VALUE / 2;
+
+    /** Takes a SID payload; false if it is malformed. */
+    public synchronized boolean update(byte[] sid, int offset, int length, long nowMillis) {
+        int sidOrder = length >= 3 ? sid[offset + 2] & 0xFF : -1;
+        if (sidOrder < 0 || sidOrder > DtxController.ORDER || length < 3 + sidOrder) {
+            return false;
+        }
+        // The encoder clamps to +-126 so every |k| < 1 and the synthesis filter stays stable;
+        // anything outside that did not come from a DtxController
+        for (int i = 1; i <= sidOrder; i++) {
+            if (Math.abs(sid[offset + 2 + i]) > 126) {
+                return false;
+            }
+        }
+        targetLevel = (sid[offset] & 0xFF) << 8 | (sid[offset + 1] & 0xFF);
+        // Step-up recursion from reflection coefficients to the predictor; the gain is the
+        // prediction error power of a unit-power signal, prod(1 - k^2)
+        Arrays.fill(a, 0.0);
+        double power = 1.0;
+        for (int i = 1; i <= sidOrder; i++) {
+            double k = sid[offset + 2 + i] / 127.0;
+            System.arraycopy(a, 0, previous, 0, i);
+            a[i] = k;
+            for (int j = 1; j < i; j++) {
+                a[j] = previous[j] - k * previous[i - j];
+            }
+            power *= 1 - k * k;
+        }
+        order = sidOrder;
+        gain = Math.sqrt(power);
+        lastSidMillis = nowMillis;
+        return true;
+    }
+
+    /** True while SIDs keep arriving, so gaps between talk spurts should be filled with noise. */
+    public synchronized boolean isActive(long nowMillis) {
+        return nowMillis - lastSidMillis < TIMEOUT_SID_INTERVALS * (long) Constants.AUDIO_DTX_SID_INTERVAL_MS;
+    }
+
+    /** Fills length bytes of 16-bit little-endian PCM with noise. */
+    public synchronized void generate(byte[] out, int length) {
+        level += (targetLevel - level) * LEVEL_GLIDE;
+        double scale = level * gain;
+        for (int n = 0; n + 1 < length; n += 2) {
+            double y = scale * random.nextGaussian();
+            for (int j = 0; j < order; j++) {
+                y += a[j + 1] * past[j];
+            }
+            System.arraycopy(past, 0, past, 1, past.length - 1);
+            past[0] = y;
+            int s = (int) Math.max(Short.MIN_VALUE, Math.min(Short.MAX_VALUE, Math.round(y)));
+            out[n] = (byte) s;
+            out[n + 1] = (byte) (s >> 8);
+        }
+    }
+}
@@ -19,13 +19,134 @@ public class Constants {
     public static final int FRAME_HEIGHT = 480;
     public static final int FRAME_RATE = 30;    // Increased frame rate
     public static final double JPEG_QUALITY = 0.75; // Better quality for improved visual experience
-    public static final int MAX_VIDEO_PACKET_SIZE = 120 * 1024; // Increased for better quality
+    public static final int MAX_VIDEO_FRAME_SIZE = 256 * 1024; // Largest encoded frame we will packetize
+    public static final int VIDEO_DATAGRAM_SIZE = 1400; // Fits a 1500-byte Ethernet MTU with IP/UDP headers
+    public static final int VIDEO_REASSEMBLY_SLOTS = 8; // Frames that can be partially received at once
+    public static final long VIDEO_REASSEMBLY_TIMEOUT_MS = 200; // Incomplete frames older than this are dropped
+    public static final long VIDEO_REPORT_INTERVAL_MS = 500; // Receiver feedback period
+
+    // Video jitter buffer - frames are played out on the sender's capture timestamps, delayed by a
+    // target that follows measured jitter up to a hard maximum (override with -Dp2p.video.jitterMaxMs=100;
+    // 0 plays frames as soon as they complete)
+    public static final int VIDEO_JITTER_MAX_MS = Integer.getInteger("p2p.video.jitterMaxMs", 200);
+    public static final int VIDEO_JITTER_MIN_MS = Math.min(10, VIDEO_JITTER_MAX_MS); // Floor for the target delay
+    public static final double VIDEO_JITTER_MULTIPLIER = 4.0; // Target delay = frame jitter times this
+    public static final long VIDEO_JITTER_WINDOW_MS = 2000; // Base transit is the minimum over one to two windows
+    public static final int VIDEO_JITTER_FRAMES = 12; // Frames held at once; the oldest is dropped beyond this
+    public static final int VIDEO_DECODE_BUFFERS = VIDEO_JITTER_FRAMES + 1; // Plus the one being decoded
+
+    // Video retransmission (NACK)
+    public static final int VIDEO_PACKET_HISTORY_SIZE = 1024; // Sent datagrams kept for retransmission (power of two)
+    // Until the receiver reports its playout delay, a packet is resent only this long after it was first sent
+    public static final long VIDEO_PLAYOUT_DEADLINE_MS = 150;
+    public static final long VIDEO_NACK_RETRY_MS = 30; // Re-request a still-missing packet after this long
+    public static final int VIDEO_MAX_RETRANSMITS = 3; // Per packet
+    public static final long VIDEO_INITIAL_RTT_MS = 40; // Assumed until the first receiver report arrives
+
+    // Video codec - "jpeg" (every frame stands alone), "h264" or "tiles" (override with -Dp2p.video.codec=h264)
+    public static final String VIDEO_CODEC = System.getProperty("p2p.video.codec", "jpeg");
+    public static final int VIDEO_KEYFRAME_INTERVAL_S = 2; // Periodic H.264 keyframe even without requests
+    public static final int VIDEO_H264_BITRATE_DIVISOR = 6; // H.264 bitrate = JPEG rate level cost / this
+    public static final long VIDEO_KEYFRAME_REQUEST_INTERVAL_MS = 200; // Minimum gap between keyframe requests
+    public static final int VIDEO_TILE_SIZE = 64; // Tile edge in pixels for the "tiles" codec
+    public static final double VIDEO_TILE_CHANGE_THRESHOLD = 3.0; // Mean abs difference per channel that marks a tile dirty
+    public static final long VIDEO_TILE_KEEPALIVE_MS = 500; // Empty update sent this often when nothing changes
+
+    // JPEG frames are independent, so several can be encoded at once (override with -Dp2p.video.encodeThreads=N)
+    public static final int VIDEO_ENCODE_THREADS = Integer.getInteger("p2p.video.encodeThreads",
+            Math.max(1, Math.min(4, Runtime.getRuntime().availableProcessors() - 1)));
+
+    // Simulcast - spatial layers sent per frame, each half the size of the one before (override with
+    // -Dp2p.video.simulcastLayers=3). Receivers decode the largest layer that fits maxReceiveWidth and their loss
+    public static final int VIDEO_SIMULCAST_LAYERS = Integer.getInteger("p2p.video.simulcastLayers", 1);
+    public static final int VIDEO_MAX_RECEIVE_WIDTH = Integer.getInteger("p2p.video.maxReceiveWidth", FRAME_WIDTH);
+
+    // Video rate control - ceiling for the bandwidth estimate (override with -Dp2p.video.targetKbps=2000)
+    public static final int VIDEO_TARGET_KBPS = Integer.getInteger("p2p.video.targetKbps", 8000);
+    public static final int VIDEO_MIN_KBPS = 100;
+    public static final double VIDEO_RATE_HIGH_LOSS = 0.10; // Back off above this loss
+    public static final double VIDEO_RATE_LOW_LOSS = 0.02; // Probe upwards below this loss
+    public static final int VIDEO_RATE_JITTER_LIMIT_MS = 30; // Jitter above this means queues are building
+    public static final double VIDEO_RATE_UP_HEADROOM = 1.2; // Next level must fit this many times over
+    public static final long VIDEO_RATE_UPGRADE_HOLD_MS = 4000; // ... for this long before stepping up
+
+    // Video FEC - "off", "xor" or "rs" (override with -Dp2p.video.fec=rs)
+    public static final String VIDEO_FEC_MODE = System.getProperty("p2p.video.fec", "off");
+    public static final int VIDEO_FEC_GROUP_SIZE = 10; // Data chunks per Reed-Solomon group (k)
+    public static final int VIDEO_FEC_MAX_PARITY = 4; // Upper bound on parity chunks per group (m)
+    public static final double VIDEO_FEC_MIN_OVERHEAD = 0.05; // Parity/data ratio on a clean link
+    public static final double VIDEO_FEC_LOSS_MARGIN = 2.0; // Overhead follows observed loss times this margin
     public static final int FRAME_BUFFER_COUNT = 3; // Pre-allocate frame buffers
+
+    // Capture queue overload policy - "drop-newest", "drop-oldest" or "deadline" (override with
+    // -Dp2p.video.queuePolicy=drop-oldest); under "deadline" frames older than the budget are skipped
+    public static final String VIDEO_QUEUE_POLICY = System.getProperty("p2p.video.queuePolicy", "deadline");
+    public static final int VIDEO_ENCODE_BUDGET_MS = Integer.getInteger("p2p.video.encodeBudgetMs", 100);
     public static final long TARGET_FRAME_TIME_NANOS = 1000000000L / FRAME_RATE; // Precise timing
 
+    // Video I/O - source "webcam", "synthetic" or "file:<path>" (looped); sink "window", "null" or "checksum"
+    // (override with -Dp2p.video.source=synthetic -Dp2p.video.sink=null for headless runs)
+    public static final String VIDEO_SOURCE = System.getProperty("p2p.video.source", "webcam");
+    public static final String VIDEO_SINK = System.getProperty("p2p.video.sink", "window");
+    public static final int VIDEO_SYNTHETIC_MOTION = Integer.getInteger("p2p.video.syntheticMotion", 4); // Pixels per frame
+
+    // Local preview - its own thread, at most this many frames per second at this fraction of the
+    // capture size (override with -Dp2p.video.previewFps=10 -Dp2p.video.previewScale=0.25; turn it
+    // off for kiosk or headless nodes with -Dp2p.video.preview=off)
+    public static final boolean VIDEO_PREVIEW_ENABLED = !"off".equalsIgnoreCase(System.getProperty("p2p.video.preview", "on"));
+    public static final int VIDEO_PREVIEW_FPS = Integer.getInteger("p2p.video.previewFps", 15);
+    public static final double VIDEO_PREVIEW_SCALE = Double.parseDouble(System.getProperty("p2p.video.previewScale", "0.5"));
+
     // OpenCV Constants (Moved from VideoSendThread for centralized config)
     public static final int IMWRITE_JPEG_QUALITY = 1; // Used with IntPointer for JPEG quality setting
 
+    // Lip sync - the stream that is ahead is delayed by up to this much, changing by at most
+    // AV_SYNC_SLEW_MS per playout report
+    public static final int AV_SYNC_MAX_DELAY_MS = Integer.getInteger("p2p.avsync.maxDelayMs", 200);
+    public static final int AV_SYNC_SLEW_MS = 1;
+
+    // Audio codec - "adpcm" (IMA ADPCM, 64 kbit/s at 16 kHz) or "pcm" (256 kbit/s); override with
+    // -Dp2p.audio.codec=pcm. Receivers decode whatever each packet says it carries.
+    public static final String AUDIO_CODEC = System.getProperty("p2p.audio.codec", "adpcm");
+
+    // Audio jitter buffer - received frames play out after a target delay that follows measured
+    // jitter, up to a ceiling (override with -Dp2p.audio.jitterMaxMs=100)
+    public static final int AUDIO_JITTER_MAX_MS = Integer.getInteger("p2p.audio.jitterMaxMs", 200);
+    public static final int AUDIO_JITTER_MIN_MS = Math.min(20, AUDIO_JITTER_MAX_MS); // Floor for the target delay
+    public static final double AUDIO_JITTER_MULTIPLIER = 3.0; // Target delay = jitter times this
+    public static final int AUDIO_JITTER_SLOTS = 64; // Frames held at once by sequence number (power of two)
+
+    // Audio redundancy (RED) - each datagram repeats up to AUDIO_RED_MAX_DEPTH earlier frames.
+    // "auto" follows the loss the receiver reports, "off" never repeats, a number fixes the depth
+    // (override with -Dp2p.audio.red=off or -Dp2p.audio.red=2)
+    public static final String AUDIO_RED_MODE = System.getProperty("p2p.audio.red", "auto");
+    public static final int AUDIO_RED_MAX_DEPTH = 3;
+    public static final double AUDIO_RED_MIN_LOSS = 0.01; // Below this smoothed loss "auto" sends no redundancy
+    public static final long AUDIO_REPORT_INTERVAL_MS = 500; // Receiver loss report period
+
+    // Discontinuous transmission - once speech ends and the hangover has passed, the sender sends a
+    // silence descriptor (noise level and spectrum) every AUDIO_DTX_SID_INTERVAL_MS instead of
+    // frames, and the receiver plays matching comfort noise. "off" sends every frame
+    // (override with -Dp2p.audio.dtx=off)
+    public static final boolean AUDIO_DTX_ENABLED = !"off".equalsIgnoreCase(System.getProperty("p2p.audio.dtx", "on"));
+    public static final int AUDIO_DTX_HANGOVER_MS = 200; // Keep sending this long after the VAD drops, for word tails
+    public static final int AUDIO_DTX_SID_INTERVAL_MS = 200;
+
+    // Audio packet time - frames are captured and processed 10 ms at a time and sent this many ms
+    // to a datagram (10, 20, 40 or 60); "auto" moves between AUDIO_PTIME_MIN_MS and
+    // AUDIO_PTIME_MAX_MS with the receiver's reports (override with -Dp2p.audio.ptime=40 or =auto)
+    public static final String AUDIO_PTIME = System.getProperty("p2p.audio.ptime", "20");
+    public static final int AUDIO_PTIME_MIN_MS = 20; // Shortest "auto" picks
+    public static final int AUDIO_PTIME_MAX_MS = 60; // Longest "auto" picks, and the longest packet a receiver accepts
+    public static final int AUDIO_PTIME_CONGESTION_JITTER_MS = 20; // Reported jitter taken as queues building up
+    public static final double AUDIO_PTIME_HIGH_LOSS = 0.05; // Above this, on an uncongested path, packets get shorter
+
+    // Acoustic echo cancellation - removes what the speakers play from the microphone before VAD;
+    // the tail is the longest echo path it models (override with -Dp2p.audio.aec=off or
+    // -Dp2p.audio.aecTailMs=64)
+    public static final boolean AUDIO_AEC_ENABLED = !"off".equalsIgnoreCase(System.getProperty("p2p.audio.aec", "on"));
+    public static final int AUDIO_AEC_TAIL_MS = Integer.getInteger("p2p.audio.aecTailMs", 128);
+
     // Audio Settings - Optimized for low latency
     public static final float AUDIO_SAMPLE_RATE = 44100; // CD quality for better audio
     public static final int AUDIO_SAMPLE_SIZE_IN_BITS = 16;
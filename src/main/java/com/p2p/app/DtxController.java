@@ -0,0 +1,115 @@
+package com.p2p.app;
+
+import java.util.Arrays;
+
+/**
+ * Discontinuous transmission for the capture path: decides per frame whether to send it, send a
+ * silence descriptor (SID) instead, or send nothing, and estimates the background noise the SIDs
+ * describe.
+ *
+ * A frame is speech if the VAD says so or, so onsets are not clipped while the VAD's moving
+ * average catches up, if its own level is above {@link #ONSET_RMS}. Frames keep being sent for
+ * {@link Constants#AUDIO_DTX_HANGOVER_MS} after the last speech frame so word tails survive. After
+ * that the noise is tracked as a smoothed autocorrelation, and a SID goes out at once and then
+ * every {@link Constants#AUDIO_DTX_SID_INTERVAL_MS}:
+ * level(2) order(1) order x reflection(1)
+ * level is the noise RMS; the reflection coefficients (times 127) of an order-{@link #ORDER} LPC
+ * fit describe its spectrum, and a synthesis filter built from them is always stable.
+ * {@link ComfortNoiseGenerator} turns a SID back into noise. Capture thread only.
+ */
+public class DtxController {
+    public static final int SEND_NOTHING = 0;
+    public static final int SEND_FRAME = 1;
+    public static final int SEND_SID = 2;
+
+    public static final int ORDER = 8;
+    public static final int SID_SIZE = 3 + ORDER;
+    private static final double ONSET_RMS = 600.0; // twice the VAD threshold, on one frame rather than the average
+    private static final double NOISE_SMOOTHING = 0.8; // weight of the estimate so far, per silent frame
+    private static final double WHITE_NOISE_CORRECTION = 1.0001; // keeps the LPC fit well conditioned
+
+    private final int frameMillis;
+    private final double[] noise = new double[ORDER + 1]; // smoothed autocorrelation of silent frames
+    private final double[] frame = new double[ORDER + 1];
+    private final double[] a = new double[ORDER + 1];
+    private final double[] previous = new double[ORDER + 1];
+    private final double[] reflection = new double[ORDER];
+    private int hangoverMillis = 0;
+    private boolean silent = false;
+    private int sinceSidMillis = 0;
+
+    public DtxController(int frameMillis) {
+        this.frameMillis = frameMillis;
+    }
+
+    /**
+     * @param voiced the VAD decision for the frame
+     * @param samples the frame as it would be sent
+     * @return {@link #SEND_FRAME}, {@link #SEND_SID} or {@link #SEND_NOTHING}
+     */
+    public int onFrame(boolean voiced, short[] samples, int count) {
+        if (!Constants.AUDIO_DTX_ENABLED) {
+            return SEND_FRAME;
+        }
+        for (int lag = 0; lag <= ORDER; lag++) {
+            double sum = 0.0;
+            for (int i = lag; i < count; i++) {
+                sum += (double) samples[i] * samples[i - lag];
+            }
+            frame[lag] = sum / Math.max(1, count);
+        }
+        if (voiced || Math.sqrt(frame[0]) > ONSET_RMS) {
+            hangoverMillis = Constants.AUDIO_DTX_HANGOVER_MS;
+            silent = false;
+            return SEND_FRAME;
+        }
+        if (hangoverMillis > 0) {
+            hangoverMillis -= frameMillis;
+            return SEND_FRAME;
+        }
+        for (int lag = 0; lag <= ORDER; lag++) {
+            noise[lag] = noise[0] == 0.0 ? frame[lag] : NOISE_SMOOTHING * noise[lag] + (1 - NOISE_SMOOTHING) * frame[lag];
+        }
+        sinceSidMillis += frameMillis;
+        if (!silent || sinceSidMillis >= Constants.AUDIO_DTX_SID_INTERVAL_MS) {
+            silent = true;
+            sinceSidMillis = 0;
+            return SEND_SID;
+        }
+        return SEND_NOTHING;
+    }
+
+    /** Writes a SID for the current noise estimate; returns its length, {@link #SID_SIZE}. */
+    public int writeSid(byte[] out, int offset) {
+        levinson();
+        int level = (int) Math.min(0xFFFF, Math.round(Math.sqrt(noise[0])));
+        out[offset] = (byte) (level >>> 8);
+        out[offset + 1] = (byte) level;
+        out[offset + 2] = (byte) ORDER;
+        for (int i = 0; i < ORDER; i++) {
+            out[offset + 3 + i] = (byte) Math.max(-126, Math.min(126, Math.round(reflection[i] * 127)));
+        }
+        return SID_SIZE;
+    }
+
+    /** Levinson-Durbin recursion from the noise autocorrelation to reflection coefficients. */
+    private void levinson() {
+        Arrays.fill(a, 0.0);
+        Arrays.fill(reflection, 0.0);
+        double error = noise[0] * WHITE_NOISE_CORRECTION;
+        for (int i = 1; i <= ORDER && error > 0.0; i++) {
+            double acc = noise[i];
+            for (int j = 1; j < i; j++) {
+                acc -= a[j] * noise[i - j];
+            }
+            double k = acc / error;
+            System.arraycopy(a, 0, previous, 0, i);
+            a[i] = k;
+            for (int j = 1; j < i; j++) {
+                a[j] = previous[j] - k * previous[i - j];
+            }
+            reflection[i - 1] = k;
+            error *= 1 - k * k;
+        }
+    }
+}
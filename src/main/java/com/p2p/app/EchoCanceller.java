@@ -0,0 +1,293 @@
+package com.p2p.app;
+
+import java.util.Arrays;
+import java.util.function.LongSupplier;
+
+/**
+ * Acoustic echo canceller for the capture path: a partitioned-block frequency-domain adaptive
+ * filter (PBFDAF) with NLMS steps, the filter structure of Speex's MDF and WebRTC's AEC.
+ * The echo tail ({@link Constants#AUDIO_AEC_TAIL_MS}) is split into 2 ms partitions of
+ * {@link #BLOCK} samples; each block costs three 64-point FFTs and two per-bin multiply-adds per
+ * partition, plus two FFTs to bring one partition per block, round-robin, back to a linear (not
+ * circular) correlation with the gradient constraint. The echo estimate is subtracted from the microphone
+ * before VAD, so far-end speech leaking from the speakers does not open the gate.
+ *
+ * The far end is what the playback thread writes to the speaker line, indexed by line sample;
+ * each capture frame is matched with the samples the line played while it was being recorded,
+ * so the reference always leads the echo by the output and input latencies. The match is
+ * re-anchored only when it drifts by more than {@link #RESYNC_SAMPLES}.
+ *
+ * Adaptation pauses while the far end is quiet and during double talk, detected with the
+ * Geigel test: a near-end peak above half the far-end peak over the tail, held for
+ * {@link #DOUBLE_TALK_HOLD_BLOCKS}. CPU per frame and ERLE (echo return loss enhancement:
+ * microphone power over output power while only the far end talks) go to the stats report.
+ * The capture thread calls {@link #process}; {@link #onFarEnd} is called from the playback thread.
+ */
+public class EchoCanceller implements AudioDspStage {
+    public static final int BLOCK = 32;
+    private static final int FFT_SIZE = 2 * BLOCK;
+    private static final int BINS = BLOCK + 1; // real input: the upper half mirrors these
+    private static final double STEP = 0.5;
+    private static final double POWER_SMOOTHING = 0.8; // far-end power per bin, per block
+    private static final double REGULARISATION = FFT_SIZE * 50.0 * 50.0; // keeps steps small on near-silent bins
+    private static final double GEIGEL_THRESHOLD = 0.5; // assumes the echo path loses at least 6 dB
+    private static final int DOUBLE_TALK_HOLD_BLOCKS = 16; // 32 ms at 16 kHz
+    private static final int FAR_ACTIVE_PEAK = 200; // below this the far end is taken as silent
+    private static final double ERLE_SMOOTHING = 0.02; // per adapting block
+    private static final int RING_SAMPLES = 1 << 15; // far-end history, about 2 s
+    private static final int RESYNC_SAMPLES = 2 * BLOCK * 5; // 20 ms at 16 kHz
+
+    private final int partitions;
+    private final LongSupplier playedSamples;
+
+    // Far end, written by the playback thread; guarded by the ring
+    private final short[] ring = new short[RING_SAMPLES];
+    private long written = 0;
+    private long referenceIndex = -1; // next line sample to use as reference; capture thread only
+
+    // Filter state, capture thread only
+    private final double[][] farRe;
+    private final double[][] farIm;
+    private final double[][] weightRe;
+    private final double[][] weightIm;
+    private final double[] power = new double[BINS];
+    private final double[] blockPeaks;
+    private int head = 0;
+    private int constrainNext = 0;
+    private int doubleTalkHold = 0;
+    private final double[] farPrevious = new double[BLOCK];
+    private final double[] farCurrent = new double[BLOCK];
+    private final double[] re = new double[FFT_SIZE];
+    private final double[] im = new double[FFT_SIZE];
+    private final double[] errorRe = new double[BINS];
+    private final double[] errorIm = new double[BINS];
+    private final double[] cos = new double[FFT_SIZE / 2];
+    private final double[] sin = new double[FFT_SIZE / 2];
+    private double nearPower = 0.0;
+    private double outputPower = 0.0;
+
+    /**
+     * @param playedSamples the speaker line position (in samples) when the last sample handed to
+     *                      {@link #process} was captured
+     */
+    public EchoCanceller(int sampleRate, int tailMillis, LongSupplier playedSamples) {
+        this.partitions = Math.max(1, (sampleRate * tailMillis / 1000 + BLOCK - 1) / BLOCK);
+        this.playedSamples = playedSamples;
+        farRe = new double[partitions][BINS];
+        farIm = new double[partitions][BINS];
+        weightRe = new double[partitions][BINS];
+        weightIm = new double[partitions][BINS];
+        blockPeaks = new double[partitions];
+        for (int i = 0; i < FFT_SIZE / 2; i++) {
+            cos[i] = Math.cos(2 * Math.PI * i / FFT_SIZE);
+            sin[i] = -Math.sin(2 * Math.PI * i / FFT_SIZE);
+        }
+    }
+
+    /** Records PCM (16-bit little-endian) handed to the speaker line, in the order it will play. */
+    public void onFarEnd(byte[] pcm, int length) {
+        synchronized (ring) {
+            for (int i = 0; i + 1 < length; i += 2) {
+                ring[(int) (written++ & (RING_SAMPLES - 1))] = (short) ((pcm[i + 1] << 8) | (pcm[i] & 0xFF));
+            }
+        }
+    }
+
+    /** Removes the echo from one captured frame in place; any tail shorter than a block passes unchanged. */
+    @Override
+    public boolean process(short[] samples, int count) {
+        long start = System.nanoTime();
+        long wanted = playedSamples.getAsLong() - count; // played as this frame's first sample was recorded
+        if (referenceIndex < 0 || Math.abs(referenceIndex - wanted) > RESYNC_SAMPLES) {
+            if (referenceIndex >= 0) {
+                PerformanceLogger.logEchoResync();
+            }
+            referenceIndex = wanted;
+        }
+        for (int offset = 0; offset + BLOCK <= count; offset += BLOCK) {
+            readReference();
+            processBlock(samples, offset);
+        }
+        PerformanceLogger.logEchoCanceller(System.nanoTime() - start, 10 * Math.log10((nearPower + 1) / (outputPower + 1)));
+        return true;
+    }
+
+    private void readReference() {
+        synchronized (ring) {
+            for (int i = 0; i < BLOCK; i++) {
+                long index = referenceIndex + i;
+                boolean held = index >= 0 && index < written && index >= written - RING_SAMPLES;
+                farCurrent[i] = held ? ring[(int) (index & (RING_SAMPLES - 1))] : 0.0;
+            }
+        }
+        referenceIndex += BLOCK;
+    }
+
+    private void processBlock(short[] samples, int offset) {
+        // Spectrum of the last two far-end blocks becomes the newest partition input
+        head = head == 0 ? partitions - 1 : head - 1;
+        double farPeak = 0.0;
+        for (int i = 0; i < BLOCK; i++) {
+            re[i] = farPrevious[i];
+            re[BLOCK + i] = farCurrent[i];
+            farPrevious[i] = farCurrent[i];
+            farPeak = Math.max(farPeak, Math.abs(farCurrent[i]));
+        }
+        Arrays.fill(im, 0.0);
+        fft(re, im);
+        double[] xr = farRe[head];
+        double[] xi = farIm[head];
+        for (int k = 0; k < BINS; k++) {
+            xr[k] = re[k];
+            xi[k] = im[k];
+            double binPower = re[k] * re[k] + im[k] * im[k];
+            // Rises at once and decays slowly, so a far-end onset never meets a stale small power
+            power[k] = Math.max(binPower, POWER_SMOOTHING * power[k] + (1 - POWER_SMOOTHING) * binPower);
+        }
+        blockPeaks[head] = farPeak;
+
+        // Echo estimate: sum over partitions of weights times delayed far-end spectra
+        Arrays.fill(re, 0.0);
+        Arrays.fill(im, 0.0);
+        for (int p = 0; p < partitions; p++) {
+            int q = head + p < partitions ? head + p : head + p - partitions;
+            double[] wr = weightRe[p];
+            double[] wi = weightIm[p];
+            double[] pr = farRe[q];
+            double[] pi = farIm[q];
+            for (int k = 0; k < BINS; k++) {
+                re[k] += wr[k] * pr[k] - wi[k] * pi[k];
+                im[k] += wr[k] * pi[k] + wi[k] * pr[k];
+            }
+        }
+        inverseFft();
+
+        // Error = microphone - estimate (the last half of the circular result is linear)
+        double nearPeak = 0.0;
+        double blockNear = 0.0;
+        double blockOut = 0.0;
+        for (int i = 0; i < BLOCK; i++) {
+            double near = samples[offset + i];
+            double error = near - re[BLOCK + i];
+            nearPeak = Math.max(nearPeak, Math.abs(near));
+            blockNear += near * near;
+            blockOut += error * error;
+            re[BLOCK + i] = error;
+            int out = (int) Math.round(error);
+            samples[offset + i] = (short) Math.max(Short.MIN_VALUE, Math.min(Short.MAX_VALUE, out));
+        }
+
+        double tailPeak = 0.0;
+        for (double peak : blockPeaks) {
+            tailPeak = Math.max(tailPeak, peak);
+        }
+        if (nearPeak > GEIGEL_THRESHOLD * tailPeak) {
+            doubleTalkHold = DOUBLE_TALK_HOLD_BLOCKS;
+        } else if (doubleTalkHold > 0) {
+            doubleTalkHold--;
+        }
+        boolean farActive = tailPeak >= FAR_ACTIVE_PEAK;
+        PerformanceLogger.logEchoBlock(farActive, farActive && doubleTalkHold > 0);
+        if (!farActive || doubleTalkHold > 0) {
+            return;
+        }
+        nearPower += (blockNear - nearPower) * ERLE_SMOOTHING;
+        outputPower += (blockOut - outputPower) * ERLE_SMOOTHING;
+
+        // Error spectrum of [0, e], then an NLMS step for every partition
+        for (int i = 0; i < BLOCK; i++) {
+            re[i] = 0.0;
+        }
+        Arrays.fill(im, 0.0);
+        fft(re, im);
+        for (int k = 0; k < BINS; k++) {
+            double scale = STEP / (partitions * power[k] + REGULARISATION);
+            errorRe[k] = re[k] * scale;
+            errorIm[k] = im[k] * scale;
+        }
+        for (int p = 0; p < partitions; p++) {
+            int q = head + p < partitions ? head + p : head + p - partitions;
+            double[] wr = weightRe[p];
+            double[] wi = weightIm[p];
+            double[] pr = farRe[q];
+            double[] pi = farIm[q];
+            for (int k = 0; k < BINS; k++) {
+                wr[k] += pr[k] * errorRe[k] + pi[k] * errorIm[k]; // conj(X) * E
+                wi[k] += pr[k] * errorIm[k] - pi[k] * errorRe[k];
+            }
+        }
+        constrain(constrainNext);
+        constrainNext = constrainNext + 1 == partitions ? 0 : constrainNext + 1;
+    }
+
+    /** Zeroes the second half of a partition's impulse response so it stays a linear filter. */
+    private void constrain(int p) {
+        for (int k = 0; k < BINS; k++) {
+            re[k] = weightRe[p][k];
+            im[k] = weightIm[p][k];
+        }
+        inverseFft();
+        for (int i = BLOCK; i < FFT_SIZE; i++) {
+            re[i] = 0.0;
+        }
+        Arrays.fill(im, 0.0);
+        fft(re, im);
+        for (int k = 0; k < BINS; k++) {
+            weightRe[p][k] = re[k];
+            weightIm[p][k] = im[k];
+        }
+    }
+
+    /** Inverse transform of bins 0..BLOCK in re/im (the rest mirrored), real result in re. */
+    private void inverseFft() {
+        // ifft(X) = conj(fft(conj(X))) / N, and conj(X) of a real signal mirrors X itself
+        for (int k = 1; k < BLOCK; k++) {
+            re[FFT_SIZE - k] = re[k];
+            im[FFT_SIZE - k] = im[k];
+        }
+        for (int k = 0; k < BINS; k++) {
+            im[k] = -im[k];
+        }
+        fft(re, im);
+        for (int i = 0; i < FFT_SIZE; i++) {
+            re[i] /= FFT_SIZE;
+        }
+    }
+
+    /** In-place radix-2 FFT of FFT_SIZE points. */
+    private void fft(double[] xr, double[] xi) {
+        for (int i = 1, j = 0; i < FFT_SIZE; i++) {
+            int bit = FFT_SIZE >> 1;
+            for (; (j & bit) != 0; bit >>= 1) {
+                j ^= bit;
+            }
+            j ^= bit;
+            if (i < j) {
+                double t = xr[i];
+                xr[i] = xr[j];
+                xr[j] = t;
+                t = xi[i];
+                xi[i] = xi[j];
+                xi[j] = t;
+            }
+        }
+        for (int len = 2; len <= FFT_SIZE; len <<= 1) {
+            int half = len >> 1;
+            int stride = FFT_SIZE / len;
+            for (int i = 0; i < FFT_SIZE; i += len) {
+                for (int j = 0; j < half; j++) {
+                    double wr = cos[j * stride];
+                    double wi = sin[j * stride];
+                    int a = i + j;
+                    int b = a + half;
+                    double tr = xr[b] * wr - xi[b] * wi;
+                    double ti = xr[b] * wi + xi[b] * wr;
+                    xr[b] = xr[a] - tr;
+                    xi[b] = xi[a] - ti;
+                    xr[a] += tr;
+                    xi[a] += ti;
+                }
+            }
+        }
+    }
+}
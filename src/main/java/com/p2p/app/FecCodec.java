@@ -0,0 +1,39 @@
+package com.p2p.app;
+
+/**
+ * Erasure code applied to one group of equally sized video chunks ("shards").
+ * Data shards are sent unchanged; parity shards let the receiver rebuild lost data shards.
+ */
+public interface FecCodec {
+
+    /** Largest number of parity shards this codec can produce for one group. */
+    int maxParityCount();
+
+    /**
+     * Computes parity shards for a group.
+     * @param data        dataCount shards of shardLength bytes (short shards zero-padded)
+     * @param parity      receives parityCount shards of shardLength bytes
+     */
+    void encode(byte[][] data, int dataCount, byte[][] parity, int parityCount, int shardLength);
+
+    /**
+     * Rebuilds missing data shards in place. Parity buffers may be overwritten.
+     * @return false if too few shards are present to recover the group
+     */
+    boolean decode(byte[][] data, boolean[] dataPresent, int dataCount,
+                   byte[][] parity, boolean[] parityPresent, int parityCount, int shardLength);
+
+    static FecCodec forMode(String mode) {
+        switch (mode.toLowerCase()) {
+            case "xor":
+                return new XorFecCodec();
+            case "rs":
+                return new ReedSolomonFecCodec();
+            case "off":
+                return null;
+            default:
+                PerformanceLogger.logWarning("Video FEC", "Unknown mode '" + mode + "', FEC stays off");
+                return null;
+        }
+    }
+}
@@ -0,0 +1,61 @@
+package com.p2p.app;
+
+/**
+ * Chooses the FEC group shape (k data chunks protected by m parity chunks) from the loss rate
+ * reported by the receiver. Overhead m/k follows the smoothed loss times a safety margin, so a
+ * clean link only pays the configured minimum.
+ * Updated from the feedback thread and read by the sending thread.
+ */
+public class FecController {
+    private static final double LOSS_SMOOTHING = 0.3; // weight of the newest report
+
+    private final FecCodec codec;
+    private double smoothedLoss = 0.0;
+    private volatile int groupSize;
+    private volatile int parityCount;
+
+    public FecController(FecCodec codec) {
+        this.codec = codec;
+        applyLoss(0.0);
+    }
+
+    public FecCodec getCodec() {
+        return codec;
+    }
+
+    public int getGroupSize() {
+        return groupSize;
+    }
+
+    public int getParityCount() {
+        return parityCount;
+    }
+
+    public synchronized void onLossReport(double lossFraction) {
+        smoothedLoss = LOSS_SMOOTHING * lossFraction + (1.0 - LOSS_SMOOTHING) * smoothedLoss;
+        int oldK = groupSize;
+        int oldM = parityCount;
+        applyLoss(smoothedLoss);
+        if (oldK != groupSize || oldM != parityCount) {
+            PerformanceLogger.logInfo("FEC", String.format("loss %.1f%% -> k=%d, m=%d (overhead %.0f%%)",
+                    smoothedLoss * 100, groupSize, parityCount, 100.0 * parityCount / groupSize));
+        }
+    }
+
+    private void applyLoss(double loss) {
+        double overhead = Math.max(Constants.VIDEO_FEC_MIN_OVERHEAD, loss * Constants.VIDEO_FEC_LOSS_MARGIN);
+        int maxParity = Math.min(codec.maxParityCount(), Constants.VIDEO_FEC_MAX_PARITY);
+        if (maxParity == 1) {
+            // Single parity chunk: tune the group length instead
+            groupSize = clamp((int) Math.floor(1.0 / overhead), 2, VideoPacket.MAX_FEC_GROUP_SIZE);
+            parityCount = 1;
+        } else {
+            groupSize = Constants.VIDEO_FEC_GROUP_SIZE;
+            parityCount = clamp((int) Math.ceil(groupSize * overhead), 1, maxParity);
+        }
+    }
+
+    private static int clamp(int value, int min, int max) {
+        return Math.max(min, Math.min(max, value));
+    }
+}
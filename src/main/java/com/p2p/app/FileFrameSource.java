@@ -0,0 +1,67 @@
+package com.p2p.app;
+
+import org.bytedeco.javacv.FFmpegFrameGrabber;
+import org.bytedeco.javacv.Frame;
+import org.bytedeco.javacv.OpenCVFrameConverter;
+import org.bytedeco.opencv.global.opencv_imgproc;
+import org.bytedeco.opencv.opencv_core.Mat;
+import org.bytedeco.opencv.opencv_core.Size;
+import org.opencv.core.CvType;
+
+/**
+ * Plays a video file through FFmpeg, scaled to the capture size and restarted from the
+ * beginning when it ends, so a short clip can drive an endless soak test.
+ */
+public class FileFrameSource implements FrameSource {
+    private final String path;
+    private final OpenCVFrameConverter.ToMat converter = new OpenCVFrameConverter.ToMat();
+    private final Mat scaled = new Mat(Constants.FRAME_HEIGHT, Constants.FRAME_WIDTH, CvType.CV_8UC3);
+    private final Size captureSize = new Size(Constants.FRAME_WIDTH, Constants.FRAME_HEIGHT);
+    private FFmpegFrameGrabber grabber;
+
+    public FileFrameSource(String path) {
+        this.path = path;
+    }
+
+    @Override
+    public void start() throws Exception {
+        grabber = new FFmpegFrameGrabber(path);
+        grabber.start();
+        System.out.println("FileFrameSource: Playing " + path + " (" + grabber.getImageWidth() + "x"
+                + grabber.getImageHeight() + ", looped)");
+    }
+
+    @Override
+    public Mat grab() throws Exception {
+        Frame frame = grabber.grabImage();
+        if (frame == null) {
+            grabber.setTimestamp(0); // end of file: loop
+            frame = grabber.grabImage();
+            if (frame == null) {
+                return null;
+            }
+        }
+        Mat mat = converter.convert(frame);
+        if (mat == null) {
+            return null;
+        }
+        if (mat.cols() == Constants.FRAME_WIDTH && mat.rows() == Constants.FRAME_HEIGHT) {
+            return mat;
+        }
+        opencv_imgproc.resize(mat, scaled, captureSize, 0, 0, opencv_imgproc.INTER_AREA);
+        return scaled;
+    }
+
+    @Override
+    public void close() {
+        try {
+            if (grabber != null) {
+                grabber.stop();
+                grabber.release();
+            }
+        } catch (Exception e) {
+            System.err.println("FileFrameSource: Error closing " + path + ": " + e.getMessage());
+        }
+        scaled.release();
+    }
+}
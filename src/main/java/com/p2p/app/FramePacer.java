@@ -0,0 +1,51 @@
+package com.p2p.app;
+
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Frame clock for the capture loop. Deadlines sit on a fixed grid of frame intervals, so
+ * rounding never accumulates into drift. Waiting parks the thread until SPIN_NANOS before the
+ * deadline (parkNanos can oversleep by a scheduler tick) and spins for the rest.
+ * When the loop falls a whole interval or more behind, the missed slots are skipped and the
+ * next frame is taken on the latest grid point, instead of bursting frames to catch up.
+ * Used from the capture thread only.
+ */
+public class FramePacer {
+    private static final long SPIN_NANOS = 1_500_000;
+
+    private long deadline = -1;
+
+    /** Forgets the grid, e.g. after a pause; the next frame is taken immediately. */
+    public void reset() {
+        deadline = -1;
+    }
+
+    /**
+     * Waits until the next frame should be captured.
+     * @param intervalNanos current frame interval; may change between calls
+     * @return number of frame slots skipped because the previous frame overran
+     */
+    public int awaitNextFrame(long intervalNanos) {
+        long now = System.nanoTime();
+        int skipped = 0;
+        if (deadline < 0) {
+            deadline = now;
+        } else if (now - deadline >= intervalNanos) {
+            skipped = (int) ((now - deadline) / intervalNanos);
+            deadline += skipped * intervalNanos;
+        }
+        while (true) {
+            long remaining = deadline - System.nanoTime();
+            if (remaining <= 0 || Thread.currentThread().isInterrupted()) {
+                break;
+            }
+            if (remaining > SPIN_NANOS) {
+                LockSupport.parkNanos(remaining - SPIN_NANOS);
+            } else {
+                Thread.onSpinWait();
+            }
+        }
+        deadline += intervalNanos;
+        return skipped;
+    }
+}
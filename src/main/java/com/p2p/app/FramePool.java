@@ -0,0 +1,56 @@
+package com.p2p.app;
+
+import java.util.concurrent.ArrayBlockingQueue;
+
+import org.bytedeco.opencv.opencv_core.Mat;
+import org.opencv.core.CvType;
+
+/**
+ * Fixed set of preallocated capture-sized frames that cycle between the capture thread (which
+ * copies each grabbed frame into one) and the compression thread (which hands it back after
+ * encoding), so the steady state allocates no native memory per frame.
+ * When every Mat is in flight the capture thread drops the frame rather than allocating.
+ */
+public class FramePool {
+    private final ArrayBlockingQueue<CapturedFrame> free;
+    private final CapturedFrame[] all;
+
+    public FramePool(int capacity, int width, int height) {
+        free = new ArrayBlockingQueue<>(capacity);
+        all = new CapturedFrame[capacity];
+        for (int i = 0; i < capacity; i++) {
+            all[i] = new CapturedFrame(new Mat(height, width, CvType.CV_8UC3));
+            free.add(all[i]);
+        }
+        PerformanceLogger.setVideoPoolCapacity(capacity);
+        PerformanceLogger.logVideoPoolOccupancy(0);
+    }
+
+    /** @return a free frame, or null if the pool is exhausted */
+    public CapturedFrame acquire() {
+        CapturedFrame frame = free.poll();
+        if (frame == null) {
+            PerformanceLogger.logVideoPoolExhausted();
+            return null;
+        }
+        PerformanceLogger.logVideoPoolOccupancy(inUse());
+        return frame;
+    }
+
+    public void release(CapturedFrame frame) {
+        free.offer(frame);
+        PerformanceLogger.logVideoPoolOccupancy(inUse());
+    }
+
+    public int inUse() {
+        return all.length - free.size();
+    }
+
+    /** Frees the native memory of every Mat; the pool must not be used afterwards. */
+    public void close() {
+        free.clear();
+        for (CapturedFrame frame : all) {
+            frame.mat.release();
+        }
+    }
+}
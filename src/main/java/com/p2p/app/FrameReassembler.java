@@ -0,0 +1,316 @@
+package com.p2p.app;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Rebuilds encoded frames from the chunks produced by {@link VideoPacketizer}.
+ * The table holds a fixed number of partially received frames; incomplete frames expire after
+ * {@link Constants#VIDEO_REASSEMBLY_TIMEOUT_MS} and chunks of frames older than the last
+ * delivered one are discarded, so a late frame can never overwrite a newer picture. A frame id far
+ * behind the last delivered one, or any packet after a long silence, means the sender restarted
+ * its numbering, and the table starts over.
+ * Parity chunks are kept per frame and used to rebuild lost data chunks as soon as a group
+ * has enough pieces. Frames are assembled in preallocated direct buffers, ready to be copied
+ * out or decoded in place. Not thread-safe: owned by the receive thread.
+ */
+public class FrameReassembler {
+    /** Zeroable bytes after the longest frame: FFmpeg may read, and requires zeros, past the end. */
+    public static final int FRAME_PADDING = 64;
+    // Stale frames can only be a few slots behind; further back means a restart
+    private static final int RESTART_FRAME_DISTANCE = 64;
+
+    private static final class Slot {
+        final ByteBuffer data = ByteBuffer.allocateDirect(Constants.MAX_VIDEO_FRAME_SIZE + FRAME_PADDING);
+        final boolean[] received = new boolean[VideoPacket.MAX_CHUNKS];
+        final byte[][] parity = new byte[VideoPacket.MAX_CHUNKS][];
+        final boolean[] parityReceived = new boolean[VideoPacket.MAX_CHUNKS];
+        boolean inUse;
+        int frameId;
+        int chunkCount;
+        int chunksReceived;
+        int frameLength;
+        int fecK;
+        int fecM;
+        boolean fecRs;
+        byte frameFlags;
+        int timestamp;
+        long firstArrivalMillis;
+
+        void reset(int frameId, int chunkCount, int frameLength, int fecK, int fecM, boolean fecRs, byte frameFlags,
+                   long now) {
+            this.inUse = true;
+            this.frameId = frameId;
+            this.chunkCount = chunkCount;
+            this.chunksReceived = 0;
+            this.frameLength = frameLength;
+            this.fecK = fecK;
+            this.fecM = fecM;
+            this.fecRs = fecRs;
+            this.frameFlags = frameFlags;
+            this.firstArrivalMillis = now;
+            Arrays.fill(received, 0, chunkCount, false);
+            Arrays.fill(parityReceived, false);
+        }
+
+        byte[] parityBuffer(int index) {
+            if (parity[index] == null) {
+                parity[index] = new byte[VideoPacket.MAX_PAYLOAD_SIZE];
+            }
+            return parity[index];
+        }
+    }
+
+    private final Slot[] slots;
+    private boolean delivered = false;
+    private int lastDeliveredFrameId;
+    private long lastPacketMillis;
+    private Slot completed;
+
+    // FEC scratch: one group's shards, handed to the codec
+    private final byte[][] groupData = new byte[VideoPacket.MAX_FEC_GROUP_SIZE][VideoPacket.MAX_PAYLOAD_SIZE];
+    private final boolean[] groupDataPresent = new boolean[VideoPacket.MAX_FEC_GROUP_SIZE];
+    private final byte[][] groupParity = new byte[VideoPacket.MAX_FEC_PARITY][];
+    private final boolean[] groupParityPresent = new boolean[VideoPacket.MAX_FEC_PARITY];
+    private final FecCodec xorCodec = new XorFecCodec();
+    private final FecCodec rsCodec = new ReedSolomonFecCodec();
+
+    public FrameReassembler() {
+        slots = new Slot[Constants.VIDEO_REASSEMBLY_SLOTS];
+        for (int i = 0; i < slots.length; i++) {
+            slots[i] = new Slot();
+        }
+    }
+
+    /**
+     * Adds one received datagram.
+     * @param packet buffer holding the datagram, header at index 0; position and limit are used as scratch
+     * @param length datagram length in bytes
+     * @return true if this chunk completed a frame; read it with {@link #frameData()} / {@link #frameLength()}
+     *         / {@link #frameFlags()} / {@link #frameTimestamp()}
+     */
+    public boolean accept(ByteBuffer packet, int length, long nowMillis) {
+        completed = null;
+        expire(nowMillis);
+
+        if (length < VideoPacket.HEADER_SIZE) {
+            return false;
+        }
+        byte type = VideoPacket.type(packet);
+        if (type != VideoPacket.TYPE_DATA && type != VideoPacket.TYPE_PARITY) {
+            return false;
+        }
+        int frameId = VideoPacket.frameId(packet);
+        int chunkIndex = VideoPacket.chunkIndex(packet);
+        int chunkCount = VideoPacket.chunkCount(packet);
+        int frameLength = VideoPacket.frameLength(packet);
+        int fecK = VideoPacket.fecK(packet);
+        int fecM = VideoPacket.fecM(packet);
+        byte flags = VideoPacket.flags(packet);
+        boolean fecRs = (flags & VideoPacket.FLAG_FEC_RS) != 0;
+        byte frameFlags = (byte) (flags & VideoPacket.FRAME_FLAGS_MASK);
+        int payloadLength = length - VideoPacket.HEADER_SIZE;
+        if (chunkCount == 0 || chunkCount > VideoPacket.MAX_CHUNKS || payloadLength > VideoPacket.MAX_PAYLOAD_SIZE
+                || frameLength < 0 || frameLength > Constants.MAX_VIDEO_FRAME_SIZE
+                || fecK > VideoPacket.MAX_FEC_GROUP_SIZE || fecM > VideoPacket.MAX_FEC_PARITY
+                || (fecM > 0 && fecK == 0)) {
+            return false;
+        }
+        int parityChunks = fecM > 0 ? ((chunkCount + fecK - 1) / fecK) * fecM : 0;
+        if (type == VideoPacket.TYPE_DATA ? chunkIndex >= chunkCount : chunkIndex >= parityChunks) {
+            return false;
+        }
+
+        if (delivered && (nowMillis - lastPacketMillis >= VideoPacket.RESTART_SILENCE_MS
+                || lastDeliveredFrameId - frameId >= RESTART_FRAME_DISTANCE)) {
+            restart();
+        }
+        lastPacketMillis = nowMillis;
+        if (delivered && !VideoPacket.isNewer(frameId, lastDeliveredFrameId)) {
+            PerformanceLogger.logVideoPacketStale();
+            return false;
+        }
+
+        Slot slot = findOrAllocate(frameId, chunkCount, frameLength, fecK, fecM, fecRs, frameFlags, nowMillis);
+        if (slot.chunkCount != chunkCount || slot.frameLength != frameLength
+                || slot.fecK != fecK || slot.fecM != fecM || slot.fecRs != fecRs) {
+            return false; // inconsistent header
+        }
+        slot.timestamp = VideoPacket.timestamp(packet);
+
+        int group;
+        packet.limit(length).position(VideoPacket.HEADER_SIZE);
+        if (type == VideoPacket.TYPE_DATA) {
+            if (slot.received[chunkIndex]) {
+                packet.clear();
+                return false; // duplicate
+            }
+            slot.data.position(chunkIndex * VideoPacket.MAX_PAYLOAD_SIZE);
+            slot.data.put(packet);
+            slot.received[chunkIndex] = true;
+            slot.chunksReceived++;
+            group = fecK > 0 ? chunkIndex / fecK : -1;
+        } else {
+            if (slot.parityReceived[chunkIndex]) {
+                packet.clear();
+                return false;
+            }
+            packet.get(slot.parityBuffer(chunkIndex), 0, payloadLength);
+            slot.parityReceived[chunkIndex] = true;
+            group = chunkIndex / fecM;
+        }
+        packet.clear();
+
+        if (slot.chunksReceived < slot.chunkCount && fecM > 0 && group >= 0) {
+            tryRecover(slot, group);
+        }
+        if (slot.chunksReceived == slot.chunkCount) {
+            deliver(slot);
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Completed frame from index 0, valid until the next call to accept. The buffer is one of a
+     * fixed set, so callers may cache native wrappers keyed on it. Bytes up to
+     * {@link #FRAME_PADDING} past the frame may be overwritten by the caller.
+     */
+    public ByteBuffer frameData() {
+        return completed != null ? completed.data : null;
+    }
+
+    public int frameLength() {
+        return completed != null ? completed.frameLength : 0;
+    }
+
+    public int frameId() {
+        return completed != null ? completed.frameId : 0;
+    }
+
+    /** Sender capture timestamp of the completed frame, see {@link VideoPacket#timestamp}. */
+    public int frameTimestamp() {
+        return completed != null ? completed.timestamp : 0;
+    }
+
+    /** Codec and keyframe flags of the completed frame, see {@link VideoPacket#FRAME_FLAGS_MASK}. */
+    public byte frameFlags() {
+        return completed != null ? completed.frameFlags : 0;
+    }
+
+    private void tryRecover(Slot slot, int group) {
+        int k = slot.fecK;
+        int m = slot.fecM;
+        int first = group * k;
+        int groupChunks = Math.min(k, slot.chunkCount - first);
+
+        int missing = 0;
+        for (int i = 0; i < groupChunks; i++) {
+            if (!slot.received[first + i]) missing++;
+        }
+        int parityPresent = 0;
+        for (int p = 0; p < m; p++) {
+            if (slot.parityReceived[group * m + p]) parityPresent++;
+        }
+        if (missing == 0 || parityPresent < missing) {
+            return;
+        }
+
+        FecCodec codec = slot.fecRs ? rsCodec : xorCodec;
+        int shardLength = VideoPacketizer.shardLength(slot.frameLength, group, k);
+        for (int i = 0; i < groupChunks; i++) {
+            int chunk = first + i;
+            groupDataPresent[i] = slot.received[chunk];
+            if (groupDataPresent[i]) {
+                int len = chunkLength(slot, chunk);
+                slot.data.position(chunk * VideoPacket.MAX_PAYLOAD_SIZE);
+                slot.data.get(groupData[i], 0, len);
+                Arrays.fill(groupData[i], len, shardLength, (byte) 0);
+            }
+        }
+        for (int p = 0; p < m; p++) {
+            groupParityPresent[p] = slot.parityReceived[group * m + p];
+            groupParity[p] = groupParityPresent[p] ? slot.parity[group * m + p] : null;
+        }
+
+        if (!codec.decode(groupData, groupDataPresent, groupChunks, groupParity, groupParityPresent, m, shardLength)) {
+            return;
+        }
+        // The codec may have used parity buffers as scratch; they are no longer needed for this group
+        for (int p = 0; p < m; p++) {
+            slot.parityReceived[group * m + p] = false;
+        }
+        for (int i = 0; i < groupChunks; i++) {
+            int chunk = first + i;
+            if (!slot.received[chunk]) {
+                slot.data.position(chunk * VideoPacket.MAX_PAYLOAD_SIZE);
+                slot.data.put(groupData[i], 0, chunkLength(slot, chunk));
+                slot.received[chunk] = true;
+                slot.chunksReceived++;
+            }
+        }
+        PerformanceLogger.logVideoChunksRecovered(missing);
+    }
+
+    private static int chunkLength(Slot slot, int chunk) {
+        return Math.min(VideoPacket.MAX_PAYLOAD_SIZE, slot.frameLength - chunk * VideoPacket.MAX_PAYLOAD_SIZE);
+    }
+
+    private void deliver(Slot slot) {
+        completed = slot;
+        slot.inUse = false;
+        delivered = true;
+        lastDeliveredFrameId = slot.frameId;
+
+        // Anything still pending is older than the frame we just delivered and can never be shown
+        for (Slot other : slots) {
+            if (other.inUse && !VideoPacket.isNewer(other.frameId, lastDeliveredFrameId)) {
+                other.inUse = false;
+                PerformanceLogger.logVideoFrameIncomplete();
+            }
+        }
+    }
+
+    /** Forgets the old stream: the next complete frame is delivered whatever its id. */
+    private void restart() {
+        delivered = false;
+        for (Slot slot : slots) {
+            slot.inUse = false;
+        }
+        PerformanceLogger.logInfo("FrameReassembler", "Video sender restarted, frame ids start over");
+    }
+
+    private Slot findOrAllocate(int frameId, int chunkCount, int frameLength, int fecK, int fecM, boolean fecRs,
+                                byte frameFlags, long now) {
+        Slot free = null;
+        Slot oldest = null;
+        for (Slot slot : slots) {
+            if (slot.inUse) {
+                if (slot.frameId == frameId) {
+                    return slot;
+                }
+                if (oldest == null || VideoPacket.isNewer(oldest.frameId, slot.frameId)) {
+                    oldest = slot;
+                }
+            } else if (free == null) {
+                free = slot;
+            }
+        }
+        if (free == null) {
+            // Table full: sacrifice the oldest partial frame
+            free = oldest;
+            PerformanceLogger.logVideoFrameIncomplete();
+        }
+        free.reset(frameId, chunkCount, frameLength, fecK, fecM, fecRs, frameFlags, now);
+        return free;
+    }
+
+    private void expire(long now) {
+        for (Slot slot : slots) {
+            if (slot.inUse && now - slot.firstArrivalMillis > Constants.VIDEO_REASSEMBLY_TIMEOUT_MS) {
+                slot.inUse = false;
+                PerformanceLogger.logVideoFrameIncomplete();
+            }
+        }
+    }
+}
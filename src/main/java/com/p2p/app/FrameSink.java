@@ -0,0 +1,29 @@
+package com.p2p.app;
+
+import org.bytedeco.opencv.opencv_core.Mat;
+
+/**
+ * Where decoded or local preview pictures end up. Used from one thread at a time.
+ */
+public interface FrameSink {
+
+    /** Consumes a BGR picture; the caller keeps ownership and may reuse it after this returns. */
+    void show(Mat frame);
+
+    void close();
+
+    /**
+     * @param mode  "window", "null" or "checksum", see {@link Constants#VIDEO_SINK}
+     * @param sourceGamma gamma of the pictures, corrected for in a window (0 if unknown)
+     */
+    static FrameSink forMode(String mode, String title, double sourceGamma) {
+        switch (mode.toLowerCase()) {
+            case "null":
+                return new NullFrameSink();
+            case "checksum":
+                return new ChecksumFrameSink(title);
+            default:
+                return new CanvasFrameSink(title, sourceGamma);
+        }
+    }
+}
@@ -0,0 +1,38 @@
+package com.p2p.app;
+
+import org.bytedeco.opencv.opencv_core.Mat;
+
+/**
+ * Where {@link VideoSendThread} gets its pictures from. Used from the capture thread only.
+ */
+public interface FrameSource {
+
+    void start() throws Exception;
+
+    /**
+     * Returns the next picture without waiting for a frame slot; pacing is the caller's job.
+     * @return BGR picture at capture size, owned by the source and valid until the next call,
+     *         or null if no frame is available right now
+     */
+    Mat grab() throws Exception;
+
+    /** Gamma of the produced pictures, for display correction; 0 if unknown. */
+    default double gamma() {
+        return 0.0;
+    }
+
+    void close();
+
+    /** @param spec "webcam", "synthetic" or "file:&lt;path&gt;", see {@link Constants#VIDEO_SOURCE} */
+    static FrameSource forSpec(String spec) {
+        if (spec.startsWith("file:")) {
+            return new FileFrameSource(spec.substring("file:".length()));
+        }
+        switch (spec.toLowerCase()) {
+            case "synthetic":
+                return new SyntheticFrameSource(Constants.FRAME_WIDTH, Constants.FRAME_HEIGHT, Constants.VIDEO_SYNTHETIC_MOTION);
+            default:
+                return new WebcamFrameSource();
+        }
+    }
+}
@@ -0,0 +1,98 @@
+package com.p2p.app;
+
+import java.nio.ByteBuffer;
+
+import static org.bytedeco.ffmpeg.global.avcodec.*;
+import static org.bytedeco.ffmpeg.global.avutil.*;
+import static org.bytedeco.ffmpeg.global.swscale.*;
+
+import org.bytedeco.ffmpeg.avcodec.AVCodec;
+import org.bytedeco.ffmpeg.avcodec.AVCodecContext;
+import org.bytedeco.ffmpeg.avcodec.AVPacket;
+import org.bytedeco.ffmpeg.avutil.AVDictionary;
+import org.bytedeco.ffmpeg.avutil.AVFrame;
+import org.bytedeco.ffmpeg.swscale.SwsContext;
+import org.bytedeco.javacpp.BytePointer;
+import org.bytedeco.javacpp.DoublePointer;
+import org.bytedeco.javacpp.IntPointer;
+import org.bytedeco.javacpp.PointerPointer;
+import org.bytedeco.opencv.opencv_core.Mat;
+import org.opencv.core.CvType;
+
+/**
+ * FFmpeg H.264 decoder configured for one-in / one-out decoding (low delay, single thread),
+ * converting each picture to a reused BGR Mat. Access units are fed to FFmpeg straight from the
+ * receive buffers, using their padding for FFmpeg's zeroed overread area.
+ */
+public class H264VideoDecoder implements VideoDecoder {
+    private final AVCodecContext context;
+    private final AVFrame frame = av_frame_alloc();
+    private final AVPacket packet = av_packet_alloc();
+    private final ByteBufferMat[] views = new ByteBufferMat[Constants.VIDEO_DECODE_BUFFERS];
+    private final Mat picture = new Mat();
+    private SwsContext scaler;
+    private final PointerPointer<?> dstData = new PointerPointer<>(1);
+    private final IntPointer dstStride = new IntPointer(1);
+
+    public H264VideoDecoder() {
+        AVCodec codec = avcodec_find_decoder(AV_CODEC_ID_H264);
+        if (codec == null) {
+            throw new IllegalStateException("No H.264 decoder in this FFmpeg build");
+        }
+        context = avcodec_alloc_context3(codec);
+        context.flags(context.flags() | AV_CODEC_FLAG_LOW_DELAY);
+        context.thread_count(1); // frame threading would add a frame of delay per thread
+        if (avcodec_open2(context, codec, (AVDictionary) null) < 0) {
+            throw new IllegalStateException("Could not open H.264 decoder");
+        }
+    }
+
+    @Override
+    public Mat decode(ByteBuffer data, int length) {
+        if (length + AV_INPUT_BUFFER_PADDING_SIZE > data.capacity()) {
+            return null;
+        }
+        for (int i = 0; i < AV_INPUT_BUFFER_PADDING_SIZE; i++) {
+            data.put(length + i, (byte) 0); // FFmpeg requires zeroed padding after the data
+        }
+        BytePointer input = ByteBufferMat.lookup(views, data).pointer;
+        packet.data(input.position(0));
+        packet.size(length);
+        if (avcodec_send_packet(context, packet) < 0) {
+            return null;
+        }
+        boolean got = false;
+        while (avcodec_receive_frame(context, frame) == 0) {
+            toBgr();
+            got = true;
+        }
+        return got ? picture : null;
+    }
+
+    private void toBgr() {
+        int w = frame.width();
+        int h = frame.height();
+        picture.create(h, w, CvType.CV_8UC3);
+        scaler = sws_getCachedContext(scaler, w, h, frame.format(), w, h, AV_PIX_FMT_BGR24,
+                SWS_FAST_BILINEAR, null, null, (DoublePointer) null);
+        dstData.put(0, picture.data());
+        dstStride.put(0, (int) picture.step());
+        sws_scale(scaler, frame.data(), frame.linesize(), 0, h, dstData, dstStride);
+    }
+
+    @Override
+    public void close() {
+        avcodec_free_context(context);
+        av_frame_free(frame);
+        av_packet_free(packet);
+        if (scaler != null) {
+            sws_freeContext(scaler);
+        }
+        picture.release();
+        for (ByteBufferMat view : views) {
+            if (view != null) {
+                view.release();
+            }
+        }
+    }
+}
@@ -0,0 +1,167 @@
+package com.p2p.app;
+
+import java.nio.ByteBuffer;
+
+import static org.bytedeco.ffmpeg.global.avcodec.*;
+import static org.bytedeco.ffmpeg.global.avutil.*;
+import static org.bytedeco.ffmpeg.global.swscale.*;
+
+import org.bytedeco.ffmpeg.avcodec.AVCodec;
+import org.bytedeco.ffmpeg.avcodec.AVCodecContext;
+import org.bytedeco.ffmpeg.avcodec.AVPacket;
+import org.bytedeco.ffmpeg.avutil.AVDictionary;
+import org.bytedeco.ffmpeg.avutil.AVFrame;
+import org.bytedeco.ffmpeg.swscale.SwsContext;
+import org.bytedeco.javacpp.BytePointer;
+import org.bytedeco.javacpp.DoublePointer;
+import org.bytedeco.javacpp.IntPointer;
+import org.bytedeco.javacpp.Pointer;
+import org.bytedeco.javacpp.PointerPointer;
+import org.bytedeco.opencv.opencv_core.Mat;
+
+/**
+ * Low-latency H.264 through the FFmpeg bundled with javacv: no B-frames, one access unit out for
+ * every frame in, a keyframe every VIDEO_KEYFRAME_INTERVAL_S and whenever the receiver asks.
+ * Uses libx264 (ultrafast / zerolatency) when the FFmpeg build has it, otherwise libopenh264.
+ * The encoder is reopened when the rate level changes resolution, bitrate or frame rate (the time
+ * base and GOP length follow the frame rate); the first frame after that is always a keyframe.
+ */
+public class H264VideoEncoder implements VideoEncoder {
+    private AVCodecContext context;
+    private AVFrame frame;
+    private AVPacket packet;
+    private SwsContext scaler;
+    private final PointerPointer<?> srcData = new PointerPointer<>(1);
+    private final IntPointer srcStride = new IntPointer(1);
+    private int width;
+    private int height;
+    private int bitrateKbps;
+    private int frameRate;
+    private long pts;
+    private byte lastFlags;
+    private ByteBuffer target;
+    private BytePointer output;
+
+    @Override
+    public int encode(Mat bgr, RateController.Level level, boolean forceKeyframe, ByteBuffer out) {
+        if (target != out) {
+            target = out;
+            output = new BytePointer(out);
+        }
+        int w = bgr.cols() & ~1; // 4:2:0 needs even dimensions
+        int h = bgr.rows() & ~1;
+        int kbps = Math.max(Constants.VIDEO_MIN_KBPS, level.nominalKbps / Constants.VIDEO_H264_BITRATE_DIVISOR);
+        if (context == null || w != width || h != height || kbps != bitrateKbps
+                || level.frameRate != frameRate) {
+            open(w, h, kbps, level.frameRate);
+        }
+
+        av_frame_make_writable(frame);
+        scaler = sws_getCachedContext(scaler, w, h, AV_PIX_FMT_BGR24, w, h, AV_PIX_FMT_YUV420P,
+                SWS_FAST_BILINEAR, null, null, (DoublePointer) null);
+        srcData.put(0, bgr.data());
+        srcStride.put(0, (int) bgr.step());
+        sws_scale(scaler, srcData, srcStride, 0, h, frame.data(), frame.linesize());
+        frame.pts(pts++);
+        frame.pict_type(forceKeyframe ? AV_PICTURE_TYPE_I : AV_PICTURE_TYPE_NONE);
+
+        if (avcodec_send_frame(context, frame) < 0) {
+            System.err.println("H264VideoEncoder: Encoder rejected frame");
+            return 0;
+        }
+        int length = 0;
+        boolean keyframe = false;
+        while (avcodec_receive_packet(context, packet) == 0) {
+            int size = packet.size();
+            if (length + size <= out.capacity()) {
+                Pointer.memcpy(output.position(length), packet.data(), size);
+                length += size;
+            } else {
+                System.out.println("H264VideoEncoder: Frame too large: " + (length + size) + " bytes");
+                length = 0;
+            }
+            keyframe |= (packet.flags() & AV_PKT_FLAG_KEY) != 0;
+            av_packet_unref(packet);
+        }
+        lastFlags = (byte) (VideoPacket.FLAG_CODEC_H264 | (keyframe ? VideoPacket.FLAG_KEYFRAME : 0));
+        return length;
+    }
+
+    @Override
+    public byte frameFlags() {
+        return lastFlags;
+    }
+
+    private void open(int w, int h, int kbps, int fps) {
+        close();
+        AVCodec codec = avcodec_find_encoder_by_name("libx264");
+        boolean x264 = codec != null;
+        if (codec == null) {
+            codec = avcodec_find_encoder_by_name("libopenh264");
+        }
+        if (codec == null) {
+            throw new IllegalStateException("No H.264 encoder in this FFmpeg build");
+        }
+
+        context = avcodec_alloc_context3(codec);
+        context.width(w);
+        context.height(h);
+        context.pix_fmt(AV_PIX_FMT_YUV420P);
+        context.time_base(av_make_q(1, fps));
+        context.framerate(av_make_q(fps, 1));
+        context.gop_size(fps * Constants.VIDEO_KEYFRAME_INTERVAL_S);
+        context.max_b_frames(0);
+        context.bit_rate(kbps * 1000L);
+        context.flags(context.flags() | AV_CODEC_FLAG_LOW_DELAY);
+
+        AVDictionary options = new AVDictionary(null);
+        if (x264) {
+            av_dict_set(options, "preset", "ultrafast", 0);
+            av_dict_set(options, "tune", "zerolatency", 0);
+            av_dict_set(options, "forced-idr", "1", 0); // a requested keyframe must be a real entry point
+        } else {
+            av_dict_set(options, "rc_mode", "bitrate", 0);
+            av_dict_set(options, "allow_skip_frames", "0", 0);
+        }
+        int ret = avcodec_open2(context, codec, options);
+        av_dict_free(options);
+        if (ret < 0) {
+            close();
+            throw new IllegalStateException("Could not open " + codec.name().getString() + " (error " + ret + ")");
+        }
+
+        frame = av_frame_alloc();
+        frame.format(AV_PIX_FMT_YUV420P);
+        frame.width(w);
+        frame.height(h);
+        av_frame_get_buffer(frame, 32);
+        packet = av_packet_alloc();
+
+        width = w;
+        height = h;
+        bitrateKbps = kbps;
+        frameRate = fps;
+        pts = 0;
+        PerformanceLogger.logInfo("H264", codec.name().getString() + " " + w + "x" + h + "@" + fps + " " + kbps + " kbps");
+    }
+
+    @Override
+    public void close() {
+        if (context != null) {
+            avcodec_free_context(context);
+            context = null;
+        }
+        if (frame != null) {
+            av_frame_free(frame);
+            frame = null;
+        }
+        if (packet != null) {
+            av_packet_free(packet);
+            packet = null;
+        }
+        if (scaler != null) {
+            sws_freeContext(scaler);
+            scaler = null;
+        }
+    }
+}
@@ -0,0 +1,142 @@
+package com.p2p.app;
+
+/**
+ * IMA ADPCM, 4 bits per sample: 64 kbit/s at 16 kHz instead of 256. Each frame is one block in
+ * the layout WAV files use for mono IMA ADPCM: the first sample verbatim (16-bit little-endian),
+ * the step index and a reserved byte, then the remaining samples as nibbles, low nibble first.
+ * Frames hold an even number of samples (any whole number of milliseconds at 16 kHz), so the
+ * last nibble is padding and the length alone gives the sample count.
+ * The block header restarts the decoder, so frames decode independently; the encoder carries its
+ * step index over from the previous frame so the quantiser does not have to re-adapt each time.
+ */
+public class ImaAdpcmAudioCodec implements AudioCodec {
+    private static final int BLOCK_HEADER = 4;
+
+    private static final int[] INDEX_TABLE = {
+        -1, -1, -1, -1, 2, 4, 6, 8,
+        -1, -1, -1, -1, 2, 4, 6, 8
+    };
+
+    private static final int[] STEP_TABLE = {
+        7, 8, 9, 10, 11, 12, 13, 14, 16, 17, 19, 21, 23, 25, 28, 31, 34, 37, 41, 45,
+        50, 55, 60, 66, 73, 80, 88, 97, 107, 118, 130, 143, 157, 173, 190, 209, 230,
+        253, 279, 307, 337, 371, 408, 449, 494, 544, 598, 658, 724, 796, 876, 963,
+        1060, 1166, 1282, 1411, 1552, 1707, 1878, 2066, 2272, 2499, 2749, 3024, 3327,
+        3660, 4026, 4428, 4871, 5358, 5894, 6484, 7132, 7845, 8630, 9493, 10442, 11487,
+        12635, 13899, 15289, 16818, 18500, 20350, 22385, 24623, 27086, 29794, 32767
+    };
+
+    private int encoderIndex = 0;
+
+    @Override
+    public byte id() {
+        return ID_IMA_ADPCM;
+    }
+
+    @Override
+    public int maxEncodedLength(int pcmLength) {
+        int samples = pcmLength / 4 * 2;
+        return samples == 0 ? 0 : BLOCK_HEADER + samples / 2;
+    }
+
+    @Override
+    public int decodedLength(int encodedLength) {
+        return encodedLength <= BLOCK_HEADER ? -1 : 4 * (encodedLength - BLOCK_HEADER);
+    }
+
+    @Override
+    public int encode(byte[] pcm, int pcmOffset, int pcmLength, byte[] out, int outOffset) {
+        int samples = pcmLength / 4 * 2; // even
+        if (samples == 0) {
+            return 0;
+        }
+        int predictor = sample(pcm, pcmOffset);
+        int index = encoderIndex;
+        out[outOffset] = (byte) predictor;
+        out[outOffset + 1] = (byte) (predictor >> 8);
+        out[outOffset + 2] = (byte) index;
+        out[outOffset + 3] = 0;
+
+        int o = outOffset + BLOCK_HEADER;
+        for (int i = 1; i < samples; i++) {
+            int step = STEP_TABLE[index];
+            int diff = sample(pcm, pcmOffset + 2 * i) - predictor;
+            int code = 0;
+            if (diff < 0) {
+                code = 8;
+                diff = -diff;
+            }
+            // Quantise to three magnitude bits, accumulating the decoder's reconstruction as we go
+            int delta = step >> 3;
+            if (diff >= step) {
+                code |= 4;
+                diff -= step;
+                delta += step;
+            }
+            step >>= 1;
+            if (diff >= step) {
+                code |= 2;
+                diff -= step;
+                delta += step;
+            }
+            step >>= 1;
+            if (diff >= step) {
+                code |= 1;
+                delta += step;
+            }
+            predictor = clamp((code & 8) != 0 ? predictor - delta : predictor + delta);
+            index = nextIndex(index, code);
+
+            if ((i & 1) == 1) {
+                out[o] = (byte) code; // the last one leaves its high nibble zero
+            } else {
+                out[o++] |= (byte) (code << 4);
+            }
+        }
+        encoderIndex = index;
+        return BLOCK_HEADER + samples / 2;
+    }
+
+    @Override
+    public int decode(byte[] in, int offset, int length, byte[] pcm, int pcmOffset) {
+        int predictor = (short) ((in[offset + 1] << 8) | (in[offset] & 0xFF));
+        int index = Math.min(STEP_TABLE.length - 1, in[offset + 2] & 0xFF);
+        putSample(pcm, pcmOffset, predictor);
+        int p = pcmOffset + 2;
+        int end = pcmOffset + decodedLength(length);
+        for (int i = offset + BLOCK_HEADER; p < end; i++) {
+            int b = in[i];
+            for (int shift = 0; shift <= 4 && p < end; shift += 4) {
+                int code = (b >> shift) & 0x0F;
+                int step = STEP_TABLE[index];
+                int delta = step >> 3;
+                if ((code & 4) != 0) delta += step;
+                if ((code & 2) != 0) delta += step >> 1;
+                if ((code & 1) != 0) delta += step >> 2;
+                predictor = clamp((code & 8) != 0 ? predictor - delta : predictor + delta);
+                index = nextIndex(index, code);
+                putSample(pcm, p, predictor);
+                p += 2;
+            }
+        }
+        return p - pcmOffset;
+    }
+
+    private static int nextIndex(int index, int code) {
+        index += INDEX_TABLE[code];
+        return index < 0 ? 0 : Math.min(index, STEP_TABLE.length - 1);
+    }
+
+    private static int clamp(int value) {
+        return value > Short.MAX_VALUE ? Short.MAX_VALUE : Math.max(value, Short.MIN_VALUE);
+    }
+
+    private static int sample(byte[] data, int offset) {
+        return (short) ((data[offset + 1] << 8) | (data[offset] & 0xFF));
+    }
+
+    private static void putSample(byte[] data, int offset, int value) {
+        data[offset] = (byte) value;
+        data[offset + 1] = (byte) (value >> 8);
+    }
+}
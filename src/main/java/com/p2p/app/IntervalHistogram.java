@@ -0,0 +1,48 @@
+package com.p2p.app;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Lock-free histogram of durations with 0.1 ms buckets up to {@link #MAX_MILLIS}; longer
+ * samples land in the last bucket. Recorded from a pipeline thread, read and reset by the
+ * periodic stats report.
+ */
+public class IntervalHistogram {
+    public static final int MAX_MILLIS = 500;
+    private static final long BUCKET_NANOS = 100_000;
+    private static final int BUCKETS = (int) (MAX_MILLIS * 1_000_000L / BUCKET_NANOS) + 1;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+
+    public void record(long nanos) {
+        int bucket = (int) Math.min(BUCKETS - 1, Math.max(0, nanos / BUCKET_NANOS));
+        counts.incrementAndGet(bucket);
+    }
+
+    /**
+     * Takes the current counts and clears them.
+     * @param percentiles fractions in (0, 1], ascending
+     * @return the matching durations in milliseconds (bucket upper bounds), or null if empty
+     */
+    public double[] drainPercentiles(double... percentiles) {
+        long[] snapshot = new long[BUCKETS];
+        long total = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            snapshot[i] = counts.getAndSet(i, 0);
+            total += snapshot[i];
+        }
+        if (total == 0) {
+            return null;
+        }
+        double[] result = new double[percentiles.length];
+        long seen = 0;
+        int p = 0;
+        for (int i = 0; i < BUCKETS && p < percentiles.length; i++) {
+            seen += snapshot[i];
+            while (p < percentiles.length && seen >= Math.ceil(percentiles[p] * total)) {
+                result[p++] = (i + 1) * BUCKET_NANOS / 1e6;
+            }
+        }
+        return result;
+    }
+}
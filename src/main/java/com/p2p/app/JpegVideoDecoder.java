@@ -0,0 +1,32 @@
+package com.p2p.app;
+
+import java.nio.ByteBuffer;
+
+import org.bytedeco.opencv.global.opencv_imgcodecs;
+import org.bytedeco.opencv.opencv_core.Mat;
+
+/**
+ * Decodes standalone JPEG pictures with OpenCV, reading the frame where the receive path put it
+ * and decoding into one preallocated picture that is only reallocated when the size changes.
+ */
+public class JpegVideoDecoder implements VideoDecoder {
+    private final ByteBufferMat[] views = new ByteBufferMat[Constants.VIDEO_DECODE_BUFFERS];
+    private final Mat decoded = new Mat();
+
+    @Override
+    public Mat decode(ByteBuffer data, int length) {
+        Mat encoded = ByteBufferMat.lookup(views, data).range(0, length);
+        opencv_imgcodecs.imdecode(encoded, opencv_imgcodecs.IMREAD_COLOR, decoded);
+        return decoded.empty() ? null : decoded;
+    }
+
+    @Override
+    public void close() {
+        for (ByteBufferMat view : views) {
+            if (view != null) {
+                view.release();
+            }
+        }
+        decoded.release();
+    }
+}
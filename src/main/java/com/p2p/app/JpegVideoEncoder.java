@@ -0,0 +1,50 @@
+package com.p2p.app;
+
+import java.nio.ByteBuffer;
+
+import org.bytedeco.javacpp.BytePointer;
+import org.bytedeco.javacpp.IntPointer;
+import org.bytedeco.opencv.global.opencv_imgcodecs;
+import org.bytedeco.opencv.opencv_core.Mat;
+
+/**
+ * Motion-JPEG: every frame is an independent JPEG picture, so every frame is a keyframe.
+ * imencode writes straight into the caller's direct buffer; JavaCPP only reallocates when
+ * the picture does not fit, which is detected and reported as an oversized frame.
+ */
+public class JpegVideoEncoder implements VideoEncoder {
+    private final IntPointer jpegParams = new IntPointer(Constants.IMWRITE_JPEG_QUALITY, (int) (Constants.JPEG_QUALITY * 100));
+    private final BytePointer extension = new BytePointer(".jpg");
+    private ByteBuffer target;
+    private BytePointer output;
+    private long outputAddress;
+
+    @Override
+    public int encode(Mat frame, RateController.Level level, boolean forceKeyframe, ByteBuffer out) {
+        if (target != out) {
+            target = out;
+            output = new BytePointer(out);
+            outputAddress = output.address();
+        }
+        jpegParams.put(1, level.jpegQuality);
+        output.position(0).limit(output.capacity());
+        boolean success = opencv_imgcodecs.imencode(extension, frame, output, jpegParams);
+        if (output.address() != outputAddress) {
+            System.out.println("JpegVideoEncoder: Frame too large: " + output.limit() + " bytes");
+            target = null; // rewrap the caller's buffer next time
+            return 0;
+        }
+        return success ? (int) output.limit() : 0;
+    }
+
+    @Override
+    public byte frameFlags() {
+        return VideoPacket.FLAG_KEYFRAME;
+    }
+
+    @Override
+    public void close() {
+        jpegParams.deallocate();
+        extension.deallocate();
+    }
+}
@@ -0,0 +1,64 @@
+package com.p2p.app;
+
+import org.bytedeco.opencv.opencv_core.Mat;
+
+/**
+ * Single-slot, latest-wins handoff of decoded pictures to the renderer (triple buffering).
+ * The producer fills its back Mat and swaps it into the slot; the renderer swaps the slot out
+ * into its front Mat. A picture still in the slot when the next one arrives was never shown and
+ * is reported as superseded, so a stalled renderer costs dropped frames, never added latency.
+ * Mats are reallocated only when the picture size changes.
+ */
+public class LatestFrameMailbox {
+    private Mat back = new Mat();
+    private Mat ready = new Mat();
+    private Mat front = new Mat();
+    private boolean fresh = false;
+    private final Runnable onSuperseded;
+
+    /** @param onSuperseded called, under the mailbox lock, for each picture replaced before it was taken */
+    public LatestFrameMailbox(Runnable onSuperseded) {
+        this.onSuperseded = onSuperseded;
+    }
+
+    /** Copies picture into the slot, replacing any picture not yet taken. */
+    public void publish(Mat picture) {
+        picture.copyTo(back);
+        synchronized (this) {
+            Mat swap = ready;
+            ready = back;
+            back = swap;
+            if (fresh) {
+                onSuperseded.run();
+            }
+            fresh = true;
+            notifyAll();
+        }
+    }
+
+    /**
+     * Waits up to timeoutMillis for a picture newer than the last one taken.
+     * @return a Mat owned by the mailbox and valid until the next take, or null on timeout
+     */
+    public synchronized Mat take(long timeoutMillis) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + timeoutMillis;
+        while (!fresh) {
+            long remaining = deadline - System.currentTimeMillis();
+            if (remaining <= 0) {
+                return null;
+            }
+            wait(remaining);
+        }
+        Mat swap = front;
+        front = ready;
+        ready = swap;
+        fresh = false;
+        return front;
+    }
+
+    public synchronized void close() {
+        back.release();
+        ready.release();
+        front.release();
+    }
+}
@@ -0,0 +1,79 @@
+package com.p2p.app;
+
+/**
+ * Picks which simulcast layer a receiver decodes. The target is the largest layer that fits
+ * {@link Constants#VIDEO_MAX_RECEIVE_WIDTH}, stepped down one layer per report with heavy loss
+ * and back up after VIDEO_RATE_UPGRADE_HOLD_MS of clean reports, the same thresholds the
+ * sender's rate control uses. The decoded layer only changes on a frame of the target layer that
+ * decodes on its own (JPEG, or a keyframe), so the picture never glitches during a switch.
+ * Not thread-safe: owned by the receive thread.
+ */
+public class LayerSelector {
+    private final int sizeLayer; // layer that fits the receive width
+    private int lossSteps = 0;
+    private long lossStepMillis = 0;
+    private int current = -1; // nothing decoded yet
+    private int target;
+    private boolean keyframeNeeded;
+
+    public LayerSelector() {
+        int layer = 0;
+        while (layer < VideoPacket.MAX_LAYERS - 1 && (Constants.FRAME_WIDTH >> layer) > Constants.VIDEO_MAX_RECEIVE_WIDTH) {
+            layer++;
+        }
+        sizeLayer = layer;
+    }
+
+    /**
+     * Called for every completed frame of any layer.
+     * @return true if the frame belongs to the layer being decoded
+     */
+    public boolean accept(int layer, int layerCount, byte frameFlags) {
+        target = Math.min(sizeLayer + lossSteps, layerCount - 1);
+        if (layer == current && current < layerCount) {
+            return true;
+        }
+        if (layer != target) {
+            return false;
+        }
+        boolean selfContained = (frameFlags & (VideoPacket.FLAG_CODEC_H264 | VideoPacket.FLAG_CODEC_TILES)) == 0
+                || (frameFlags & VideoPacket.FLAG_KEYFRAME) != 0;
+        if (!selfContained) {
+            keyframeNeeded = true; // keep showing the current layer until the switch can be clean
+            return false;
+        }
+        if (layerCount > 1) {
+            PerformanceLogger.logInfo("Simulcast", "Decoding layer " + target + " of " + layerCount
+                    + (current >= 0 ? " (was " + current + ")" : ""));
+        }
+        current = target;
+        keyframeNeeded = false;
+        return true;
+    }
+
+    /** True once after a target-layer frame arrived that could not start a switch. */
+    public boolean takeKeyframeNeeded() {
+        boolean needed = keyframeNeeded;
+        keyframeNeeded = false;
+        return needed;
+    }
+
+    /** Feeds the loss of one report interval, as sent back to the sender. */
+    public void onLoss(double loss, long nowMillis) {
+        if (loss > Constants.VIDEO_RATE_HIGH_LOSS) {
+            if (lossSteps < VideoPacket.MAX_LAYERS - 1) {
+                lossSteps++;
+            }
+            lossStepMillis = nowMillis;
+        } else if (loss >= Constants.VIDEO_RATE_LOW_LOSS) {
+            lossStepMillis = nowMillis;
+        } else if (lossSteps > 0 && nowMillis - lossStepMillis >= Constants.VIDEO_RATE_UPGRADE_HOLD_MS) {
+            lossSteps--;
+            lossStepMillis = nowMillis;
+        }
+    }
+
+    public int currentLayer() {
+        return current;
+    }
+}
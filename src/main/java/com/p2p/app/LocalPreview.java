@@ -0,0 +1,104 @@
+package com.p2p.app;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.bytedeco.opencv.global.opencv_imgproc;
+import org.bytedeco.opencv.opencv_core.Mat;
+import org.bytedeco.opencv.opencv_core.Size;
+
+/**
+ * Local camera preview, rendered on its own thread so a stalled window can never hold up
+ * capture or encoding. The capture thread only offers frames; at most
+ * {@link Constants#VIDEO_PREVIEW_FPS} of them per second are scaled down by
+ * {@link Constants#VIDEO_PREVIEW_SCALE} and dropped into a {@link LatestFrameMailbox}, from which
+ * the preview thread shows the newest. Pictures the window was too slow for are counted as
+ * drops of the "Local preview" stage.
+ */
+public class LocalPreview {
+    private static final long STAGE_POLL_MS = 100; // The preview thread re-checks the running flag this often
+
+    private final FrameSink sink;
+    private final StageStats stats = PerformanceLogger.stage("Local preview");
+    private final LatestFrameMailbox mailbox = new LatestFrameMailbox(() -> stats.recordDropped(1));
+    private final AtomicBoolean running = new AtomicBoolean(true);
+    private final Thread thread;
+    private final long intervalNanos;
+    private final Mat scaled = new Mat();
+    private final Size scaledSize = new Size();
+    private boolean offered = false;
+    private long nextDueNanos;
+
+    private LocalPreview(FrameSink sink, int fps) {
+        this.sink = sink;
+        this.intervalNanos = 1000000000L / fps;
+        this.thread = new Thread(this::renderLoop, "LocalPreview");
+        thread.start();
+    }
+
+    /**
+     * @param sourceGamma gamma of the captured pictures, see {@link FrameSink#forMode}
+     * @return the preview, or null if it is turned off
+     */
+    public static LocalPreview create(double sourceGamma) {
+        if (!Constants.VIDEO_PREVIEW_ENABLED || Constants.VIDEO_PREVIEW_FPS <= 0) {
+            return null;
+        }
+        return new LocalPreview(FrameSink.forMode(Constants.VIDEO_SINK, "Local Video", sourceGamma),
+                Constants.VIDEO_PREVIEW_FPS);
+    }
+
+    /**
+     * Called by the capture thread with every captured picture; never blocks on the window.
+     * Frames arriving within three quarters of a preview interval of the last shown one are skipped.
+     */
+    public void offer(Mat picture, long captureNanos) {
+        if (offered && captureNanos - nextDueNanos < 0) {
+            return;
+        }
+        offered = true;
+        nextDueNanos = captureNanos + intervalNanos - intervalNanos / 4;
+        double scale = Constants.VIDEO_PREVIEW_SCALE;
+        if (scale >= 1.0) {
+            mailbox.publish(picture);
+            return;
+        }
+        int width = Math.max(1, (int) (picture.cols() * scale));
+        int height = Math.max(1, (int) (picture.rows() * scale));
+        scaledSize.width(width).height(height);
+        opencv_imgproc.resize(picture, scaled, scaledSize, 0, 0, opencv_imgproc.INTER_AREA);
+        mailbox.publish(scaled);
+    }
+
+    private void renderLoop() {
+        while (running.get()) {
+            Mat picture;
+            try {
+                picture = mailbox.take(STAGE_POLL_MS);
+            } catch (InterruptedException e) {
+                break;
+            }
+            if (picture == null) {
+                continue;
+            }
+            try {
+                sink.show(picture);
+            } catch (Exception e) {
+                System.err.println("LocalPreview: Error during preview rendering: " + e.getMessage());
+            }
+        }
+    }
+
+    /** Stops the preview thread and frees the window and buffers; offer must not be called afterwards. */
+    public void close() {
+        running.set(false);
+        try {
+            thread.join(1000);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        sink.close();
+        mailbox.close();
+        scaled.release();
+        scaledSize.close();
+    }
+}
@@ -8,6 +8,7 @@ public class Main {
     private static VideoSendThread videoSendThread;
     private static VideoReceiveThread videoReceiveThread;
     private static AudioManager audioManager; // New production-ready audio system
+    private static final AvSyncController avSync = new AvSyncController(); // Lines up remote audio and video
     private static ControlReceiveThread controlReceiveThread;
     private static CliCommandThread cliCommandThread;
     private static ThreadPoolExecutor executorService = (ThreadPoolExecutor) Executors.newCachedThreadPool();
@@ -53,11 +54,11 @@ public class Main {
         executorService.submit(videoSendThread);
 
         // Server receives video from client (on its own receive port)
-        videoReceiveThread = new VideoReceiveThread(Constants.VIDEO_SERVER_RECEIVE_PORT);
+        videoReceiveThread = new VideoReceiveThread(Constants.VIDEO_SERVER_RECEIVE_PORT, avSync);
         executorService.submit(videoReceiveThread);
 
         // Initialize new AudioManager (no weird noises!)
-        audioManager = new AudioManager(clientIp, Constants.AUDIO_CLIENT_RECEIVE_PORT, Constants.AUDIO_SERVER_RECEIVE_PORT);
+        audioManager = new AudioManager(clientIp, Constants.AUDIO_CLIENT_RECEIVE_PORT, Constants.AUDIO_SERVER_RECEIVE_PORT, avSync);
         if (!audioManager.initialize()) {
             System.err.println("Failed to initialize audio system");
         }
@@ -77,11 +78,11 @@ public class Main {
         executorService.submit(videoSendThread);
 
         // Client receives video from server (on its own receive port)
-        videoReceiveThread = new VideoReceiveThread(Constants.VIDEO_CLIENT_RECEIVE_PORT);
+        videoReceiveThread = new VideoReceiveThread(Constants.VIDEO_CLIENT_RECEIVE_PORT, avSync);
         executorService.submit(videoReceiveThread);
 
         // Initialize AudioManager for client
-        audioManager = new AudioManager(serverIp, Constants.AUDIO_SERVER_RECEIVE_PORT, Constants.AUDIO_CLIENT_RECEIVE_PORT);
+        audioManager = new AudioManager(serverIp, Constants.AUDIO_SERVER_RECEIVE_PORT, Constants.AUDIO_CLIENT_RECEIVE_PORT, avSync);
         if (!audioManager.initialize()) {
             System.err.println("Failed to initialize audio system");
         }
@@ -0,0 +1,23 @@
+package com.p2p.app;
+
+/**
+ * The one clock both media pipelines stamp with: wall-clock milliseconds, but advanced by
+ * System.nanoTime so an NTP step or a manual clock change mid-call cannot reorder media.
+ * Senders put its low 32 bits in every audio and video header; receivers only compare those
+ * stamps with each other and with their own {@link #nowMillis()}, so the peers' clocks need not agree.
+ */
+public final class MediaClock {
+    private static final long WALL_OFFSET_MILLIS = System.currentTimeMillis() - System.nanoTime() / 1000000;
+
+    private MediaClock() {
+    }
+
+    public static long nowMillis() {
+        return toMillis(System.nanoTime());
+    }
+
+    /** Converts a System.nanoTime reading, e.g. a capture instant, to this clock. */
+    public static long toMillis(long nanoTime) {
+        return nanoTime / 1000000 + WALL_OFFSET_MILLIS;
+    }
+}
@@ -0,0 +1,133 @@
+package com.p2p.app;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Receiver side of selective retransmission: detects gaps in video sequence numbers and builds
+ * compact NACK messages for them. A missing packet is re-requested every VIDEO_NACK_RETRY_MS,
+ * at most VIDEO_MAX_RETRANSMITS times, and forgotten once it could no longer arrive in time to be
+ * played: its frame would have played the jitter buffer's playout delay after the gap was seen,
+ * and is replaced one frame interval later. A sequence number far behind the newest one, or a long
+ * silence, means the sender restarted; the window is then dropped and rebuilt from the new numbering.
+ * Not thread-safe: owned by the receive thread.
+ */
+public class NackGenerator {
+    private static final int CAPACITY = 256; // larger gaps are treated as an outage, not repaired
+
+    private final int[] missingSeq = new int[CAPACITY];
+    private final long[] firstMissedAt = new long[CAPACITY];
+    private final long[] lastNackedAt = new long[CAPACITY];
+    private final int[] nackCount = new int[CAPACITY];
+    private int size = 0;
+    private boolean started = false;
+    private int highestSeq;
+    private long lastPacketMillis;
+
+    public void onPacket(int seq, long nowMillis) {
+        if (started && (nowMillis - lastPacketMillis >= VideoPacket.RESTART_SILENCE_MS
+                || (VideoPacket.isNewer(highestSeq, seq) && highestSeq - seq >= VideoPacket.RESTART_SEQ_DISTANCE))) {
+            started = false;
+            size = 0;
+        }
+        lastPacketMillis = nowMillis;
+        if (!started) {
+            started = true;
+            highestSeq = seq;
+            return;
+        }
+        if (VideoPacket.isNewer(seq, highestSeq)) {
+            int gap = seq - highestSeq - 1;
+            if (gap >= CAPACITY) {
+                size = 0;
+            } else {
+                for (int s = highestSeq + 1; s != seq; s++) {
+                    add(s, nowMillis);
+                }
+            }
+            highestSeq = seq;
+        } else {
+            remove(seq); // late or retransmitted packet filled a hole
+        }
+    }
+
+    /**
+     * Writes a NACK for every packet that is due for a (re)request.
+     * @param playoutDelayMillis the jitter buffer's current {@link VideoJitterBuffer#playoutDelayMillis}
+     * @return message length, or 0 if nothing needs to be requested now
+     */
+    public int buildNack(ByteBuffer out, long nowMillis, int playoutDelayMillis) {
+        expire(nowMillis, playoutDelayMillis + 1000 / Constants.FRAME_RATE);
+        int entries = 0;
+        int base = 0;
+        int bitmap = 0;
+        for (int i = 0; i < size; i++) {
+            if (nowMillis - lastNackedAt[i] < Constants.VIDEO_NACK_RETRY_MS) {
+                continue;
+            }
+            int seq = missingSeq[i];
+            int offset = seq - base - 1;
+            if (entries > 0 && offset >= 0 && offset < 16) {
+                bitmap |= 1 << offset;
+            } else {
+                if (entries > 0) {
+                    VideoFeedback.writeNackEntry(out, entries - 1, base, bitmap);
+                }
+                if (entries == VideoFeedback.MAX_NACK_ENTRIES) {
+                    break;
+                }
+                base = seq;
+                bitmap = 0;
+                entries++;
+            }
+            lastNackedAt[i] = nowMillis;
+            nackCount[i]++;
+        }
+        if (entries == 0) {
+            return 0;
+        }
+        VideoFeedback.writeNackEntry(out, entries - 1, base, bitmap);
+        PerformanceLogger.logVideoNackSent();
+        return VideoFeedback.writeNackHeader(out, entries);
+    }
+
+    private void add(int seq, long now) {
+        if (size == CAPACITY) {
+            removeAt(0);
+        }
+        missingSeq[size] = seq;
+        firstMissedAt[size] = now;
+        lastNackedAt[size] = Long.MIN_VALUE / 2; // due immediately
+        nackCount[size] = 0;
+        size++;
+    }
+
+    private void remove(int seq) {
+        for (int i = 0; i < size; i++) {
+            if (missingSeq[i] == seq) {
+                removeAt(i);
+                return;
+            }
+        }
+    }
+
+    private void expire(long now, long windowMillis) {
+        int i = 0;
+        while (i < size) {
+            if (now - firstMissedAt[i] > windowMillis
+                    || nackCount[i] >= Constants.VIDEO_MAX_RETRANSMITS) {
+                removeAt(i);
+            } else {
+                i++;
+            }
+        }
+    }
+
+    private void removeAt(int index) {
+        int tail = size - index - 1;
+        System.arraycopy(missingSeq, index + 1, missingSeq, index, tail);
+        System.arraycopy(firstMissedAt, index + 1, firstMissedAt, index, tail);
+        System.arraycopy(lastNackedAt, index + 1, lastNackedAt, index, tail);
+        System.arraycopy(nackCount, index + 1, nackCount, index, tail);
+        size--;
+    }
+}
@@ -0,0 +1,17 @@
+package com.p2p.app;
+
+import org.bytedeco.opencv.opencv_core.Mat;
+
+/**
+ * Discards every picture; for throughput runs without a display.
+ */
+public class NullFrameSink implements FrameSink {
+
+    @Override
+    public void show(Mat frame) {
+    }
+
+    @Override
+    public void close() {
+    }
+}
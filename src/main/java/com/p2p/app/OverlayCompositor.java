@@ -0,0 +1,179 @@
+package com.p2p.app;
+
+import org.bytedeco.opencv.global.opencv_imgproc;
+import org.bytedeco.opencv.opencv_core.Mat;
+import org.bytedeco.opencv.opencv_core.Point;
+import org.bytedeco.opencv.opencv_core.Rect;
+import org.bytedeco.opencv.opencv_core.Scalar;
+import org.bytedeco.opencv.opencv_core.Size;
+import org.opencv.core.CvType;
+
+/**
+ * Draws a text overlay by blending a pre-rendered sprite into a small region of each frame.
+ * The text is rasterised (anti-aliased) once into an alpha mask, kept as float blend weights
+ * next to a solid-colour sprite; each frame then costs one {@code blendLinear} over the
+ * text's bounding box. The sprite is rebuilt only when the text changes, and its placement and
+ * the ROI headers only when the frame size or buffer does. Not thread-safe: owned by one stage.
+ */
+public class OverlayCompositor {
+    private static final int ROI_CACHE_SIZE = 4; // Frame buffers a stage cycles through (a mailbox uses three)
+
+    private final int fontFace;
+    private final double fontScale;
+    private final int thickness;
+    private final Scalar color;
+    private final int left; // text origin: x from the left edge
+    private final int bottom; // ... and baseline height above the bottom edge
+
+    private String text;
+    private boolean dirty = false;
+    private final Mat sprite = new Mat(); // solid colour, CV_8UC3
+    private final Mat spriteWeights = new Mat(); // alpha, CV_32FC1
+    private final Mat frameWeights = new Mat(); // 1 - alpha
+    private int ascent;
+    private int pad;
+
+    // Placement for the current frame size; views are null when the overlay is off the frame
+    private int placedCols = -1;
+    private int placedRows = -1;
+    private Rect frameRect;
+    private Mat spriteView;
+    private Mat spriteWeightsView;
+    private Mat frameWeightsView;
+    private final long[] roiAddresses = new long[ROI_CACHE_SIZE];
+    private final Mat[] rois = new Mat[ROI_CACHE_SIZE];
+    private int nextRoi = 0;
+
+    /**
+     * @param left   x of the text origin
+     * @param bottom distance of the text baseline above the bottom edge of the frame
+     */
+    public OverlayCompositor(int fontFace, double fontScale, int thickness, Scalar color, int left, int bottom) {
+        this.fontFace = fontFace;
+        this.fontScale = fontScale;
+        this.thickness = thickness;
+        this.color = color;
+        this.left = left;
+        this.bottom = bottom;
+    }
+
+    /** Sets the overlay text; the sprite is re-rendered on the next frame only if it differs. */
+    public void setText(String text) {
+        if (text == null ? this.text != null : !text.equals(this.text)) {
+            this.text = text;
+            dirty = true;
+        }
+    }
+
+    /** Blends the overlay into a BGR frame in place. */
+    public void apply(Mat frame) {
+        if (dirty) {
+            render();
+        }
+        if (text == null || text.isEmpty() || sprite.empty()) {
+            return;
+        }
+        if (frame.cols() != placedCols || frame.rows() != placedRows) {
+            place(frame.cols(), frame.rows());
+        }
+        if (frameRect == null) {
+            return;
+        }
+        Mat roi = roiOf(frame);
+        opencv_imgproc.blendLinear(spriteView, roi, spriteWeightsView, frameWeightsView, roi);
+    }
+
+    private void render() {
+        dirty = false;
+        releasePlacement();
+        if (text == null || text.isEmpty()) {
+            return;
+        }
+        int[] baseline = new int[1];
+        Size size = opencv_imgproc.getTextSize(text, fontFace, fontScale, thickness, baseline);
+        pad = thickness + 1; // anti-aliased strokes spill past the nominal box
+        ascent = size.height();
+        int width = size.width() + 2 * pad;
+        int height = size.height() + baseline[0] + 2 * pad;
+        size.close();
+
+        Mat mask = new Mat(height, width, CvType.CV_8UC1, new Scalar(0.0));
+        Point origin = new Point(pad, pad + ascent);
+        opencv_imgproc.putText(mask, text, origin, fontFace, fontScale, new Scalar(255.0), thickness,
+                opencv_imgproc.LINE_AA, false);
+        mask.convertTo(spriteWeights, CvType.CV_32F, 1.0 / 255.0, 0.0);
+        mask.convertTo(frameWeights, CvType.CV_32F, -1.0 / 255.0, 1.0);
+        mask.release();
+        origin.close();
+        sprite.create(height, width, CvType.CV_8UC3);
+        sprite.put(color);
+    }
+
+    /** Clips the sprite against a frame of the given size and caches the matching views. */
+    private void place(int cols, int rows) {
+        releasePlacement();
+        placedCols = cols;
+        placedRows = rows;
+        int x = left - pad;
+        int y = rows - bottom - ascent - pad;
+        int x0 = Math.max(0, x);
+        int y0 = Math.max(0, y);
+        int x1 = Math.min(cols, x + sprite.cols());
+        int y1 = Math.min(rows, y + sprite.rows());
+        if (x1 <= x0 || y1 <= y0) {
+            return;
+        }
+        frameRect = new Rect(x0, y0, x1 - x0, y1 - y0);
+        Rect spriteRect = new Rect(x0 - x, y0 - y, x1 - x0, y1 - y0);
+        spriteView = new Mat(sprite, spriteRect);
+        spriteWeightsView = new Mat(spriteWeights, spriteRect);
+        frameWeightsView = new Mat(frameWeights, spriteRect);
+        spriteRect.close();
+    }
+
+    /** ROI header over the overlay area, reused while the frame's buffer stays the same. */
+    private Mat roiOf(Mat frame) {
+        long address = frame.data().address();
+        for (int i = 0; i < ROI_CACHE_SIZE; i++) {
+            if (rois[i] != null && roiAddresses[i] == address) {
+                return rois[i];
+            }
+        }
+        int slot = nextRoi;
+        nextRoi = (nextRoi + 1) % ROI_CACHE_SIZE;
+        if (rois[slot] != null) {
+            rois[slot].release();
+        }
+        rois[slot] = new Mat(frame, frameRect);
+        roiAddresses[slot] = address;
+        return rois[slot];
+    }
+
+    private void releasePlacement() {
+        placedCols = -1;
+        placedRows = -1;
+        for (int i = 0; i < ROI_CACHE_SIZE; i++) {
+            if (rois[i] != null) {
+                rois[i].release();
+                rois[i] = null;
+            }
+        }
+        if (frameRect != null) {
+            frameRect.close();
+            frameRect = null;
+            spriteView.release();
+            spriteWeightsView.release();
+            frameWeightsView.release();
+            spriteView = null;
+            spriteWeightsView = null;
+            frameWeightsView = null;
+        }
+    }
+
+    public void close() {
+        releasePlacement();
+        sprite.release();
+        spriteWeights.release();
+        frameWeights.release();
+    }
+}
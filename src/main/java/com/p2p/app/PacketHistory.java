@@ -0,0 +1,54 @@
+package com.p2p.app;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Fixed-size ring of the most recently sent video datagrams, preallocated at startup in
+ * direct buffers so a channel can send them straight from native memory.
+ * The slot for a packet is its sequence number modulo the capacity, so lookups are O(1)
+ * and old packets are simply overwritten once the sender is a full ring ahead.
+ * Callers synchronize on the history while reading or writing entries.
+ */
+public class PacketHistory {
+
+    public static final class Entry {
+        final ByteBuffer buffer = ByteBuffer.allocateDirect(Constants.VIDEO_DATAGRAM_SIZE); // sent without a copy
+        int length;
+        int seq;
+        boolean valid;
+        long sentAtMillis;
+        long deadlineMillis; // after this the frame can no longer be played out
+        int retransmits;
+    }
+
+    private final Entry[] entries;
+    private final int mask;
+
+    public PacketHistory(int capacity) {
+        if (Integer.bitCount(capacity) != 1) {
+            throw new IllegalArgumentException("History capacity must be a power of two: " + capacity);
+        }
+        entries = new Entry[capacity];
+        for (int i = 0; i < capacity; i++) {
+            entries[i] = new Entry();
+        }
+        mask = capacity - 1;
+    }
+
+    /** Claims the slot for a packet about to be sent; the previous occupant is discarded. */
+    public Entry slotFor(int seq, long nowMillis, long deadlineMillis) {
+        Entry entry = entries[seq & mask];
+        entry.seq = seq;
+        entry.valid = true;
+        entry.sentAtMillis = nowMillis;
+        entry.deadlineMillis = deadlineMillis;
+        entry.retransmits = 0;
+        return entry;
+    }
+
+    /** @return the entry for seq, or null if it has already been overwritten */
+    public Entry find(int seq) {
+        Entry entry = entries[seq & mask];
+        return entry.valid && entry.seq == seq ? entry : null;
+    }
+}
@@ -0,0 +1,212 @@
+package com.p2p.app;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.Consumer;
+
+import org.bytedeco.opencv.global.opencv_imgproc;
+import org.bytedeco.opencv.opencv_core.Mat;
+import org.bytedeco.opencv.opencv_core.Size;
+
+/**
+ * Encoder stage that spreads whole frames over a pool of workers, each with its own encoder,
+ * scaling Mat and output buffer, and emits the results strictly in submission order.
+ * Frame-level parallelism needs frames that encode independently, so only the JPEG codec gets
+ * more than one worker; H.264 and tile updates depend on the previous frame and stay serial.
+ * Whichever worker finishes the oldest outstanding frame emits it and any later frames that are
+ * already done, so no extra emitter thread or copy is needed.
+ *
+ * For simulcast a job also builds a downscale pyramid from the frame (pyrDown halves each side)
+ * and encodes every layer with its own encoder, at a rate level derived from the current one.
+ * Layers of a frame are emitted together, full resolution first.
+ */
+public class ParallelFrameEncoder {
+
+    /** Receives encoded frames in capture order, on a worker thread, one call at a time. */
+    public interface Sink {
+        void onEncoded(int layer, ByteBuffer data, int length, byte frameFlags, long captureNanos);
+    }
+
+    private final class Job implements Runnable {
+        final VideoEncoder[] encoders = new VideoEncoder[layers];
+        final ByteBuffer[] outputs = new ByteBuffer[layers];
+        final Mat[] pyramid = new Mat[layers]; // pyramid[0] is only used when the level scales the frame
+        final RateController.Level[] layerLevels = new RateController.Level[layers];
+        final int[] lengths = new int[layers];
+        final byte[] frameFlags = new byte[layers];
+        final Size scaledSize = new Size();
+        RateController.Level scaledLevel;
+        CapturedFrame frame;
+        RateController.Level level;
+        boolean forceKeyframe;
+        volatile boolean done;
+
+        Job(String codec) {
+            for (int i = 0; i < layers; i++) {
+                encoders[i] = VideoEncoder.forMode(codec);
+                outputs[i] = ByteBuffer.allocateDirect(Constants.MAX_VIDEO_FRAME_SIZE);
+                pyramid[i] = new Mat();
+            }
+        }
+
+        @Override
+        public void run() {
+            try {
+                if (level != scaledLevel) {
+                    scaledLevel = level;
+                    scaledSize.width(level.width).height(level.height);
+                    layerLevels[0] = level;
+                    for (int i = 1; i < layers; i++) {
+                        layerLevels[i] = level.downscaled(i);
+                    }
+                }
+                Mat source = frame.mat;
+                if (level.width != source.cols() || level.height != source.rows()) {
+                    opencv_imgproc.resize(frame.mat, pyramid[0], scaledSize, 0, 0, opencv_imgproc.INTER_AREA);
+                    source = pyramid[0];
+                }
+                for (int i = 0; i < layers; i++) {
+                    if (i > 0) {
+                        opencv_imgproc.pyrDown(source, pyramid[i]);
+                        source = pyramid[i];
+                    }
+                    lengths[i] = encoders[i].encode(source, layerLevels[i], forceKeyframe, outputs[i]);
+                    frameFlags[i] = encoders[i].frameFlags();
+                }
+            } catch (Exception e) {
+                System.err.println("ParallelFrameEncoder: Encoding error: " + e.getMessage());
+                Arrays.fill(lengths, 0);
+            }
+            done = true;
+            emitReady();
+        }
+    }
+
+    private final int layers;
+    private final Job[] jobs;
+    private final ArrayBlockingQueue<Job> idle;
+    private final AtomicReferenceArray<Job> inFlight; // by sequence % jobs; at most jobs outstanding
+    private final ExecutorService workers;
+    private final Sink sink;
+    private final Consumer<CapturedFrame> frameDone;
+    private final StageStats stats = PerformanceLogger.stage("Encoder");
+    private Job reserved; // submitting thread only
+    private long nextSequence = 0; // submitting thread only
+    private long nextEmit = 0; // guarded by this
+
+    /**
+     * @param workers   encoder threads; forced to 1 for codecs that are not frame-independent
+     * @param layers    simulcast layers per frame, 1 to {@link VideoPacket#MAX_LAYERS}
+     * @param frameDone called with each submitted frame once it has been encoded and emitted
+     */
+    public ParallelFrameEncoder(String codec, int workers, int layers, Sink sink, Consumer<CapturedFrame> frameDone) {
+        this.layers = Math.max(1, Math.min(VideoPacket.MAX_LAYERS, layers));
+        int count = isFrameIndependent(codec) ? Math.max(1, workers) : 1;
+        this.jobs = new Job[count];
+        this.idle = new ArrayBlockingQueue<>(count);
+        this.inFlight = new AtomicReferenceArray<>(count);
+        for (int i = 0; i < count; i++) {
+            jobs[i] = new Job(codec);
+            idle.add(jobs[i]);
+        }
+        AtomicInteger threadIndex = new AtomicInteger();
+        this.workers = Executors.newFixedThreadPool(count, r -> {
+            Thread t = new Thread(r, "VideoEncode-" + threadIndex.getAndIncrement());
+            t.setPriority(Thread.MAX_PRIORITY - 1);
+            return t;
+        });
+        this.sink = sink;
+        this.frameDone = frameDone;
+    }
+
+    public static boolean isFrameIndependent(String codec) {
+        return !codec.equalsIgnoreCase("h264") && !codec.equalsIgnoreCase("tiles");
+    }
+
+    public int workerCount() {
+        return jobs.length;
+    }
+
+    public int layerCount() {
+        return layers;
+    }
+
+    /**
+     * Waits until a worker is free and holds it for the next {@link #submit}, so the caller can
+     * pick the frame to encode only once it can start at once. Must be called from the submitting thread.
+     */
+    public void reserveWorker() throws InterruptedException {
+        if (reserved == null) {
+            long start = System.nanoTime();
+            reserved = idle.take();
+            stats.recordWait(System.nanoTime() - start);
+        }
+    }
+
+    /**
+     * Hands a frame to the reserved or next free worker, waiting while every worker is busy.
+     * Must be called from a single thread. The frame is passed to frameDone after emission.
+     */
+    public void submit(CapturedFrame frame, RateController.Level level, boolean forceKeyframe) throws InterruptedException {
+        reserveWorker();
+        Job job = reserved;
+        reserved = null;
+        stats.recordDepth(jobs.length - idle.size());
+        job.frame = frame;
+        job.level = level;
+        job.forceKeyframe = forceKeyframe;
+        job.done = false;
+        inFlight.set((int) (nextSequence++ % jobs.length), job);
+        workers.execute(job);
+    }
+
+    private synchronized void emitReady() {
+        while (true) {
+            int slot = (int) (nextEmit % jobs.length);
+            Job next = inFlight.get(slot);
+            if (next == null || !next.done) {
+                return;
+            }
+            inFlight.set(slot, null);
+            for (int layer = 0; layer < layers; layer++) {
+                try {
+                    if (next.lengths[layer] > 0) {
+                        sink.onEncoded(layer, next.outputs[layer], next.lengths[layer], next.frameFlags[layer],
+                                next.frame.captureNanos);
+                    }
+                } catch (Exception e) {
+                    System.err.println("ParallelFrameEncoder: Sink error: " + e.getMessage());
+                }
+            }
+            CapturedFrame frame = next.frame;
+            next.frame = null;
+            next.done = false;
+            nextEmit++;
+            idle.add(next);
+            frameDone.accept(frame);
+        }
+    }
+
+    /** Stops the workers and frees every encoder; frames still in flight are not emitted. */
+    public void close() {
+        workers.shutdownNow();
+        try {
+            workers.awaitTermination(1000, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        for (Job job : jobs) {
+            for (int i = 0; i < layers; i++) {
+                job.encoders[i].close();
+                job.pyramid[i].release();
+            }
+            job.scaledSize.close();
+        }
+    }
+}
@@ -0,0 +1,32 @@
+package com.p2p.app;
+
+/** Uncompressed 16-bit PCM, 256 kbit/s at 16 kHz. */
+public class PcmAudioCodec implements AudioCodec {
+
+    @Override
+    public byte id() {
+        return ID_PCM;
+    }
+
+    @Override
+    public int maxEncodedLength(int pcmLength) {
+        return pcmLength;
+    }
+
+    @Override
+    public int decodedLength(int encodedLength) {
+        return encodedLength % 2 == 0 ? encodedLength : -1;
+    }
+
+    @Override
+    public int encode(byte[] pcm, int pcmOffset, int pcmLength, byte[] out, int outOffset) {
+        System.arraycopy(pcm, pcmOffset, out, outOffset, pcmLength);
+        return pcmLength;
+    }
+
+    @Override
+    public int decode(byte[] in, int offset, int length, byte[] pcm, int pcmOffset) {
+        System.arraycopy(in, offset, pcm, pcmOffset, length);
+        return length;
+    }
+}
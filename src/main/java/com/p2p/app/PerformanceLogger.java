@@ -1,6 +1,8 @@
 package com.p2p.app;
 
 import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
@@ -16,6 +18,64 @@ public class PerformanceLogger {
     private static final AtomicLong audioPacketsReceived = new AtomicLong(0);
     private static final AtomicLong videoDroppedFrames = new AtomicLong(0);
     private static final AtomicLong audioDroppedPackets = new AtomicLong(0);
+    private static final AtomicLong videoFramesIncomplete = new AtomicLong(0);
+    private static final AtomicLong videoPacketsStale = new AtomicLong(0);
+    private static final AtomicLong videoChunksRecovered = new AtomicLong(0);
+    private static final AtomicLong videoNacksSent = new AtomicLong(0);
+    private static final AtomicLong videoRetransmits = new AtomicLong(0);
+    private static final AtomicLong videoRetransmitsSuppressed = new AtomicLong(0);
+    private static final AtomicLong videoKeyframeRequests = new AtomicLong(0);
+    private static final AtomicLong videoPoolInUse = new AtomicLong(0);
+    private static final AtomicLong videoPoolPeak = new AtomicLong(0);
+    private static final AtomicLong videoPoolExhausted = new AtomicLong(0);
+    private static volatile int videoPoolCapacity = 0;
+    private static final AtomicLong videoFramesSupersededBeforeDecode = new AtomicLong(0);
+    private static final AtomicLong videoFramesSupersededBeforeRender = new AtomicLong(0);
+    private static final AtomicLong videoPacerSkippedFrames = new AtomicLong(0);
+    private static final AtomicLong videoJitterLate = new AtomicLong(0);
+    private static final AtomicLong videoJitterOutOfOrder = new AtomicLong(0);
+    private static final AtomicLong videoJitterOverflow = new AtomicLong(0);
+    private static final IntervalHistogram videoJitterHold = new IntervalHistogram();
+    private static volatile int videoJitterTargetMillis = 0;
+    private static volatile int videoJitterMillis = 0;
+    private static final AtomicLong audioJitterLate = new AtomicLong(0);
+    private static final AtomicLong audioConcealedLost = new AtomicLong(0);
+    private static final AtomicLong audioConcealedLate = new AtomicLong(0);
+    private static final AtomicLong audioJitterShrink = new AtomicLong(0);
+    private static volatile boolean audioJitterActive = false;
+    private static volatile int audioJitterTargetMillis = 0;
+    private static volatile int audioJitterMillis = 0;
+    private static volatile int audioJitterDepthMillis = 0;
+    private static final AtomicLong audioRedRecovered = new AtomicLong(0);
+    private static final AtomicLong audioSidSent = new AtomicLong(0);
+    private static final AtomicLong audioSidReceived = new AtomicLong(0);
+    private static final AtomicLong audioComfortNoiseFrames = new AtomicLong(0);
+    private static final AtomicLong audioPacketizedPackets = new AtomicLong(0);
+    private static final AtomicLong audioPacketizedBytes = new AtomicLong(0);
+    private static volatile int audioPtimeMillis = 0;
+    private static volatile boolean audioPtimeAdaptive = false;
+    private static final int UDP_IP_HEADER_BYTES = 28;
+    private static volatile boolean audioRedActive = false;
+    private static volatile int audioRedDepth = 0;
+    private static volatile double audioRedLoss = 0.0;
+    private static final AtomicLong echoCpuNanos = new AtomicLong(0);
+    private static final AtomicLong echoCpuPeakNanos = new AtomicLong(0);
+    private static final AtomicLong echoFrames = new AtomicLong(0);
+    private static final AtomicLong echoFarBlocks = new AtomicLong(0);
+    private static final AtomicLong echoDoubleTalkBlocks = new AtomicLong(0);
+    private static final AtomicLong echoResyncs = new AtomicLong(0);
+    private static volatile double echoErleDb = 0.0;
+    private static volatile boolean avSyncActive = false;
+    private static volatile int avSyncOffsetMillis = 0;
+    private static volatile int avSyncAudioDelayMillis = 0;
+    private static volatile int avSyncVideoDelayMillis = 0;
+    private static final IntervalHistogram videoCaptureIntervals = new IntervalHistogram();
+    private static final IntervalHistogram videoCaptureToSend = new IntervalHistogram();
+    private static volatile long videoTargetIntervalNanos = 0;
+    
+    private static final CopyOnWriteArrayList<StageStats> stages = new CopyOnWriteArrayList<>();
+    private static final ConcurrentHashMap<String, long[]> warningTimes = new ConcurrentHashMap<>(); // {last printed, suppressed}
+    private static final long WARNING_INTERVAL_MS = 5000; // Repeats of one warning are printed at most this often
     
     private static volatile boolean started = false;
     private static long startTime = 0;
@@ -34,14 +94,93 @@ public class PerformanceLogger {
             long aReceived = audioPacketsReceived.get();
             long vDropped = videoDroppedFrames.get();
             long aDropped = audioDroppedPackets.get();
+            long vIncomplete = videoFramesIncomplete.get();
+            long vStale = videoPacketsStale.get();
+            long vRecovered = videoChunksRecovered.get();
+            long vNacks = videoNacksSent.get();
+            long vRetransmits = videoRetransmits.get();
+            long vSuppressed = videoRetransmitsSuppressed.get();
+            long vKeyframeRequests = videoKeyframeRequests.get();
+            long vPoolInUse = videoPoolInUse.get();
+            long vPoolPeak = videoPoolPeak.getAndSet(vPoolInUse); // peak per reporting period
+            long vPoolExhausted = videoPoolExhausted.get();
+            long vSupersededDecode = videoFramesSupersededBeforeDecode.get();
+            long vSupersededRender = videoFramesSupersededBeforeRender.get();
+            long vPacerSkipped = videoPacerSkippedFrames.get();
+            double[] vInterval = videoCaptureIntervals.drainPercentiles(0.5, 0.99); // per reporting period
+            double[] vCaptureToSend = videoCaptureToSend.drainPercentiles(0.5, 0.99);
+            double[] vJitterHold = videoJitterHold.drainPercentiles(0.5, 0.99);
             
             System.out.println("=== PERFORMANCE STATS (Uptime: " + uptime + "s) ===");
             System.out.println("Video - Sent: " + vSent + " (" + (vSent/Math.max(1, uptime)) + " fps), " +
                              "Received: " + vReceived + " (" + (vReceived/Math.max(1, uptime)) + " fps), " +
-                             "Dropped: " + vDropped);
+                             "Dropped: " + vDropped + ", Incomplete: " + vIncomplete + ", Stale packets: " + vStale +
+                             ", FEC recovered chunks: " + vRecovered);
+            System.out.println("Video NACK - Sent: " + vNacks + ", Retransmitted: " + vRetransmits +
+                             ", Suppressed (too late): " + vSuppressed +
+                             ", Keyframe requests: " + vKeyframeRequests);
+            System.out.println("Video frame pool - In use: " + vPoolInUse + "/" + videoPoolCapacity +
+                             " (peak " + vPoolPeak + "), Exhausted: " + vPoolExhausted);
+            System.out.println("Video receive pipeline - Superseded before decode: " + vSupersededDecode +
+                             ", Superseded before render: " + vSupersededRender);
+            System.out.println(String.format("Video jitter buffer - Target delay: %d ms (frame jitter %d ms), " +
+                             "Hold p50 %.1f ms, p99 %.1f ms, Discarded late: %d, Out of order: %d, Overflow: %d",
+                             videoJitterTargetMillis, videoJitterMillis, vJitterHold != null ? vJitterHold[0] : 0.0,
+                             vJitterHold != null ? vJitterHold[1] : 0.0, videoJitterLate.get(),
+                             videoJitterOutOfOrder.get(), videoJitterOverflow.get()));
+            if (vInterval != null) {
+                System.out.println(String.format("Video cadence - Capture interval p50 %.1f ms, p99 %.1f ms (target %.1f ms), " +
+                                 "Pacer skipped: %d", vInterval[0], vInterval[1], videoTargetIntervalNanos / 1e6, vPacerSkipped));
+            }
+            if (vCaptureToSend != null) {
+                System.out.println(String.format("Video latency - Capture to send p50 %.1f ms, p99 %.1f ms",
+                                 vCaptureToSend[0], vCaptureToSend[1]));
+            }
+            for (StageStats stage : stages) {
+                String line = stage.drainReport();
+                if (line != null) {
+                    System.out.println(line);
+                }
+            }
+            if (avSyncActive) {
+                System.out.println("A/V sync - Offset: " + avSyncOffsetMillis + " ms (positive: video behind audio), " +
+                                 "Added delay audio: " + avSyncAudioDelayMillis + " ms, video: " + avSyncVideoDelayMillis + " ms");
+            }
             System.out.println("Audio - Sent: " + aSent + " (" + (aSent/Math.max(1, uptime)) + " pps), " +
                              "Received: " + aReceived + " (" + (aReceived/Math.max(1, uptime)) + " pps), " +
                              "Dropped: " + aDropped);
+            if (audioJitterActive) {
+                System.out.println("Audio jitter buffer - Target delay: " + audioJitterTargetMillis + " ms (jitter " +
+                                 audioJitterMillis + " ms), Depth: " + audioJitterDepthMillis + " ms, Late dropped: " +
+                                 audioJitterLate.get() + ", Concealed frames: " + audioConcealedLost.get() + " lost, " +
+                                 audioConcealedLate.get() + " late, Skipped to shrink: " + audioJitterShrink.get());
+            }
+            if (audioRedActive || audioRedRecovered.get() > 0) {
+                System.out.println(String.format("Audio redundancy - Depth: %d (peer reports %.1f%% loss), " +
+                                 "Recovered frames: %d", audioRedDepth, audioRedLoss * 100, audioRedRecovered.get()));
+            }
+            long pPackets = audioPacketizedPackets.getAndSet(0); // per reporting period
+            long pBytes = audioPacketizedBytes.getAndSet(0) + pPackets * UDP_IP_HEADER_BYTES;
+            if (pPackets > 0) {
+                System.out.println(String.format("Audio packetization - ptime %d ms%s (adds %d ms latency), " +
+                                 "%.0f pps, %d bytes/packet on the wire, Headers: %.0f%% of audio bandwidth",
+                                 audioPtimeMillis, audioPtimeAdaptive ? " auto" : "", audioPtimeMillis, pPackets / 10.0,
+                                 pBytes / pPackets, 100.0 * pPackets * (UDP_IP_HEADER_BYTES + AudioPacket.HEADER_SIZE) / pBytes));
+            }
+            if (audioSidSent.get() > 0 || audioSidReceived.get() > 0) {
+                System.out.println("Audio DTX - Silence descriptors sent: " + audioSidSent.get() + ", received: " +
+                                 audioSidReceived.get() + ", Comfort noise played: " + audioComfortNoiseFrames.get() + " frames");
+            }
+            long eFrames = echoFrames.getAndSet(0); // per reporting period
+            long eNanos = echoCpuNanos.getAndSet(0);
+            long eFar = echoFarBlocks.getAndSet(0);
+            long eDoubleTalk = echoDoubleTalkBlocks.getAndSet(0);
+            if (eFrames > 0) {
+                System.out.println(String.format("Echo canceller - CPU avg %.1f us, peak %.1f us per frame, " +
+                                 "ERLE %.1f dB, Double talk: %.0f%% of far-end blocks, Resyncs: %d",
+                                 eNanos / 1e3 / eFrames, echoCpuPeakNanos.getAndSet(0) / 1e3, echoErleDb,
+                                 100.0 * eDoubleTalk / Math.max(1, eFar), echoResyncs.get()));
+            }
             System.out.println("Memory - Used: " + 
                 (Runtime.getRuntime().totalMemory() - Runtime.getRuntime().freeMemory()) / 1024 / 1024 + " MB");
             System.out.println("=============================================");
@@ -66,6 +205,15 @@ public class PerformanceLogger {
         audioPacketsSent.incrementAndGet();
     }
     
+    /** An audio datagram of this many bytes (UDP payload) carrying ptimeMillis of audio was sent. */
+    public static void logAudioPacketSent(int datagramBytes, int ptimeMillis, boolean adaptive) {
+        audioPacketsSent.incrementAndGet();
+        audioPacketizedPackets.incrementAndGet();
+        audioPacketizedBytes.addAndGet(datagramBytes);
+        audioPtimeMillis = ptimeMillis;
+        audioPtimeAdaptive = adaptive;
+    }
+    
     public static void logAudioPacketReceived() {
         audioPacketsReceived.incrementAndGet();
     }
@@ -78,6 +226,162 @@ public class PerformanceLogger {
         audioDroppedPackets.incrementAndGet();
     }
     
+    public static void logVideoFrameIncomplete() {
+        videoFramesIncomplete.incrementAndGet();
+    }
+    
+    public static void logVideoPacketStale() {
+        videoPacketsStale.incrementAndGet();
+    }
+    
+    public static void logVideoChunksRecovered(int count) {
+        videoChunksRecovered.addAndGet(count);
+    }
+    
+    public static void logVideoNackSent() {
+        videoNacksSent.incrementAndGet();
+    }
+    
+    public static void logVideoRetransmit() {
+        videoRetransmits.incrementAndGet();
+    }
+    
+    public static void logVideoRetransmitSuppressed() {
+        videoRetransmitsSuppressed.incrementAndGet();
+    }
+    
+    public static void logVideoKeyframeRequest() {
+        videoKeyframeRequests.incrementAndGet();
+    }
+    
+    public static void setVideoPoolCapacity(int capacity) {
+        videoPoolCapacity = capacity;
+    }
+    
+    public static void logVideoPoolOccupancy(int inUse) {
+        videoPoolInUse.set(inUse);
+        videoPoolPeak.accumulateAndGet(inUse, Math::max);
+    }
+    
+    public static void logVideoPoolExhausted() {
+        videoPoolExhausted.incrementAndGet();
+    }
+    
+    public static void logVideoFramesSupersededBeforeDecode(int count) {
+        videoFramesSupersededBeforeDecode.addAndGet(count);
+    }
+    
+    public static void logVideoFrameSupersededBeforeRender() {
+        videoFramesSupersededBeforeRender.incrementAndGet();
+    }
+    
+    public static void logVideoCaptureInterval(long intervalNanos, long targetNanos) {
+        videoCaptureIntervals.record(intervalNanos);
+        videoTargetIntervalNanos = targetNanos;
+    }
+    
+    public static void logVideoPacerSkipped(int frames) {
+        videoPacerSkippedFrames.addAndGet(frames);
+    }
+    
+    public static void logVideoCaptureToSend(long nanos) {
+        videoCaptureToSend.record(nanos);
+    }
+    
+    public static void logAvSync(int offsetMillis, int audioDelayMillis, int videoDelayMillis) {
+        avSyncOffsetMillis = offsetMillis;
+        avSyncAudioDelayMillis = audioDelayMillis;
+        avSyncVideoDelayMillis = videoDelayMillis;
+        avSyncActive = true;
+    }
+    
+    public static void logVideoJitterDelay(int targetMillis, int jitterMillis) {
+        videoJitterTargetMillis = targetMillis;
+        videoJitterMillis = jitterMillis;
+    }
+    
+    public static void logVideoJitterHold(long millis) {
+        videoJitterHold.record(millis * 1000000L);
+    }
+    
+    public static void logVideoJitterLate() {
+        videoJitterLate.incrementAndGet();
+    }
+    
+    public static void logVideoJitterOutOfOrder() {
+        videoJitterOutOfOrder.incrementAndGet();
+    }
+    
+    public static void logVideoJitterOverflow() {
+        videoJitterOverflow.incrementAndGet();
+    }
+    
+    public static void logAudioJitterDelay(int targetMillis, int jitterMillis, int depthMillis) {
+        audioJitterTargetMillis = targetMillis;
+        audioJitterMillis = jitterMillis;
+        audioJitterDepthMillis = depthMillis;
+        audioJitterActive = true;
+    }
+    
+    public static void logAudioJitterLate() {
+        audioJitterLate.incrementAndGet();
+    }
+    
+    /** A frame was concealed: lost (later frames had arrived) or late (nothing had). */
+    public static void logAudioConcealed(boolean lost) {
+        (lost ? audioConcealedLost : audioConcealedLate).incrementAndGet();
+    }
+    
+    public static void logAudioJitterShrink() {
+        audioJitterShrink.incrementAndGet();
+    }
+    
+    /** The redundancy depth the sender uses after a loss report from the peer. */
+    public static void logAudioRedundancy(int depth, double smoothedLoss) {
+        audioRedDepth = depth;
+        audioRedLoss = smoothedLoss;
+        audioRedActive = true;
+    }
+    
+    /** A missing frame was filled from a later datagram's redundant copy. */
+    public static void logAudioRedundancyRecovered() {
+        audioRedRecovered.incrementAndGet();
+    }
+    
+    public static void logAudioSidSent() {
+        audioSidSent.incrementAndGet();
+    }
+    
+    public static void logAudioSidReceived() {
+        audioSidReceived.incrementAndGet();
+    }
+    
+    public static void logAudioComfortNoise() {
+        audioComfortNoiseFrames.incrementAndGet();
+    }
+    
+    /** One capture frame through the echo canceller: its CPU time and the current smoothed ERLE. */
+    public static void logEchoCanceller(long nanos, double erleDb) {
+        echoCpuNanos.addAndGet(nanos);
+        echoCpuPeakNanos.accumulateAndGet(nanos, Math::max);
+        echoFrames.incrementAndGet();
+        echoErleDb = erleDb;
+    }
+    
+    /** One echo canceller block; only blocks with an active far end count toward double talk. */
+    public static void logEchoBlock(boolean farActive, boolean doubleTalk) {
+        if (farActive) {
+            echoFarBlocks.incrementAndGet();
+            if (doubleTalk) {
+                echoDoubleTalkBlocks.incrementAndGet();
+            }
+        }
+    }
+    
+    public static void logEchoResync() {
+        echoResyncs.incrementAndGet();
+    }
+    
     public static void logError(String component, String message, Exception e) {
         System.err.println("[ERROR] " + component + ": " + message);
         if (e != null) {
@@ -89,6 +393,36 @@ public class PerformanceLogger {
         System.err.println("[WARN] " + component + ": " + message);
     }
     
+    /** For warnings that can fire every frame: repeats within WARNING_INTERVAL_MS are only counted. */
+    public static void logWarningRateLimited(String component, String message) {
+        long[] state = warningTimes.computeIfAbsent(component + ": " + message, key -> new long[] {Long.MIN_VALUE / 2, 0});
+        long now = System.currentTimeMillis();
+        long suppressed;
+        synchronized (state) {
+            if (now - state[0] < WARNING_INTERVAL_MS) {
+                state[1]++;
+                return;
+            }
+            suppressed = state[1];
+            state[0] = now;
+            state[1] = 0;
+        }
+        System.err.println("[WARN] " + component + ": " + message
+                + (suppressed > 0 ? " (" + suppressed + " more since last report)" : ""));
+    }
+    
+    /** The stats of a named pipeline stage, created and added to the periodic report on first use. */
+    public static synchronized StageStats stage(String name) {
+        for (StageStats stage : stages) {
+            if (stage.name().equals(name)) {
+                return stage;
+            }
+        }
+        StageStats stage = new StageStats(name);
+        stages.add(stage);
+        return stage;
+    }
+    
     public static void logInfo(String component, String message) {
         System.out.println("[INFO] " + component + ": " + message);
     }
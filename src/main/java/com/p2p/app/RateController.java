@@ -0,0 +1,158 @@
+package com.p2p.app;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Adaptive bitrate control for the JPEG video stream.
+ * Receiver reports (loss, jitter, received bitrate) drive a bandwidth estimate: it backs off
+ * multiplicatively on heavy loss or rising jitter, and probes upwards slowly on a clean link,
+ * never above the configured target. The estimate then picks a step on a ladder of
+ * resolution / frame rate / JPEG quality settings, so quality degrades one notch at a time.
+ *
+ * Hysteresis: the controller steps down as soon as the current level no longer fits the estimate.
+ * It steps up only one level at a time, and only once the next level has fitted with headroom
+ * for VIDEO_RATE_UPGRADE_HOLD_MS.
+ * Reports arrive on the feedback thread; the capture and compression threads read {@link #getLevel()}.
+ */
+public class RateController {
+
+    public static final class Level {
+        public final int width;
+        public final int height;
+        public final int frameRate;
+        public final int jpegQuality; // 0-100
+        public final int nominalKbps; // rough cost, calibrated against what is actually sent
+        public final long frameIntervalNanos;
+
+        Level(int width, int height, int frameRate, int jpegQuality, int nominalKbps) {
+            this.width = width;
+            this.height = height;
+            this.frameRate = frameRate;
+            this.jpegQuality = jpegQuality;
+            this.nominalKbps = nominalKbps;
+            this.frameIntervalNanos = 1000000000L / frameRate;
+        }
+
+        /** The same settings for simulcast layer n: each side halved n times, a quarter of the bits per step. */
+        Level downscaled(int n) {
+            return new Level((width + (1 << n) - 1) >> n, (height + (1 << n) - 1) >> n, frameRate, jpegQuality,
+                    Math.max(1, nominalKbps >> (2 * n)));
+        }
+
+        @Override
+        public String toString() {
+            return width + "x" + height + "@" + frameRate + " q" + jpegQuality;
+        }
+    }
+
+    // Best first; the top level is the configured capture format
+    private static final Level[] LADDER = {
+        new Level(Constants.FRAME_WIDTH, Constants.FRAME_HEIGHT, Constants.FRAME_RATE, (int) (Constants.JPEG_QUALITY * 100), 6000),
+        new Level(Constants.FRAME_WIDTH, Constants.FRAME_HEIGHT, Constants.FRAME_RATE, 60, 4000),
+        new Level(Constants.FRAME_WIDTH, Constants.FRAME_HEIGHT, 20, 60, 2700),
+        new Level(Constants.FRAME_WIDTH * 3 / 4, Constants.FRAME_HEIGHT * 3 / 4, 20, 60, 1600),
+        new Level(Constants.FRAME_WIDTH * 3 / 4, Constants.FRAME_HEIGHT * 3 / 4, 15, 50, 1000),
+        new Level(Constants.FRAME_WIDTH / 2, Constants.FRAME_HEIGHT / 2, 15, 50, 500),
+        new Level(Constants.FRAME_WIDTH / 2, Constants.FRAME_HEIGHT / 2, 10, 40, 300),
+        new Level(Constants.FRAME_WIDTH / 4, Constants.FRAME_HEIGHT / 4, 10, 40, 100),
+    };
+
+    private static final double CALIBRATION_SMOOTHING = 0.2;
+    private static final double INCREASE_FACTOR = 1.08;
+    private static final double LOSS_BACKOFF = 0.5; // estimate *= 1 - loss * LOSS_BACKOFF
+    private static final double JITTER_BACKOFF = 0.85;
+
+    private final AtomicLong bytesSent = new AtomicLong(0);
+    private volatile Level level = LADDER[0];
+    private int levelIndex = 0;
+    private double estimateKbps = Constants.VIDEO_TARGET_KBPS;
+    private double calibration = 1.0; // measured / nominal bitrate of the current level
+    private long lastReportMillis = -1;
+    private long levelSinceMillis = 0;
+    private long upgradeFitsSinceMillis = -1;
+
+    public Level getLevel() {
+        return level;
+    }
+
+    /** Called after each encoded frame has been handed to the packetizer. */
+    public void onFrameSent(int bytes) {
+        bytesSent.addAndGet(bytes);
+    }
+
+    public synchronized void onReport(double loss, int jitterMillis, int receivedKbps, long nowMillis) {
+        long sent = bytesSent.getAndSet(0);
+        if (lastReportMillis >= 0 && nowMillis > lastReportMillis && sent > 0
+                && lastReportMillis >= levelSinceMillis) {
+            // Only calibrate over intervals spent entirely at one level
+            double sentKbps = sent * 8.0 / (nowMillis - lastReportMillis);
+            double ratio = sentKbps / level.nominalKbps;
+            calibration = CALIBRATION_SMOOTHING * ratio + (1.0 - CALIBRATION_SMOOTHING) * calibration;
+        }
+        lastReportMillis = nowMillis;
+
+        updateEstimate(loss, jitterMillis, receivedKbps);
+        chooseLevel(nowMillis);
+    }
+
+    private void updateEstimate(double loss, int jitterMillis, int receivedKbps) {
+        double before = estimateKbps;
+        if (loss > Constants.VIDEO_RATE_HIGH_LOSS) {
+            double base = receivedKbps > 0 ? Math.min(estimateKbps, receivedKbps) : estimateKbps;
+            estimateKbps = base * (1.0 - loss * LOSS_BACKOFF);
+            PerformanceLogger.logInfo("RateControl", String.format("loss %.1f%%: estimate %.0f -> %.0f kbps",
+                    loss * 100, before, estimateKbps));
+        } else if (jitterMillis > Constants.VIDEO_RATE_JITTER_LIMIT_MS) {
+            double base = receivedKbps > 0 ? Math.min(estimateKbps, receivedKbps) : estimateKbps;
+            estimateKbps = base * JITTER_BACKOFF;
+            PerformanceLogger.logInfo("RateControl", String.format("jitter %d ms: estimate %.0f -> %.0f kbps",
+                    jitterMillis, before, estimateKbps));
+        } else if (loss < Constants.VIDEO_RATE_LOW_LOSS) {
+            estimateKbps *= INCREASE_FACTOR;
+        }
+        // Between the two loss thresholds the estimate holds
+        estimateKbps = Math.max(Constants.VIDEO_MIN_KBPS, Math.min(Constants.VIDEO_TARGET_KBPS, estimateKbps));
+    }
+
+    private void chooseLevel(long now) {
+        int fitting = LADDER.length - 1;
+        for (int i = 0; i < LADDER.length; i++) {
+            if (predictedKbps(LADDER[i]) <= estimateKbps) {
+                fitting = i;
+                break;
+            }
+        }
+
+        if (fitting > levelIndex) {
+            switchTo(fitting, now, "down");
+            upgradeFitsSinceMillis = -1;
+            return;
+        }
+        if (levelIndex == 0) {
+            return;
+        }
+        boolean upgradeFits = predictedKbps(LADDER[levelIndex - 1]) * Constants.VIDEO_RATE_UP_HEADROOM <= estimateKbps;
+        if (!upgradeFits) {
+            upgradeFitsSinceMillis = -1;
+        } else if (upgradeFitsSinceMillis < 0) {
+            upgradeFitsSinceMillis = now;
+        } else if (now - upgradeFitsSinceMillis >= Constants.VIDEO_RATE_UPGRADE_HOLD_MS
+                && now - levelSinceMillis >= Constants.VIDEO_RATE_UPGRADE_HOLD_MS) {
+            switchTo(levelIndex - 1, now, "up");
+            upgradeFitsSinceMillis = -1;
+        }
+    }
+
+    private double predictedKbps(Level l) {
+        return l.nominalKbps * calibration;
+    }
+
+    private void switchTo(int index, long now, String direction) {
+        Level old = level;
+        levelIndex = index;
+        level = LADDER[index];
+        levelSinceMillis = now;
+        PerformanceLogger.logInfo("RateControl", String.format("%s: %s -> %s (estimate %.0f kbps, predicted %.0f kbps)",
+                direction, old, level, estimateKbps, predictedKbps(level)));
+    }
+}
@@ -0,0 +1,114 @@
+package com.p2p.app;
+
+/**
+ * Tracks video packet sequence numbers on the receive side and derives the loss fraction,
+ * interarrival jitter and received bitrate for each report interval, in the style of an
+ * RTCP receiver report. A sequence number far behind the newest one, or a long silence, means the
+ * sender restarted, and counting starts again from the new numbering.
+ */
+public class ReceiveStatistics {
+    private boolean started = false;
+    private int baseSeq;
+    private int highestSeq;
+    private long highestSeqArrivalMillis;
+    private long lastPacketMillis;
+    private long received = 0;
+    private long expectedPrior = 0;
+    private long receivedPrior = 0;
+    private int intervalReceived = 0;
+
+    private boolean haveTransit = false;
+    private int lastTransit;
+    private double jitterMillis = 0.0;
+
+    private long intervalBytes = 0;
+    private long intervalStartMillis = -1;
+    private int intervalKbps = 0;
+
+    /** Counts a first transmission; retransmissions are left out so loss reflects the raw network. */
+    public void onPacket(int seq, int timestampMillis, long nowMillis) {
+        if (started && (nowMillis - lastPacketMillis >= VideoPacket.RESTART_SILENCE_MS
+                || (VideoPacket.isNewer(highestSeq, seq) && highestSeq - seq >= VideoPacket.RESTART_SEQ_DISTANCE))) {
+            started = false;
+            received = 0;
+            expectedPrior = 0;
+            receivedPrior = 0;
+            haveTransit = false; // the new stream's timestamps need not follow on from the old ones
+        }
+        lastPacketMillis = nowMillis;
+        if (!started) {
+            started = true;
+            baseSeq = seq;
+            highestSeq = seq;
+            highestSeqArrivalMillis = nowMillis;
+        } else if (VideoPacket.isNewer(seq, highestSeq)) {
+            highestSeq = seq;
+            highestSeqArrivalMillis = nowMillis;
+        }
+        received++;
+
+        // RFC 3550 interarrival jitter; clocks need not be synchronised, only differences are used
+        int transit = (int) nowMillis - timestampMillis;
+        if (haveTransit) {
+            int d = Math.abs(transit - lastTransit);
+            jitterMillis += (d - jitterMillis) / 16.0;
+        }
+        lastTransit = transit;
+        haveTransit = true;
+    }
+
+    /** Counts every datagram's size, retransmissions included, towards the received bitrate. */
+    public void onBytes(int length, long nowMillis) {
+        if (intervalStartMillis < 0) {
+            intervalStartMillis = nowMillis;
+        }
+        intervalBytes += length;
+    }
+
+    /** Loss fraction since the previous call; also closes the interval. */
+    public double closeInterval(long nowMillis) {
+        if (intervalStartMillis >= 0) {
+            long elapsed = Math.max(1, nowMillis - intervalStartMillis);
+            intervalKbps = (int) (intervalBytes * 8 / elapsed); // bits per ms == kbit/s
+            intervalBytes = 0;
+            intervalStartMillis = nowMillis;
+        }
+        if (!started) {
+            return 0.0;
+        }
+        long expected = (highestSeq - baseSeq) + 1L;
+        long expectedInterval = expected - expectedPrior;
+        long receivedInterval = received - receivedPrior;
+        expectedPrior = expected;
+        receivedPrior = received;
+        intervalReceived = (int) receivedInterval;
+
+        long lost = expectedInterval - receivedInterval;
+        if (expectedInterval <= 0 || lost <= 0) {
+            return 0.0;
+        }
+        return lost / (double) expectedInterval;
+    }
+
+    public int highestSeq() {
+        return highestSeq;
+    }
+
+    public long highestSeqArrivalMillis() {
+        return highestSeqArrivalMillis;
+    }
+
+    /** Packets counted in the interval most recently closed. */
+    public int intervalReceived() {
+        return intervalReceived;
+    }
+
+    /** Received bitrate over the interval most recently closed. */
+    public int intervalKbps() {
+        return intervalKbps;
+    }
+
+    public double jitterMillis() {
+        return jitterMillis;
+    }
+}
@@ -0,0 +1,169 @@
+package com.p2p.app;
+
+import java.util.Arrays;
+
+/**
+ * Systematic Reed-Solomon (k, m) erasure code over GF(2^8).
+ * Parity rows come from a Cauchy matrix, so any m lost data shards of a group can be rebuilt
+ * from any m received parity shards. Requires k + m &lt;= 256.
+ */
+public class ReedSolomonFecCodec implements FecCodec {
+    private static final int MAX_PARITY = 8;
+
+    // GF(2^8) with the 0x11d polynomial; MUL[(a << 8) | b] = a * b
+    private static final byte[] EXP = new byte[512];
+    private static final int[] LOG = new int[256];
+    private static final byte[] MUL = new byte[256 * 256];
+
+    static {
+        int x = 1;
+        for (int i = 0; i < 255; i++) {
+            EXP[i] = (byte) x;
+            LOG[x] = i;
+            x <<= 1;
+            if ((x & 0x100) != 0) {
+                x ^= 0x11d;
+            }
+        }
+        for (int i = 255; i < EXP.length; i++) {
+            EXP[i] = EXP[i - 255];
+        }
+        for (int a = 1; a < 256; a++) {
+            for (int b = 1; b < 256; b++) {
+                MUL[(a << 8) | b] = EXP[LOG[a] + LOG[b]];
+            }
+        }
+    }
+
+    // Scratch for the decode system; sized for the largest supported erasure count
+    private final int[][] matrix = new int[MAX_PARITY][MAX_PARITY];
+    private final int[][] inverse = new int[MAX_PARITY][MAX_PARITY];
+    private final int[] missingIndex = new int[MAX_PARITY];
+    private final int[] parityIndex = new int[MAX_PARITY];
+
+    @Override
+    public int maxParityCount() {
+        return MAX_PARITY;
+    }
+
+    @Override
+    public void encode(byte[][] data, int dataCount, byte[][] parity, int parityCount, int shardLength) {
+        for (int r = 0; r < parityCount; r++) {
+            byte[] out = parity[r];
+            Arrays.fill(out, 0, shardLength, (byte) 0);
+            for (int j = 0; j < dataCount; j++) {
+                mulAdd(out, data[j], coefficient(dataCount, r, j), shardLength);
+            }
+        }
+    }
+
+    @Override
+    public boolean decode(byte[][] data, boolean[] dataPresent, int dataCount,
+                          byte[][] parity, boolean[] parityPresent, int parityCount, int shardLength) {
+        int missing = 0;
+        for (int j = 0; j < dataCount; j++) {
+            if (!dataPresent[j]) {
+                if (missing == MAX_PARITY) return false;
+                missingIndex[missing++] = j;
+            }
+        }
+        if (missing == 0) {
+            return true;
+        }
+        int used = 0;
+        for (int r = 0; r < parityCount && used < missing; r++) {
+            if (parityPresent[r]) {
+                parityIndex[used++] = r;
+            }
+        }
+        if (used < missing) {
+            return false;
+        }
+
+        // Syndromes: strip the contribution of every received data shard from each parity shard
+        for (int a = 0; a < missing; a++) {
+            int r = parityIndex[a];
+            byte[] syndrome = parity[r];
+            for (int j = 0; j < dataCount; j++) {
+                if (dataPresent[j]) {
+                    mulAdd(syndrome, data[j], coefficient(dataCount, r, j), shardLength);
+                }
+            }
+            for (int b = 0; b < missing; b++) {
+                matrix[a][b] = coefficient(dataCount, r, missingIndex[b]);
+            }
+        }
+        if (!invert(missing)) {
+            return false;
+        }
+
+        for (int b = 0; b < missing; b++) {
+            byte[] out = data[missingIndex[b]];
+            Arrays.fill(out, 0, shardLength, (byte) 0);
+            for (int a = 0; a < missing; a++) {
+                mulAdd(out, parity[parityIndex[a]], inverse[b][a], shardLength);
+            }
+            dataPresent[missingIndex[b]] = true;
+        }
+        return true;
+    }
+
+    /** Cauchy coefficient 1 / (x_r + y_j) with x_r = k + r and y_j = j. */
+    private static int coefficient(int dataCount, int parityRow, int dataIndex) {
+        return inv((dataCount + parityRow) ^ dataIndex);
+    }
+
+    private static int inv(int a) {
+        return EXP[255 - LOG[a]] & 0xFF;
+    }
+
+    private static int mul(int a, int b) {
+        return MUL[(a << 8) | b] & 0xFF;
+    }
+
+    private static void mulAdd(byte[] out, byte[] in, int coefficient, int length) {
+        if (coefficient == 0) return;
+        if (coefficient == 1) {
+            for (int i = 0; i < length; i++) {
+                out[i] ^= in[i];
+            }
+            return;
+        }
+        int row = coefficient << 8;
+        for (int i = 0; i < length; i++) {
+            out[i] ^= MUL[row | (in[i] & 0xFF)];
+        }
+    }
+
+    /** Gauss-Jordan inversion of matrix[0..n) into inverse[0..n). */
+    private boolean invert(int n) {
+        for (int i = 0; i < n; i++) {
+            for (int j = 0; j < n; j++) {
+                inverse[i][j] = i == j ? 1 : 0;
+            }
+        }
+        for (int col = 0; col < n; col++) {
+            int pivot = col;
+            while (pivot < n && matrix[pivot][col] == 0) pivot++;
+            if (pivot == n) return false;
+            if (pivot != col) {
+                int[] t = matrix[pivot]; matrix[pivot] = matrix[col]; matrix[col] = t;
+                t = inverse[pivot]; inverse[pivot] = inverse[col]; inverse[col] = t;
+            }
+            int scale = inv(matrix[col][col]);
+            for (int j = 0; j < n; j++) {
+                matrix[col][j] = mul(matrix[col][j], scale);
+                inverse[col][j] = mul(inverse[col][j], scale);
+            }
+            for (int row = 0; row < n; row++) {
+                int factor = matrix[row][col];
+                if (row == col || factor == 0) continue;
+                for (int j = 0; j < n; j++) {
+                    matrix[row][j] ^= mul(factor, matrix[col][j]);
+                    inverse[row][j] ^= mul(factor, inverse[col][j]);
+                }
+            }
+        }
+        return true;
+    }
+}
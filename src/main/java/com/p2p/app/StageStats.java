@@ -0,0 +1,55 @@
+package com.p2p.app;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Queue depth, wait time and drops of one pipeline stage, recorded by the stage's threads and
+ * drained by the periodic stats report. Stages register themselves with
+ * {@link PerformanceLogger#stage(String)}.
+ */
+public class StageStats {
+    private final String name;
+    private final AtomicLong depthSum = new AtomicLong(0);
+    private final AtomicLong depthSamples = new AtomicLong(0);
+    private final AtomicLong depthPeak = new AtomicLong(0);
+    private final AtomicLong dropped = new AtomicLong(0);
+    private final IntervalHistogram waits = new IntervalHistogram();
+
+    StageStats(String name) {
+        this.name = name;
+    }
+
+    public String name() {
+        return name;
+    }
+
+    /** Depth seen by an item entering the stage, itself included. */
+    public void recordDepth(int depth) {
+        depthSum.addAndGet(depth);
+        depthSamples.incrementAndGet();
+        depthPeak.accumulateAndGet(depth, Math::max);
+    }
+
+    /** Time an item spent waiting before the stage started work on it. */
+    public void recordWait(long nanos) {
+        waits.record(nanos);
+    }
+
+    public void recordDropped(int count) {
+        dropped.addAndGet(count);
+    }
+
+    /** One report line for the last period, or null if nothing passed through the stage. */
+    String drainReport() {
+        long samples = depthSamples.getAndSet(0);
+        long sum = depthSum.getAndSet(0);
+        long peak = depthPeak.getAndSet(0);
+        double[] wait = waits.drainPercentiles(0.5, 0.99);
+        if (samples == 0 && wait == null) {
+            return null;
+        }
+        return String.format("Stage %s - Depth avg %.1f, peak %d, Wait p50 %.1f ms, p99 %.1f ms, Dropped: %d",
+                name, samples > 0 ? (double) sum / samples : 0.0, peak, wait != null ? wait[0] : 0.0,
+                wait != null ? wait[1] : 0.0, dropped.get());
+    }
+}
@@ -0,0 +1,106 @@
+package com.p2p.app;
+
+import org.bytedeco.javacpp.BytePointer;
+import org.bytedeco.opencv.global.opencv_imgproc;
+import org.bytedeco.opencv.opencv_core.Mat;
+import org.bytedeco.opencv.opencv_core.Point;
+import org.bytedeco.opencv.opencv_core.Scalar;
+import org.opencv.core.CvType;
+
+/**
+ * Deterministic test pattern for headless runs: a fixed gradient, a square moving right by a
+ * configurable number of pixels per frame (0 for a static scene), and the frame index drawn as
+ * a row of large black/white blocks along the top that survive JPEG and scaling.
+ * Picture n is the same on every run, so encoded sizes and checksums are reproducible.
+ * The index band: {@link #ID_BLOCKS} blocks of width / ID_BLOCKS pixels, a white marker block,
+ * 16 index bits (most significant first), and a black marker block.
+ */
+public class SyntheticFrameSource implements FrameSource {
+    public static final int ID_BLOCKS = 18;
+    private static final int ID_BITS = 16;
+
+    private final int width;
+    private final int height;
+    private final int motion;
+    private final Mat background = new Mat();
+    private final Mat frame = new Mat();
+    private final Point from = new Point();
+    private final Point to = new Point();
+    private final Scalar squareColor = new Scalar(40, 200, 240, 0);
+    private final Scalar white = new Scalar(255, 255, 255, 0);
+    private final Scalar black = new Scalar(0, 0, 0, 0);
+    private int index = 0;
+
+    public SyntheticFrameSource(int width, int height, int motion) {
+        this.width = width;
+        this.height = height;
+        this.motion = motion;
+    }
+
+    @Override
+    public void start() {
+        background.create(height, width, CvType.CV_8UC3);
+        for (int y = 0; y < height; y += 4) {
+            from.x(0).y(y);
+            to.x(width - 1).y(y + 3);
+            Scalar band = new Scalar(60 + 140.0 * y / height, 110, 190 - 140.0 * y / height, 0);
+            opencv_imgproc.rectangle(background, from, to, band, -1, opencv_imgproc.LINE_8, 0);
+            band.close();
+        }
+        frame.create(height, width, CvType.CV_8UC3);
+    }
+
+    @Override
+    public Mat grab() {
+        background.copyTo(frame);
+        int size = height / 4;
+        int travel = Math.max(1, width - size);
+        int x = (int) (((long) index * motion) % travel);
+        from.x(x).y(height / 2 - size / 2);
+        to.x(x + size - 1).y(height / 2 + size / 2 - 1);
+        opencv_imgproc.rectangle(frame, from, to, squareColor, -1, opencv_imgproc.LINE_8, 0);
+
+        int block = width / ID_BLOCKS;
+        for (int i = 0; i < ID_BLOCKS; i++) {
+            boolean set = i == 0 || (i <= ID_BITS && ((index >> (ID_BITS - i)) & 1) != 0);
+            from.x(i * block).y(0);
+            to.x((i + 1) * block - 1).y(block - 1);
+            opencv_imgproc.rectangle(frame, from, to, set ? white : black, -1, opencv_imgproc.LINE_8, 0);
+        }
+        index++;
+        return frame;
+    }
+
+    /**
+     * Reads the frame index back from a picture made by this source, at any scale.
+     * @return the index modulo 2^16, or -1 if the markers are not where they should be
+     */
+    public static int readFrameId(Mat picture) {
+        int block = picture.cols() / ID_BLOCKS;
+        if (block < 2 || picture.rows() < block || picture.channels() != 3) {
+            return -1;
+        }
+        BytePointer data = picture.data();
+        long rowOffset = (long) (block / 2) * picture.step();
+        if (!isWhite(data, rowOffset, 0, block) || isWhite(data, rowOffset, ID_BLOCKS - 1, block)) {
+            return -1;
+        }
+        int id = 0;
+        for (int i = 1; i <= ID_BITS; i++) {
+            id = (id << 1) | (isWhite(data, rowOffset, i, block) ? 1 : 0);
+        }
+        return id;
+    }
+
+    private static boolean isWhite(BytePointer data, long rowOffset, int blockIndex, int block) {
+        long offset = rowOffset + (long) (blockIndex * block + block / 2) * 3;
+        int sum = (data.get(offset) & 0xFF) + (data.get(offset + 1) & 0xFF) + (data.get(offset + 2) & 0xFF);
+        return sum > 3 * 128;
+    }
+
+    @Override
+    public void close() {
+        background.release();
+        frame.release();
+    }
+}
@@ -0,0 +1,148 @@
+package com.p2p.app;
+
+import java.nio.ByteBuffer;
+
+import org.bytedeco.opencv.global.opencv_imgcodecs;
+import org.bytedeco.opencv.opencv_core.Mat;
+import org.bytedeco.opencv.opencv_core.Rect;
+import org.bytedeco.opencv.opencv_core.Scalar;
+import org.opencv.core.CvType;
+
+/**
+ * Applies {@link TileVideoEncoder} updates to a persistent canvas. Tiles that never arrive keep
+ * their previous content until the next full refresh. The mosaic JPEG is decoded in place from
+ * the frame's buffer.
+ *
+ * Like the encoder, the canvas is padded to whole tiles and the mosaic is decoded into a view of
+ * an image with room for every tile, so each tile and mosaic cell has an ROI header made when the
+ * frame size changes and applying an update allocates nothing per tile.
+ */
+public class TileVideoDecoder implements VideoDecoder {
+    private final ByteBufferMat[] views = new ByteBufferMat[Constants.VIDEO_DECODE_BUFFERS];
+    private final Mat canvas = new Mat(); // padded to whole tiles
+    private final Mat mosaic = new Mat(); // room for every tile; updates use its top-left
+    private Mat canvasFrame; // ROI of canvas that is handed out
+    private Mat[] canvasTiles = new Mat[0]; // by row * columns + column
+    private Mat[] mosaicCells = new Mat[0]; // by cellRow * mosaicSide + cellColumn
+    private Mat[] mosaicViews = new Mat[0]; // by mosaicColumns * (mosaicSide + 1) + mosaicRows, made on first use
+    private int mosaicSide;
+    private int frameWidth = -1;
+    private int frameHeight = -1;
+    private int frameTileSize = -1;
+    private int columns;
+    private int rows;
+
+    @Override
+    public Mat decode(ByteBuffer data, int length) {
+        if (length < TileVideoEncoder.HEADER_SIZE) {
+            return null;
+        }
+        int width = data.getShort(0) & 0xFFFF;
+        int height = data.getShort(2) & 0xFFFF;
+        int tileSize = data.getShort(4) & 0xFFFF;
+        int tiles = data.getShort(6) & 0xFFFF;
+        int mosaicColumns = data.getShort(8) & 0xFFFF;
+        int jpegOffset = TileVideoEncoder.HEADER_SIZE + tiles * TileVideoEncoder.ENTRY_SIZE;
+        if (width == 0 || height == 0 || tileSize == 0 || jpegOffset > length || (tiles > 0 && mosaicColumns == 0)) {
+            return null;
+        }
+        if (frameWidth != width || frameHeight != height || frameTileSize != tileSize) {
+            int newColumns = (width + tileSize - 1) / tileSize;
+            int newRows = (height + tileSize - 1) / tileSize;
+            if (newColumns > TileVideoEncoder.MAX_TILES_PER_SIDE || newRows > TileVideoEncoder.MAX_TILES_PER_SIDE) {
+                return null;
+            }
+            allocate(width, height, tileSize, newColumns, newRows); // new size: start from black
+        }
+        if (tiles > 0) {
+            int mosaicRows = (tiles + mosaicColumns - 1) / mosaicColumns;
+            if (tiles > columns * rows || mosaicColumns > mosaicSide || mosaicRows > mosaicSide) {
+                return null;
+            }
+            if (decodeMosaic(data, jpegOffset, length - jpegOffset, mosaicColumns, mosaicRows)) {
+                for (int i = 0; i < tiles; i++) {
+                    int column = data.get(TileVideoEncoder.HEADER_SIZE + i * TileVideoEncoder.ENTRY_SIZE) & 0xFF;
+                    int row = data.get(TileVideoEncoder.HEADER_SIZE + i * TileVideoEncoder.ENTRY_SIZE + 1) & 0xFF;
+                    if (column < columns && row < rows) {
+                        mosaicCells[(i / mosaicColumns) * mosaicSide + i % mosaicColumns]
+                                .copyTo(canvasTiles[row * columns + column]);
+                    }
+                }
+            }
+        }
+        return canvasFrame;
+    }
+
+    /** Decodes into the mosaic view of the update's shape; false if the JPEG is not that shape. */
+    private boolean decodeMosaic(ByteBuffer data, int offset, int length, int mosaicColumns, int mosaicRows) {
+        if (length <= 0) {
+            return false;
+        }
+        int shape = mosaicColumns * (mosaicSide + 1) + mosaicRows;
+        if (mosaicViews[shape] == null) {
+            mosaicViews[shape] = new Mat(mosaic, new Rect(0, 0, mosaicColumns * frameTileSize, mosaicRows * frameTileSize));
+        }
+        Mat view = mosaicViews[shape];
+        long address = view.data().address();
+        Mat encoded = ByteBufferMat.lookup(views, data).range(offset, length);
+        opencv_imgcodecs.imdecode(encoded, opencv_imgcodecs.IMREAD_COLOR, view);
+        if (view.empty() || view.data().address() != address) {
+            view.release(); // imdecode reallocated: the JPEG was some other size
+            mosaicViews[shape] = null;
+            return false;
+        }
+        return true;
+    }
+
+    /** Sizes the canvas and mosaic for a new frame size and makes their ROI headers. */
+    private void allocate(int width, int height, int tileSize, int newColumns, int newRows) {
+        release();
+        columns = newColumns;
+        rows = newRows;
+        canvas.create(rows * tileSize, columns * tileSize, CvType.CV_8UC3);
+        canvas.put(new Scalar(0.0));
+        canvasFrame = new Mat(canvas, new Rect(0, 0, width, height));
+        canvasTiles = new Mat[columns * rows];
+        for (int tile = 0; tile < canvasTiles.length; tile++) {
+            canvasTiles[tile] = new Mat(canvas, new Rect((tile % columns) * tileSize, (tile / columns) * tileSize,
+                    tileSize, tileSize));
+        }
+        // A full update of n tiles is at most ceil(sqrt(n)) cells in each direction
+        mosaicSide = (int) Math.ceil(Math.sqrt(columns * rows));
+        mosaic.create(mosaicSide * tileSize, mosaicSide * tileSize, CvType.CV_8UC3);
+        mosaicCells = new Mat[mosaicSide * mosaicSide];
+        for (int i = 0; i < mosaicCells.length; i++) {
+            mosaicCells[i] = new Mat(mosaic, new Rect((i % mosaicSide) * tileSize, (i / mosaicSide) * tileSize,
+                    tileSize, tileSize));
+        }
+        mosaicViews = new Mat[(mosaicSide + 1) * (mosaicSide + 1)];
+        frameWidth = width;
+        frameHeight = height;
+        frameTileSize = tileSize;
+    }
+
+    private void release() {
+        if (canvasFrame != null) {
+            canvasFrame.release();
+        }
+        for (Mat[] headers : new Mat[][] {canvasTiles, mosaicCells, mosaicViews}) {
+            for (Mat header : headers) {
+                if (header != null) {
+                    header.release();
+                }
+            }
+        }
+    }
+
+    @Override
+    public void close() {
+        release();
+        mosaic.release();
+        canvas.release();
+        for (ByteBufferMat view : views) {
+            if (view != null) {
+                view.release();
+            }
+        }
+    }
+}
@@ -0,0 +1,243 @@
+package com.p2p.app;
+
+import java.nio.ByteBuffer;
+
+import org.bytedeco.javacpp.BytePointer;
+import org.bytedeco.javacpp.IntPointer;
+import org.bytedeco.javacpp.Pointer;
+import org.bytedeco.opencv.global.opencv_core;
+import org.bytedeco.opencv.global.opencv_imgcodecs;
+import org.bytedeco.opencv.opencv_core.Mat;
+import org.bytedeco.opencv.opencv_core.Rect;
+import org.bytedeco.opencv.opencv_core.Scalar;
+
+/**
+ * Dirty-region coding for mostly static scenes. The frame is split into VIDEO_TILE_SIZE tiles
+ * and a tile is sent only when it differs from what the receiver last got for it (mean absolute
+ * difference above VIDEO_TILE_CHANGE_THRESHOLD). Comparing against the last sent content rather
+ * than the previous frame means slow drift is eventually sent too.
+ * The dirty tiles of one update are packed side by side into a single mosaic image and encoded
+ * as one JPEG, so the JPEG headers are paid once per update rather than once per tile.
+ * A full refresh goes out every VIDEO_KEYFRAME_INTERVAL_S and on keyframe requests to heal loss.
+ * With no changes only an empty keepalive update is sent every VIDEO_TILE_KEEPALIVE_MS.
+ *
+ * Update layout, big-endian: width(2) height(2) tileSize(2) tileCount(2) mosaicColumns(2)
+ * then tileCount x [column(1) row(1)] then the mosaic JPEG. Tile i sits in mosaic cell
+ * (i % mosaicColumns, i / mosaicColumns); edge tiles smaller than tileSize use the cell's top-left.
+ * column and row are single bytes, so frames wider or taller than 256 tiles are not sent.
+ * Frames must be 8-bit BGR, the only layout the decoder's canvas holds; anything else is not sent.
+ *
+ * Frames are copied into a staging image padded to whole tiles, and every tile of it, of the
+ * reference and of the mosaic has an ROI header made when the frame size changes, so encoding
+ * allocates nothing per frame or per tile.
+ */
+public class TileVideoEncoder implements VideoEncoder {
+    public static final int HEADER_SIZE = 10;
+    public static final int ENTRY_SIZE = 2;
+    public static final int MAX_TILES_PER_SIDE = 256; // column and row are one byte each
+
+    private final IntPointer jpegParams = new IntPointer(Constants.IMWRITE_JPEG_QUALITY, (int) (Constants.JPEG_QUALITY * 100));
+    private final BytePointer extension = new BytePointer(".jpg");
+    private BytePointer mosaicOutput = new BytePointer(Constants.MAX_VIDEO_FRAME_SIZE);
+    private ByteBuffer target;
+    private BytePointer output;
+    private final Mat current = new Mat(); // the frame, padded to whole tiles
+    private final Mat reference = new Mat(); // what the receiver's canvas should hold, same padding
+    private final Mat mosaic = new Mat(); // room for every tile; updates use its top-left
+    private Mat currentFrame; // ROI of current the frame is copied into
+    private Mat[] currentTiles = new Mat[0]; // by row * columns + column
+    private Mat[] referenceTiles = new Mat[0];
+    private double[] tileSamples = new double[0]; // of the frame, not the padding, per tile
+    private Mat[] mosaicCells = new Mat[0]; // by cellRow * mosaicSide + cellColumn
+    private Mat[] mosaicViews = new Mat[0]; // by mosaicColumns * (mosaicSide + 1) + mosaicRows, made on first use
+    private int mosaicSide;
+    private int frameWidth = -1;
+    private int frameHeight = -1;
+    private int[] dirtyColumns = new int[0];
+    private int[] dirtyRows = new int[0];
+    private boolean refreshPending = true;
+    private long lastRefreshMillis = 0;
+    private long lastSendMillis = 0;
+    private byte lastFlags;
+
+    @Override
+    public int encode(Mat frame, RateController.Level level, boolean forceKeyframe, ByteBuffer out) {
+        if (frame.type() != opencv_core.CV_8UC3) {
+            PerformanceLogger.logWarningRateLimited("TileVideoEncoder", "Expected BGR frames, got type " + frame.type());
+            return 0;
+        }
+        long now = System.currentTimeMillis();
+        int width = frame.cols();
+        int height = frame.rows();
+        int tileSize = Constants.VIDEO_TILE_SIZE;
+        int columns = (width + tileSize - 1) / tileSize;
+        int rows = (height + tileSize - 1) / tileSize;
+        if (frameWidth != width || frameHeight != height) {
+            if (columns > MAX_TILES_PER_SIDE || rows > MAX_TILES_PER_SIDE) {
+                PerformanceLogger.logWarningRateLimited("TileVideoEncoder", width + "x" + height
+                        + " needs more than " + MAX_TILES_PER_SIDE + " tiles per side; raise VIDEO_TILE_SIZE");
+                return 0;
+            }
+            allocate(width, height, columns, rows);
+            refreshPending = true;
+        }
+        frame.copyTo(currentFrame);
+        if (forceKeyframe || now - lastRefreshMillis >= Constants.VIDEO_KEYFRAME_INTERVAL_S * 1000L) {
+            refreshPending = true;
+        }
+        boolean full = refreshPending;
+
+        int tiles = 0;
+        for (int row = 0; row < rows; row++) {
+            for (int column = 0; column < columns; column++) {
+                if (full || changed(row * columns + column)) {
+                    dirtyColumns[tiles] = column;
+                    dirtyRows[tiles] = row;
+                    tiles++;
+                }
+            }
+        }
+        if (tiles == 0 && now - lastSendMillis < Constants.VIDEO_TILE_KEEPALIVE_MS) {
+            return 0; // nothing changed, stay quiet
+        }
+
+        int mosaicColumns = tiles > 0 ? (int) Math.ceil(Math.sqrt(tiles)) : 0;
+        int length = HEADER_SIZE + tiles * ENTRY_SIZE;
+        if (tiles > 0) {
+            int written = encodeMosaic(tiles, columns, mosaicColumns, level, out, length);
+            if (written < 0) {
+                return 0; // tiles stay dirty and go out with the next update
+            }
+            length += written;
+            for (int i = 0; i < tiles; i++) {
+                out.put(HEADER_SIZE + i * ENTRY_SIZE, (byte) dirtyColumns[i]);
+                out.put(HEADER_SIZE + i * ENTRY_SIZE + 1, (byte) dirtyRows[i]);
+                int tile = dirtyRows[i] * columns + dirtyColumns[i];
+                currentTiles[tile].copyTo(referenceTiles[tile]);
+            }
+        }
+        out.putShort(0, (short) width);
+        out.putShort(2, (short) height);
+        out.putShort(4, (short) tileSize);
+        out.putShort(6, (short) tiles);
+        out.putShort(8, (short) mosaicColumns);
+
+        if (full) {
+            refreshPending = false;
+            lastRefreshMillis = now;
+        }
+        lastSendMillis = now;
+        lastFlags = (byte) (VideoPacket.FLAG_CODEC_TILES | (full ? VideoPacket.FLAG_KEYFRAME : 0));
+        return length;
+    }
+
+    /** Padding is zero in both images, so it adds nothing to the difference. */
+    private boolean changed(int tile) {
+        double sad = opencv_core.norm(currentTiles[tile], referenceTiles[tile], opencv_core.NORM_L1, null);
+        return sad / tileSamples[tile] > Constants.VIDEO_TILE_CHANGE_THRESHOLD;
+    }
+
+    /** Sizes the staging, reference and mosaic images for a new frame size and makes their ROI headers. */
+    private void allocate(int width, int height, int columns, int rows) {
+        release();
+        int tileSize = Constants.VIDEO_TILE_SIZE;
+        current.create(rows * tileSize, columns * tileSize, opencv_core.CV_8UC3);
+        current.put(new Scalar(0.0));
+        reference.create(rows * tileSize, columns * tileSize, opencv_core.CV_8UC3);
+        reference.put(new Scalar(0.0));
+        currentFrame = new Mat(current, new Rect(0, 0, width, height));
+        currentTiles = new Mat[columns * rows];
+        referenceTiles = new Mat[columns * rows];
+        tileSamples = new double[columns * rows];
+        for (int row = 0; row < rows; row++) {
+            for (int column = 0; column < columns; column++) {
+                int tile = row * columns + column;
+                Rect rect = new Rect(column * tileSize, row * tileSize, tileSize, tileSize);
+                currentTiles[tile] = new Mat(current, rect);
+                referenceTiles[tile] = new Mat(reference, rect);
+                tileSamples[tile] = (double) Math.min(tileSize, width - column * tileSize)
+                        * Math.min(tileSize, height - row * tileSize) * 3;
+            }
+        }
+        // A full update of n tiles is at most ceil(sqrt(n)) cells in each direction
+        mosaicSide = (int) Math.ceil(Math.sqrt(columns * rows));
+        mosaic.create(mosaicSide * tileSize, mosaicSide * tileSize, opencv_core.CV_8UC3);
+        mosaicCells = new Mat[mosaicSide * mosaicSide];
+        for (int i = 0; i < mosaicCells.length; i++) {
+            mosaicCells[i] = new Mat(mosaic, new Rect((i % mosaicSide) * tileSize, (i / mosaicSide) * tileSize,
+                    tileSize, tileSize));
+        }
+        mosaicViews = new Mat[(mosaicSide + 1) * (mosaicSide + 1)];
+        dirtyColumns = new int[columns * rows];
+        dirtyRows = new int[columns * rows];
+        frameWidth = width;
+        frameHeight = height;
+    }
+
+    private void release() {
+        if (currentFrame != null) {
+            currentFrame.release();
+        }
+        for (Mat[] headers : new Mat[][] {currentTiles, referenceTiles, mosaicCells, mosaicViews}) {
+            for (Mat header : headers) {
+                if (header != null) {
+                    header.release();
+                }
+            }
+        }
+    }
+
+    /** @return bytes of JPEG written at offset, or -1 if encoding failed or it does not fit */
+    private int encodeMosaic(int tiles, int columns, int mosaicColumns, RateController.Level level, ByteBuffer out, int offset) {
+        int tileSize = Constants.VIDEO_TILE_SIZE;
+        int mosaicRows = (tiles + mosaicColumns - 1) / mosaicColumns;
+        for (int i = 0; i < tiles; i++) {
+            Mat cell = mosaicCells[(i / mosaicColumns) * mosaicSide + i % mosaicColumns];
+            currentTiles[dirtyRows[i] * columns + dirtyColumns[i]].copyTo(cell);
+        }
+        int shape = mosaicColumns * (mosaicSide + 1) + mosaicRows;
+        if (mosaicViews[shape] == null) {
+            mosaicViews[shape] = new Mat(mosaic, new Rect(0, 0, mosaicColumns * tileSize, mosaicRows * tileSize));
+        }
+
+        jpegParams.put(1, level.jpegQuality);
+        long address = mosaicOutput.address();
+        mosaicOutput.position(0).limit(mosaicOutput.capacity());
+        boolean success = opencv_imgcodecs.imencode(extension, mosaicViews[shape], mosaicOutput, jpegParams);
+        int length = (int) mosaicOutput.limit();
+        if (mosaicOutput.address() != address) {
+            mosaicOutput = new BytePointer(Constants.MAX_VIDEO_FRAME_SIZE); // JavaCPP reallocated: too large
+            success = false;
+        }
+        if (!success) {
+            return -1;
+        }
+        if (offset + length > out.capacity()) {
+            PerformanceLogger.logWarningRateLimited("TileVideoEncoder",
+                    "Update too large: " + (offset + length) + " bytes");
+            return -1;
+        }
+        if (target != out) {
+            target = out;
+            output = new BytePointer(out);
+        }
+        Pointer.memcpy(output.position(offset), mosaicOutput.position(0), length);
+        return length;
+    }
+
+    @Override
+    public byte frameFlags() {
+        return lastFlags;
+    }
+
+    @Override
+    public void close() {
+        release();
+        current.release();
+        reference.release();
+        mosaic.release();
+        mosaicOutput.deallocate();
+        extension.deallocate();
+        jpegParams.deallocate();
+    }
+}
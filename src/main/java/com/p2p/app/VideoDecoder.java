@@ -0,0 +1,23 @@
+package com.p2p.app;
+
+import java.nio.ByteBuffer;
+
+import org.bytedeco.opencv.opencv_core.Mat;
+
+/**
+ * Receive-side counterpart of {@link VideoEncoder}. Used from {@link VideoReceiveThread}'s decode
+ * thread only; the render thread gets copies of its pictures, never the decoder's own Mat.
+ */
+public interface VideoDecoder {
+
+    /**
+     * Decodes one complete encoded frame in place.
+     * @param data direct buffer holding the frame from index 0, with
+     *             {@link FrameReassembler#FRAME_PADDING} writable bytes after it
+     * @return BGR picture owned by the decoder and valid until the next call, or null if the
+     *         frame could not be decoded
+     */
+    Mat decode(ByteBuffer data, int length);
+
+    void close();
+}
@@ -0,0 +1,41 @@
+package com.p2p.app;
+
+import java.nio.ByteBuffer;
+
+import org.bytedeco.opencv.opencv_core.Mat;
+
+/**
+ * Turns captured BGR frames into the bytes carried by {@link VideoPacketizer}.
+ * Implementations are used from a single compression thread.
+ */
+public interface VideoEncoder {
+
+    /**
+     * Encodes one frame at the settings of the current rate level.
+     * @param frame         BGR image, already scaled to the level's resolution
+     * @param forceKeyframe produce a frame that decodes on its own
+     * @param out           direct buffer that receives the encoded bytes from index 0; always the
+     *                      same buffer, so implementations may wrap it once
+     * @return encoded length, or 0 if there is nothing to send for this frame
+     */
+    int encode(Mat frame, RateController.Level level, boolean forceKeyframe, ByteBuffer out);
+
+    /** Codec and keyframe flags for the frame most recently returned by {@link #encode}. */
+    byte frameFlags();
+
+    void close();
+
+    static VideoEncoder forMode(String mode) {
+        switch (mode.toLowerCase()) {
+            case "h264":
+                return new H264VideoEncoder();
+            case "tiles":
+                return new TileVideoEncoder();
+            case "jpeg":
+                return new JpegVideoEncoder();
+            default:
+                PerformanceLogger.logWarning("Video codec", "Unknown codec '" + mode + "', using jpeg");
+                return new JpegVideoEncoder();
+        }
+    }
+}
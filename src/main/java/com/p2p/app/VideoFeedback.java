@@ -0,0 +1,112 @@
+package com.p2p.app;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Messages sent from a video receiver back to the sender's socket.
+ * Type values do not overlap {@link VideoPacket} types so both directions can share parsing code.
+ *
+ * REPORT: type(1) lossPermille(2) packetsReceived(4) highestSeq(4) holdMillis(2) jitterMillis(2) receivedKbps(4)
+ *         playoutDelayMillis(2)
+ *         holdMillis is the time between receiving highestSeq and sending the report,
+ *         which lets the sender derive the round-trip time. jitterMillis is the smoothed
+ *         interarrival jitter and receivedKbps the goodput over the report interval.
+ *         playoutDelayMillis is how long an on-time frame waits before it is decoded (jitter
+ *         buffer target plus lip-sync delay), which bounds how late a retransmission can help.
+ * NACK:   type(1) count(1) then count x [baseSeq(4) bitmap(2)]
+ *         each entry requests baseSeq plus baseSeq + 1 + i for every set bit i.
+ * KEYFRAME_REQUEST: type(1)
+ *         the receiver's inter-frame decoder lost its reference and needs a fresh keyframe.
+ */
+public final class VideoFeedback {
+    public static final byte TYPE_REPORT = 16;
+    public static final byte TYPE_NACK = 17;
+    public static final byte TYPE_KEYFRAME_REQUEST = 18;
+
+    public static final int REPORT_SIZE = 21;
+    public static final int KEYFRAME_REQUEST_SIZE = 1;
+    public static final int NACK_HEADER_SIZE = 2;
+    public static final int NACK_ENTRY_SIZE = 6;
+    public static final int MAX_NACK_ENTRIES = 8;
+    public static final int MAX_MESSAGE_SIZE = 64;
+
+    private VideoFeedback() {
+    }
+
+    public static byte type(ByteBuffer buf) {
+        return buf.get(0);
+    }
+
+    public static int writeReport(ByteBuffer buf, double lossFraction, int packetsReceived,
+                                  int highestSeq, long holdMillis, double jitterMillis, int receivedKbps,
+                                  int playoutDelayMillis) {
+        buf.put(0, TYPE_REPORT);
+        buf.putShort(1, (short) Math.round(Math.min(1.0, Math.max(0.0, lossFraction)) * 1000));
+        buf.putInt(3, packetsReceived);
+        buf.putInt(7, highestSeq);
+        buf.putShort(11, (short) Math.min(0xFFFF, Math.max(0, holdMillis)));
+        buf.putShort(13, (short) Math.min(0xFFFF, Math.round(jitterMillis)));
+        buf.putInt(15, receivedKbps);
+        buf.putShort(19, (short) Math.min(0xFFFF, Math.max(0, playoutDelayMillis)));
+        return REPORT_SIZE;
+    }
+
+    public static double reportLossFraction(ByteBuffer buf) {
+        return buf.getShort(1) / 1000.0;
+    }
+
+    public static int reportPacketsReceived(ByteBuffer buf) {
+        return buf.getInt(3);
+    }
+
+    public static int reportHighestSeq(ByteBuffer buf) {
+        return buf.getInt(7);
+    }
+
+    public static int reportHoldMillis(ByteBuffer buf) {
+        return buf.getShort(11) & 0xFFFF;
+    }
+
+    public static int reportJitterMillis(ByteBuffer buf) {
+        return buf.getShort(13) & 0xFFFF;
+    }
+
+    public static int reportReceivedKbps(ByteBuffer buf) {
+        return buf.getInt(15);
+    }
+
+    public static int reportPlayoutDelayMillis(ByteBuffer buf) {
+        return buf.getShort(19) & 0xFFFF;
+    }
+
+    public static int writeKeyframeRequest(ByteBuffer buf) {
+        buf.put(0, TYPE_KEYFRAME_REQUEST);
+        return KEYFRAME_REQUEST_SIZE;
+    }
+
+    /** Writes the NACK header once the entries are in place; returns the full message length. */
+    public static int writeNackHeader(ByteBuffer buf, int count) {
+        buf.put(0, TYPE_NACK);
+        buf.put(1, (byte) count);
+        return NACK_HEADER_SIZE + count * NACK_ENTRY_SIZE;
+    }
+
+    public static void writeNackEntry(ByteBuffer buf, int index, int baseSeq, int bitmap) {
+        int offset = NACK_HEADER_SIZE + index * NACK_ENTRY_SIZE;
+        buf.putInt(offset, baseSeq);
+        buf.putShort(offset + 4, (short) bitmap);
+    }
+
+    public static int nackCount(ByteBuffer buf, int length) {
+        int count = buf.get(1) & 0xFF;
+        return Math.min(count, (length - NACK_HEADER_SIZE) / NACK_ENTRY_SIZE);
+    }
+
+    public static int nackBaseSeq(ByteBuffer buf, int index) {
+        return buf.getInt(NACK_HEADER_SIZE + index * NACK_ENTRY_SIZE);
+    }
+
+    public static int nackBitmap(ByteBuffer buf, int index) {
+        return buf.getShort(NACK_HEADER_SIZE + index * NACK_ENTRY_SIZE + 4) & 0xFFFF;
+    }
+}
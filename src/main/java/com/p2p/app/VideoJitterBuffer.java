@@ -0,0 +1,210 @@
+package com.p2p.app;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+
+/**
+ * Holds complete encoded frames between the receive thread and the decode thread and releases
+ * them on the sender's cadence. Each frame is scheduled from its capture timestamp:
+ * playout = timestamp + base transit + target delay, where the base transit is the smallest
+ * (arrival - timestamp) seen over the last one to two {@link Constants#VIDEO_JITTER_WINDOW_MS}
+ * windows and the target delay follows the measured frame jitter (RFC 3550 style) times
+ * {@link Constants#VIDEO_JITTER_MULTIPLIER}. The target rises at once and decays slowly, and
+ * never exceeds {@link Constants#VIDEO_JITTER_MAX_MS}. Lip sync may add a further delay on top.
+ *
+ * Frames are kept in timestamp order. A frame that is not newer than the last one released, or
+ * that arrives more than the hard maximum behind the base transit, is discarded. When the decoder
+ * falls behind and several frames are due at once, a due frame that decodes on its own (JPEG, or
+ * any keyframe) supersedes the ones before it. Frames are copied into a fixed set of direct
+ * buffers; beyond {@link Constants#VIDEO_JITTER_FRAMES} pending frames the oldest is dropped.
+ */
+public class VideoJitterBuffer {
+    private static final double TARGET_DECAY = 0.02; // Per frame, when the jitter has calmed down
+    private static final long RESET_MS = 5000; // A timestamp this far back means the sender restarted
+
+    /** One encoded frame; the buffer has {@link FrameReassembler#FRAME_PADDING} spare bytes. */
+    public static final class Entry {
+        public final ByteBuffer data = ByteBuffer.allocateDirect(Constants.MAX_VIDEO_FRAME_SIZE + FrameReassembler.FRAME_PADDING);
+        public int frameId;
+        public byte frameFlags;
+        public int length;
+        public int timestamp;
+        public int syncDelayMillis; // added for lip sync
+        long arrivalMillis;
+        long playoutMillis;
+    }
+
+    private final ArrayDeque<Entry> free = new ArrayDeque<>(Constants.VIDEO_DECODE_BUFFERS);
+    private final ArrayList<Entry> pending = new ArrayList<>(Constants.VIDEO_DECODE_BUFFERS); // by timestamp
+
+    // Delay model, guarded by this
+    private boolean haveTransit = false;
+    private int lastTransit;
+    private int lastTimestamp;
+    private double jitterMillis = 0.0;
+    private int windowMin;
+    private int previousWindowMin;
+    private long windowStartMillis;
+    private double targetDelayMillis = Constants.VIDEO_JITTER_MIN_MS;
+    private boolean released = false;
+    private int lastReleasedTimestamp;
+
+    private final AvSyncController avSync;
+
+    public VideoJitterBuffer(AvSyncController avSync) {
+        this.avSync = avSync;
+        for (int i = 0; i < Constants.VIDEO_DECODE_BUFFERS; i++) {
+            free.add(new Entry());
+        }
+    }
+
+    /**
+     * Copies a frame in and schedules it. Never blocks on the decoder.
+     * @param data      frame from index 0; its position and limit are reset afterwards
+     * @param timestamp sender's capture time, low 32 bits of its {@link MediaClock}
+     */
+    public void offer(ByteBuffer data, int length, int frameId, byte frameFlags, int timestamp, long nowMillis) {
+        Entry entry;
+        long playoutMillis;
+        int syncDelayMillis;
+        synchronized (this) {
+            if (released && !VideoPacket.isNewer(timestamp, lastReleasedTimestamp)) {
+                if (lastReleasedTimestamp - timestamp < RESET_MS) {
+                    PerformanceLogger.logVideoJitterOutOfOrder();
+                    return;
+                }
+                reset();
+            }
+            int transit = (int) nowMillis - timestamp;
+            int excess = updateDelay(timestamp, transit, nowMillis);
+            if (Constants.VIDEO_JITTER_MAX_MS > 0 && excess > Constants.VIDEO_JITTER_MAX_MS) {
+                PerformanceLogger.logVideoJitterLate();
+                return;
+            }
+            syncDelayMillis = avSync.videoDelayMillis();
+            playoutMillis = nowMillis + Math.max(0, Math.round(targetDelayMillis) - excess) + syncDelayMillis;
+            entry = free.poll();
+            if (entry == null) {
+                entry = pending.remove(0); // full: give up the oldest waiting frame
+                PerformanceLogger.logVideoJitterOverflow();
+            }
+        }
+        data.limit(length).position(0);
+        entry.data.clear();
+        entry.data.put(data);
+        data.clear();
+        entry.length = length;
+        entry.frameId = frameId;
+        entry.frameFlags = frameFlags;
+        entry.timestamp = timestamp;
+        entry.arrivalMillis = nowMillis;
+        entry.playoutMillis = playoutMillis;
+        entry.syncDelayMillis = syncDelayMillis;
+
+        synchronized (this) {
+            int index = pending.size();
+            while (index > 0 && VideoPacket.isNewer(pending.get(index - 1).timestamp, timestamp)) {
+                index--;
+            }
+            pending.add(index, entry);
+            notifyAll();
+        }
+    }
+
+    /** Feeds one arrival into the jitter, base transit and target estimates; returns its delay over the base. */
+    private int updateDelay(int timestamp, int transit, long nowMillis) {
+        if (!haveTransit) {
+            haveTransit = true;
+            windowMin = transit;
+            previousWindowMin = transit;
+            windowStartMillis = nowMillis;
+        } else if (timestamp != lastTimestamp) {
+            jitterMillis += (Math.abs(transit - lastTransit) - jitterMillis) / 16.0;
+        }
+        lastTransit = transit;
+        lastTimestamp = timestamp;
+
+        if (nowMillis - windowStartMillis >= Constants.VIDEO_JITTER_WINDOW_MS) {
+            previousWindowMin = windowMin;
+            windowMin = transit;
+            windowStartMillis = nowMillis;
+        } else if (transit - windowMin < 0) {
+            windowMin = transit;
+        }
+        int baseTransit = windowMin - previousWindowMin < 0 ? windowMin : previousWindowMin;
+
+        double wanted = Math.max(Constants.VIDEO_JITTER_MIN_MS,
+                Math.min(Constants.VIDEO_JITTER_MAX_MS, jitterMillis * Constants.VIDEO_JITTER_MULTIPLIER));
+        if (wanted > targetDelayMillis) {
+            targetDelayMillis = wanted;
+        } else {
+            targetDelayMillis += (wanted - targetDelayMillis) * TARGET_DECAY;
+        }
+        PerformanceLogger.logVideoJitterDelay((int) Math.round(targetDelayMillis), (int) Math.round(jitterMillis));
+        return transit - baseTransit;
+    }
+
+    private void reset() {
+        haveTransit = false;
+        released = false;
+        jitterMillis = 0.0;
+        targetDelayMillis = Constants.VIDEO_JITTER_MIN_MS;
+        free.addAll(pending);
+        pending.clear();
+    }
+
+    /** How long a frame arriving on time waits before it is decoded: the target delay plus the lip-sync delay. */
+    public synchronized int playoutDelayMillis() {
+        return (int) Math.round(targetDelayMillis) + avSync.videoDelayMillis();
+    }
+
+    /**
+     * Waits up to timeoutMillis for the next frame to become due.
+     * @return the entry, to be given back with {@link #release}, or null on timeout
+     */
+    public synchronized Entry take(long timeoutMillis) throws InterruptedException {
+        long deadline = MediaClock.nowMillis() + timeoutMillis;
+        while (true) {
+            long now = MediaClock.nowMillis();
+            long wake = pending.isEmpty() ? deadline : Math.min(deadline, pending.get(0).playoutMillis);
+            if (!pending.isEmpty() && pending.get(0).playoutMillis <= now) {
+                break;
+            }
+            if (wake <= now) {
+                return null;
+            }
+            wait(wake - now);
+        }
+        long now = MediaClock.nowMillis();
+        int start = 0;
+        for (int i = pending.size() - 1; i > 0; i--) {
+            Entry entry = pending.get(i);
+            if (entry.playoutMillis <= now && isSelfContained(entry.frameFlags)) {
+                start = i;
+                break;
+            }
+        }
+        if (start > 0) {
+            PerformanceLogger.logVideoFramesSupersededBeforeDecode(start);
+            for (int i = 0; i < start; i++) {
+                free.add(pending.get(i));
+            }
+            pending.subList(0, start).clear();
+        }
+        Entry next = pending.remove(0);
+        released = true;
+        lastReleasedTimestamp = next.timestamp;
+        PerformanceLogger.logVideoJitterHold(now - next.arrivalMillis);
+        return next;
+    }
+
+    private static boolean isSelfContained(byte frameFlags) {
+        return (frameFlags & (VideoPacket.FLAG_CODEC_H264 | VideoPacket.FLAG_CODEC_TILES)) == 0
+                || (frameFlags & VideoPacket.FLAG_KEYFRAME) != 0;
+    }
+
+    public synchronized void release(Entry entry) {
+        free.add(entry);
+    }
+}
@@ -0,0 +1,138 @@
+package com.p2p.app;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Wire format for fragmented video frames.
+ * Every datagram starts with a fixed big-endian header followed by one chunk of an encoded frame
+ * (TYPE_DATA) or one FEC parity chunk (TYPE_PARITY):
+ * type(1) flags(1) frameId(4) chunkIndex(2) chunkCount(2) seq(4) frameLength(4) fecK(1) fecM(1) timestamp(4)
+ * layers(1)
+ *
+ * timestamp is the low 32 bits of the sender's wall clock in milliseconds when the frame was
+ * captured, the same for every layer of a frame; the receiver only uses differences of it, to
+ * measure interarrival jitter and to schedule playout.
+ *
+ * chunkCount is always the number of data chunks in the frame. For parity packets chunkIndex
+ * numbers the parity chunk within the frame: group = chunkIndex / fecM. Data chunk i belongs to
+ * group i / fecK. fecM == 0 means the frame carries no parity; FLAG_FEC_RS selects the parity code.
+ * FLAG_CODEC_H264 / FLAG_CODEC_TILES and FLAG_KEYFRAME are set on every datagram of a frame so the receiver learns
+ * them from whichever chunk arrives first.
+ *
+ * layers carries the simulcast layer of the frame in the low nibble (0 = full resolution, each
+ * further layer half the size of the previous) and the number of layers sent in the high nibble.
+ * Every layer is a separate stream with its own frame ids; sequence numbers are shared, so loss
+ * accounting and NACKs cover all layers together.
+ */
+public final class VideoPacket {
+    public static final byte TYPE_DATA = 0;
+    public static final byte TYPE_PARITY = 1;
+
+    public static final byte FLAG_FEC_RS = 0x01; // parity uses Reed-Solomon rather than XOR
+    public static final byte FLAG_RETRANSMIT = 0x02; // resent in answer to a NACK
+    public static final byte FLAG_KEYFRAME = 0x04; // frame decodes without any earlier frame
+    public static final byte FLAG_CODEC_H264 = 0x08; // H.264 access unit rather than a JPEG picture
+    public static final byte FLAG_CODEC_TILES = 0x10; // dirty-tile update for the receiver's canvas
+    public static final byte FRAME_FLAGS_MASK = FLAG_KEYFRAME | FLAG_CODEC_H264 | FLAG_CODEC_TILES; // describe the frame, not the datagram
+
+    public static final int HEADER_SIZE = 25;
+    public static final int MAX_PAYLOAD_SIZE = Constants.VIDEO_DATAGRAM_SIZE - HEADER_SIZE;
+    public static final int MAX_CHUNKS = (Constants.MAX_VIDEO_FRAME_SIZE + MAX_PAYLOAD_SIZE - 1) / MAX_PAYLOAD_SIZE;
+    public static final int MAX_FEC_GROUP_SIZE = 32;
+    public static final int MAX_FEC_PARITY = 8;
+    public static final int MAX_LAYERS = 4;
+
+    // The receiver takes the sender to have restarted, and drops what it knew of the old stream,
+    // when a sequence number is this far behind the newest one seen (senders always restart at 0,
+    // while an outage only ever jumps forward) or nothing arrived for this long
+    public static final int RESTART_SEQ_DISTANCE = 1024;
+    public static final long RESTART_SILENCE_MS = 5000;
+
+    private static final int OFFSET_TYPE = 0;
+    private static final int OFFSET_FLAGS = 1;
+    private static final int OFFSET_FRAME_ID = 2;
+    private static final int OFFSET_CHUNK_INDEX = 6;
+    private static final int OFFSET_CHUNK_COUNT = 8;
+    private static final int OFFSET_SEQ = 10;
+    private static final int OFFSET_FRAME_LENGTH = 14;
+    private static final int OFFSET_FEC_K = 18;
+    private static final int OFFSET_FEC_M = 19;
+    private static final int OFFSET_TIMESTAMP = 20;
+    private static final int OFFSET_LAYERS = 24;
+
+    private VideoPacket() {
+    }
+
+    public static void writeHeader(ByteBuffer buf, byte type, byte flags, int frameId, int chunkIndex, int chunkCount,
+                                   int seq, int frameLength, int fecK, int fecM, long timestampMillis,
+                                   int layer, int layerCount) {
+        buf.put(OFFSET_TYPE, type);
+        buf.put(OFFSET_FLAGS, flags);
+        buf.putInt(OFFSET_FRAME_ID, frameId);
+        buf.putShort(OFFSET_CHUNK_INDEX, (short) chunkIndex);
+        buf.putShort(OFFSET_CHUNK_COUNT, (short) chunkCount);
+        buf.putInt(OFFSET_SEQ, seq);
+        buf.putInt(OFFSET_FRAME_LENGTH, frameLength);
+        buf.put(OFFSET_FEC_K, (byte) fecK);
+        buf.put(OFFSET_FEC_M, (byte) fecM);
+        buf.putInt(OFFSET_TIMESTAMP, (int) timestampMillis);
+        buf.put(OFFSET_LAYERS, (byte) (layerCount << 4 | layer));
+    }
+
+    public static void setFlags(ByteBuffer buf, byte flags) {
+        buf.put(OFFSET_FLAGS, flags);
+    }
+
+    public static byte type(ByteBuffer buf) {
+        return buf.get(OFFSET_TYPE);
+    }
+
+    public static byte flags(ByteBuffer buf) {
+        return buf.get(OFFSET_FLAGS);
+    }
+
+    public static int frameId(ByteBuffer buf) {
+        return buf.getInt(OFFSET_FRAME_ID);
+    }
+
+    public static int chunkIndex(ByteBuffer buf) {
+        return buf.getShort(OFFSET_CHUNK_INDEX) & 0xFFFF;
+    }
+
+    public static int chunkCount(ByteBuffer buf) {
+        return buf.getShort(OFFSET_CHUNK_COUNT) & 0xFFFF;
+    }
+
+    public static int seq(ByteBuffer buf) {
+        return buf.getInt(OFFSET_SEQ);
+    }
+
+    public static int frameLength(ByteBuffer buf) {
+        return buf.getInt(OFFSET_FRAME_LENGTH);
+    }
+
+    public static int fecK(ByteBuffer buf) {
+        return buf.get(OFFSET_FEC_K) & 0xFF;
+    }
+
+    public static int fecM(ByteBuffer buf) {
+        return buf.get(OFFSET_FEC_M) & 0xFF;
+    }
+
+    public static int timestamp(ByteBuffer buf) {
+        return buf.getInt(OFFSET_TIMESTAMP);
+    }
+
+    public static int layer(ByteBuffer buf) {
+        return buf.get(OFFSET_LAYERS) & 0x0F;
+    }
+
+    public static int layerCount(ByteBuffer buf) {
+        return (buf.get(OFFSET_LAYERS) >> 4) & 0x0F;
+    }
+
+    /** True if id a was sent after b, tolerating 32-bit wrap-around. Works for frame ids and sequence numbers. */
+    public static boolean isNewer(int a, int b) {
+        return a - b > 0;
+    }
+}
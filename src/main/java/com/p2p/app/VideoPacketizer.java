@@ -0,0 +1,179 @@
+package com.p2p.app;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.util.Arrays;
+
+/**
+ * Splits encoded frames into MTU-sized datagrams so a frame never relies on IP fragmentation.
+ * Simulcast layers share the sequence space and the history but number their frames separately.
+ * When an {@link FecController} is set, every group of k data chunks is followed by m parity chunks.
+ * Every datagram is built directly in its {@link PacketHistory} slot so it can be retransmitted
+ * on a NACK without copying, and is sent from that slot's direct buffer; nothing is allocated
+ * per frame. sendFrame is called from the sending thread; retransmit may be
+ * called concurrently from the feedback thread.
+ */
+public class VideoPacketizer {
+    private final DatagramChannel channel;
+    private final InetSocketAddress remote;
+    private final PacketHistory history = new PacketHistory(Constants.VIDEO_PACKET_HISTORY_SIZE);
+    private final int[] nextFrameIds = new int[VideoPacket.MAX_LAYERS];
+    private int layerCount = 1;
+    private int nextSeq = 0;
+    // How long after sending a datagram can still reach the receiver in time to be played
+    private volatile long playoutWindowMillis = Constants.VIDEO_PLAYOUT_DEADLINE_MS;
+
+    private FecController fec;
+    private byte[][] dataShards;
+    private byte[][] parityShards;
+
+    public VideoPacketizer(DatagramChannel channel, InetSocketAddress remote) {
+        this.channel = channel;
+        this.remote = remote;
+    }
+
+    /** Number of simulcast layers announced in every header, 1 to {@link VideoPacket#MAX_LAYERS}. */
+    public void setLayerCount(int layerCount) {
+        this.layerCount = layerCount;
+    }
+
+    /**
+     * Follows the receiver's reported playout delay. A frame plays that long after it arrives,
+     * and a retransmission that completes it still counts until the next frame replaces it, so a
+     * packet is worth resending while it can arrive within the one-way delay, the playout delay
+     * and one frame interval of its first transmission.
+     */
+    public void setPlayoutDelay(int playoutDelayMillis, long oneWayDelayMillis) {
+        playoutWindowMillis = oneWayDelayMillis + playoutDelayMillis + 1000 / Constants.FRAME_RATE;
+    }
+
+    public void setFecController(FecController fec) {
+        this.fec = fec;
+        if (fec != null && dataShards == null) {
+            dataShards = new byte[VideoPacket.MAX_FEC_GROUP_SIZE][VideoPacket.MAX_PAYLOAD_SIZE];
+            parityShards = new byte[VideoPacket.MAX_FEC_PARITY][VideoPacket.MAX_PAYLOAD_SIZE];
+        }
+    }
+
+    /**
+     * Sends one encoded frame as a run of chunks sharing the same frame id.
+     * @param frameData  encoded frame from index 0; its position and limit are used as scratch
+     * @param frameFlags codec / keyframe flags from {@link VideoPacket#FRAME_FLAGS_MASK}
+     * @param layer      simulcast layer, below the configured layer count
+     * @param timestampMillis capture time on the sender's wall clock, carried in every header
+     * @return number of datagrams sent, parity included
+     */
+    public int sendFrame(ByteBuffer frameData, int length, byte frameFlags, int layer, long timestampMillis)
+            throws IOException {
+        if (length > Constants.MAX_VIDEO_FRAME_SIZE) {
+            throw new IllegalArgumentException("Frame of " + length + " bytes exceeds " + Constants.MAX_VIDEO_FRAME_SIZE);
+        }
+        int frameId = nextFrameIds[layer]++;
+        int chunkCount = Math.max(1, (length + VideoPacket.MAX_PAYLOAD_SIZE - 1) / VideoPacket.MAX_PAYLOAD_SIZE);
+        long now = System.currentTimeMillis();
+        long deadline = now + playoutWindowMillis;
+        // Snapshot the group shape so a concurrent report cannot change it mid-frame
+        int k = fec != null ? fec.getGroupSize() : 0;
+        int m = fec != null ? fec.getParityCount() : 0;
+        byte flags = (byte) (frameFlags & VideoPacket.FRAME_FLAGS_MASK);
+        if (fec != null && fec.getCodec() instanceof ReedSolomonFecCodec) {
+            flags |= VideoPacket.FLAG_FEC_RS;
+        }
+        int sent = 0;
+
+        for (int chunk = 0; chunk < chunkCount; chunk++) {
+            int offset = chunk * VideoPacket.MAX_PAYLOAD_SIZE;
+            int payloadLength = Math.min(VideoPacket.MAX_PAYLOAD_SIZE, length - offset);
+
+            synchronized (history) {
+                PacketHistory.Entry entry = history.slotFor(nextSeq, now, deadline);
+                VideoPacket.writeHeader(entry.buffer, VideoPacket.TYPE_DATA, flags, frameId, chunk, chunkCount,
+                        nextSeq++, length, k, m, timestampMillis, layer, layerCount);
+                frameData.limit(offset + payloadLength).position(offset);
+                entry.buffer.position(VideoPacket.HEADER_SIZE);
+                entry.buffer.put(frameData);
+                entry.length = VideoPacket.HEADER_SIZE + payloadLength;
+                send(entry);
+            }
+            sent++;
+
+            if (m > 0) {
+                int groupIndex = chunk % k;
+                byte[] shard = dataShards[groupIndex];
+                frameData.limit(offset + payloadLength).position(offset);
+                frameData.get(shard, 0, payloadLength);
+                Arrays.fill(shard, payloadLength, VideoPacket.MAX_PAYLOAD_SIZE, (byte) 0);
+                boolean groupComplete = groupIndex == k - 1 || chunk == chunkCount - 1;
+                if (groupComplete) {
+                    sent += sendParity(flags, frameId, chunkCount, length, chunk / k, groupIndex + 1, k, m,
+                            now, deadline, layer, timestampMillis);
+                }
+            }
+        }
+        return sent;
+    }
+
+    /**
+     * Resends a packet from the history in answer to a NACK, unless it could no longer reach the
+     * receiver before its frame's playout deadline.
+     * @param oneWayDelayMillis current estimate of the sender-to-receiver delay
+     * @return true if the packet was sent again
+     */
+    public boolean retransmit(int seq, long nowMillis, long oneWayDelayMillis) throws IOException {
+        synchronized (history) {
+            PacketHistory.Entry entry = history.find(seq);
+            if (entry == null || entry.retransmits >= Constants.VIDEO_MAX_RETRANSMITS
+                    || nowMillis + oneWayDelayMillis > entry.deadlineMillis) {
+                PerformanceLogger.logVideoRetransmitSuppressed();
+                return false;
+            }
+            VideoPacket.setFlags(entry.buffer, (byte) (VideoPacket.flags(entry.buffer) | VideoPacket.FLAG_RETRANSMIT));
+            entry.retransmits++;
+            send(entry);
+            PerformanceLogger.logVideoRetransmit();
+            return true;
+        }
+    }
+
+    /** @return when seq was first sent, or -1 if it is no longer in the history */
+    public long sentAtMillis(int seq) {
+        synchronized (history) {
+            PacketHistory.Entry entry = history.find(seq);
+            return entry != null ? entry.sentAtMillis : -1;
+        }
+    }
+
+    private int sendParity(byte flags, int frameId, int chunkCount, int frameLength,
+                           int group, int groupChunks, int k, int m, long now, long deadline, int layer,
+                           long timestampMillis) throws IOException {
+        int shardLength = shardLength(frameLength, group, k);
+        fec.getCodec().encode(dataShards, groupChunks, parityShards, m, shardLength);
+        for (int p = 0; p < m; p++) {
+            synchronized (history) {
+                PacketHistory.Entry entry = history.slotFor(nextSeq, now, deadline);
+                VideoPacket.writeHeader(entry.buffer, VideoPacket.TYPE_PARITY, flags, frameId, group * m + p, chunkCount,
+                        nextSeq++, frameLength, k, m, timestampMillis, layer, layerCount);
+                entry.buffer.position(VideoPacket.HEADER_SIZE);
+                entry.buffer.put(parityShards[p], 0, shardLength);
+                entry.length = VideoPacket.HEADER_SIZE + shardLength;
+                send(entry);
+            }
+        }
+        return m;
+    }
+
+    // Caller holds the history lock, which also serialises use of the entry's position and limit
+    private void send(PacketHistory.Entry entry) throws IOException {
+        entry.buffer.limit(entry.length).position(0);
+        channel.send(entry.buffer, remote);
+        entry.buffer.clear();
+    }
+
+    /** Parity length for a group: full payload size unless the group holds only the short last chunk. */
+    static int shardLength(int frameLength, int group, int k) {
+        int groupStart = group * k * VideoPacket.MAX_PAYLOAD_SIZE;
+        return Math.min(VideoPacket.MAX_PAYLOAD_SIZE, frameLength - groupStart);
+    }
+}
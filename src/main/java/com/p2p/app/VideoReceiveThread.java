@@ -1,73 +1,119 @@
 package com.p2p.app;
 
-import java.net.DatagramPacket;
-import java.net.DatagramSocket;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
 import java.util.concurrent.atomic.AtomicBoolean;
 
-import javax.swing.WindowConstants;
-
-import org.bytedeco.javacpp.BytePointer;
-import org.bytedeco.javacv.CanvasFrame;
-import org.bytedeco.javacv.Frame;
-import org.bytedeco.javacv.OpenCVFrameConverter;
-import org.bytedeco.opencv.global.opencv_imgcodecs;
 import org.bytedeco.opencv.global.opencv_imgproc;
 import org.bytedeco.opencv.opencv_core.Mat;
 import org.bytedeco.opencv.opencv_core.Scalar;
-import org.opencv.core.CvType;
 
+/**
+ * Three-stage video receiver. This thread only drains the socket, reassembles frames and sends
+ * feedback; complete frames wait in a {@link VideoJitterBuffer} until their playout time and then
+ * go to the decode thread, and decoded pictures through a {@link LatestFrameMailbox} to the render
+ * thread. A slow repaint or decode therefore drops superseded frames instead of backing up the socket.
+ * With simulcast every layer is reassembled, and a {@link LayerSelector} decides which one is decoded.
+ */
 public class VideoReceiveThread extends Thread {
-    private DatagramSocket udpSocket;
-    private CanvasFrame remoteVideoFrame;
-    private OpenCVFrameConverter.ToMat converter;
+    private static final long STAGE_POLL_MS = 100; // Stage threads re-check the running flag this often
+
+    // Datagrams land in one direct buffer and frames are decoded in preallocated buffers, so
+    // steady-state reception allocates nothing per packet or per frame
+    private DatagramChannel channel;
+    private volatile Selector selector;
+    private FrameSink remoteVideoSink;
     private AtomicBoolean running = new AtomicBoolean(true);
     private final int listenPort; // New field for dynamic port
+    private final FrameReassembler[] reassemblers = new FrameReassembler[VideoPacket.MAX_LAYERS]; // per simulcast layer; layer 0 up front, others on first use
+    private final LayerSelector layerSelector = new LayerSelector();
+    private final ReceiveStatistics receiveStats = new ReceiveStatistics();
+    private final NackGenerator nackGenerator = new NackGenerator();
+    private SocketAddress senderAddress;
+    private final ByteBuffer feedbackView = ByteBuffer.allocateDirect(VideoFeedback.MAX_MESSAGE_SIZE);
+    private long lastReportTime = 0;
+    private final AvSyncController avSync;
+    private final VideoJitterBuffer jitterBuffer;
+    private final LatestFrameMailbox renderMailbox = new LatestFrameMailbox(PerformanceLogger::logVideoFrameSupersededBeforeRender);
+    private final AtomicBoolean keyframeWanted = new AtomicBoolean(false); // set by the decode thread
+    private Thread decodeThread;
+    private Thread renderThread;
 
-    public VideoReceiveThread(int listenPort) {
+    // Decode thread state. Decoders are chosen per frame from the codec flag, so the receiver
+    // follows the sender's mode
+    private final VideoDecoder jpegDecoder = new JpegVideoDecoder();
+    private VideoDecoder h264Decoder;
+    private VideoDecoder tileDecoder;
+    private boolean awaitingKeyframe = true;
+    private int lastDecodedFrameId;
+    private long lastKeyframeRequestTime = 0;
+
+    public VideoReceiveThread(int listenPort, AvSyncController avSync) {
         this.listenPort = listenPort;
+        this.avSync = avSync;
+        this.jitterBuffer = new VideoJitterBuffer(avSync);
+        this.reassemblers[0] = new FrameReassembler();
     }
 
     @Override
     public void run() {
         try {
-            udpSocket = new DatagramSocket(listenPort);
+            channel = DatagramChannel.open();
+            channel.setOption(StandardSocketOptions.SO_RCVBUF, Constants.MAX_VIDEO_FRAME_SIZE * 4); // absorb bursts of chunks
+            channel.bind(new InetSocketAddress(listenPort));
+            channel.configureBlocking(false);
+            selector = Selector.open();
+            channel.register(selector, SelectionKey.OP_READ);
             System.out.println("VideoReceiveThread: Listening for video on UDP port " + listenPort + "...");
-            byte[] buffer = new byte[Constants.MAX_VIDEO_PACKET_SIZE];
-
-            remoteVideoFrame = new CanvasFrame("Remote Video");
-            remoteVideoFrame.setDefaultCloseOperation(WindowConstants.EXIT_ON_CLOSE);
-            remoteVideoFrame.setCanvasSize(Constants.FRAME_WIDTH, Constants.FRAME_HEIGHT);
+            ByteBuffer packetView = ByteBuffer.allocateDirect(Constants.VIDEO_DATAGRAM_SIZE);
 
-            converter = new OpenCVFrameConverter.ToMat();
+            remoteVideoSink = FrameSink.forMode(Constants.VIDEO_SINK, "Remote Video", 0.0);
 
-            String tag = "Video calling App";
-            Scalar tagColor = new Scalar(0, 255, 0, 0); // Green color
-            int font = opencv_imgproc.FONT_HERSHEY_SIMPLEX;
-            double fontScale = 0.5;
-            int thickness = 1;
+            decodeThread = new Thread(this::decodeLoop, "VideoDecode");
+            renderThread = new Thread(this::renderLoop, "VideoRender");
+            decodeThread.start();
+            renderThread.start();
 
             while (running.get()) {
-                DatagramPacket packet = new DatagramPacket(buffer, buffer.length);
                 try {
-                    udpSocket.receive(packet);
-
-                    byte[] jpegData = new byte[packet.getLength()];
-                    System.arraycopy(packet.getData(), 0, jpegData, 0, packet.getLength());
-
-                    Mat mat = new Mat(1, packet.getLength(), CvType.CV_8UC1, new BytePointer(jpegData));
-                    Mat decodedMat = opencv_imgcodecs.imdecode(mat, opencv_imgcodecs.IMREAD_COLOR);
-                    if (decodedMat != null) {
-                        // Add tag to the video frame
-                        opencv_imgproc.putText(decodedMat, tag, new org.bytedeco.opencv.opencv_core.Point(10, Constants.FRAME_HEIGHT - 10), font, fontScale, tagColor, thickness, opencv_imgproc.LINE_AA, false);
-
-                        Frame frame = converter.convert(decodedMat);
-                        remoteVideoFrame.showImage(frame);
-                        PerformanceLogger.logVideoFrameReceived();
-                        decodedMat.release(); // Release native memory
-                    } else {
-                        System.err.println("VideoReceiveThread: Failed to decode video frame.");
+                    selector.select(Constants.VIDEO_NACK_RETRY_MS / 3); // wake up to re-send NACKs
+                    selector.selectedKeys().clear();
+                    SocketAddress from;
+                    while ((from = channel.receive(packetView)) != null) {
+                        int length = packetView.position();
+                        packetView.clear();
+                        long now = MediaClock.nowMillis();
+                        if (length >= VideoPacket.HEADER_SIZE) {
+                            int seq = VideoPacket.seq(packetView);
+                            if ((VideoPacket.flags(packetView) & VideoPacket.FLAG_RETRANSMIT) == 0) {
+                                receiveStats.onPacket(seq, VideoPacket.timestamp(packetView), now); // raw loss, before repair
+                            }
+                            receiveStats.onBytes(length, now);
+                            nackGenerator.onPacket(seq, now);
+                        }
+                        if (senderAddress == null) {
+                            senderAddress = from;
+                        }
+                        if (now - lastReportTime >= Constants.VIDEO_REPORT_INTERVAL_MS) {
+                            senderAddress = from;
+                            sendReport(now);
+                            lastReportTime = now;
+                        }
+
+                        if (length >= VideoPacket.HEADER_SIZE) {
+                            acceptPacket(packetView, length, now);
+                        }
+                    }
+                    long now = MediaClock.nowMillis();
+                    if (keyframeWanted.getAndSet(false) | layerSelector.takeKeyframeNeeded()) {
+                        requestKeyframe(now);
                     }
-                    mat.release(); // Release native memory for the temporary mat
+                    sendNackIfDue(now);
                 } catch (java.io.IOException e) {
                     if (running.get()) { // Only log if not intentionally shutting down
                         System.err.println("VideoReceiveThread: Error receiving video packet on port " + listenPort + ": " + e.getMessage());
@@ -77,26 +123,225 @@ public class VideoReceiveThread extends Thread {
                     System.err.println("VideoReceiveThread: Error during video processing: " + e.getMessage());
                 }
             }
-        } catch (java.net.SocketException e) {
+        } catch (java.io.IOException e) {
             System.err.println("VideoReceiveThread: Socket error during initialization on port " + listenPort + ": " + e.getMessage());
             running.set(false); // Stop if socket cannot be created
         } catch (Exception e) {
             System.err.println("VideoReceiveThread: Fatal error during setup: " + e.getMessage());
         } finally {
-            stopReception();
+            running.set(false);
+            release();
+        }
+    }
+
+    private void decodeLoop() {
+        while (running.get()) {
+            VideoJitterBuffer.Entry entry;
+            try {
+                entry = jitterBuffer.take(STAGE_POLL_MS);
+            } catch (InterruptedException e) {
+                break;
+            }
+            if (entry == null) {
+                continue;
+            }
+            try {
+                Mat decoded = decodeFrame(entry.frameId, entry.frameFlags, entry.data, entry.length);
+                if (decoded != null) {
+                    avSync.onVideoPlayout(entry.timestamp, MediaClock.nowMillis(), entry.syncDelayMillis); // render follows at once
+                    renderMailbox.publish(decoded);
+                }
+            } catch (Exception e) {
+                System.err.println("VideoReceiveThread: Error during video decoding: " + e.getMessage());
+            } finally {
+                jitterBuffer.release(entry);
+            }
+        }
+    }
+
+    private void renderLoop() {
+        // Tag is rasterised once and blended into each frame; green, baseline 10 px above the bottom
+        OverlayCompositor tagOverlay = new OverlayCompositor(opencv_imgproc.FONT_HERSHEY_SIMPLEX, 0.5, 1,
+                new Scalar(0, 255, 0, 0), 10, 10);
+        tagOverlay.setText("Video calling App");
+        while (running.get()) {
+            Mat picture;
+            try {
+                picture = renderMailbox.take(STAGE_POLL_MS);
+            } catch (InterruptedException e) {
+                break;
+            }
+            if (picture == null) {
+                continue;
+            }
+            try {
+                // Add tag to the video frame
+                tagOverlay.apply(picture);
+
+                remoteVideoSink.show(picture);
+                PerformanceLogger.logVideoFrameReceived();
+            } catch (Exception e) {
+                System.err.println("VideoReceiveThread: Error during video rendering: " + e.getMessage());
+            }
+        }
+        tagOverlay.close();
+    }
+
+    /** Reassembles a datagram into its layer's stream; completed frames of the chosen layer go to the decoder. */
+    private void acceptPacket(ByteBuffer packetView, int length, long now) {
+        int layer = VideoPacket.layer(packetView);
+        int layerCount = Math.max(1, Math.min(VideoPacket.MAX_LAYERS, VideoPacket.layerCount(packetView)));
+        if (layer >= layerCount) {
+            return;
+        }
+        FrameReassembler reassembler = reassemblers[layer];
+        if (reassembler == null) {
+            reassembler = reassemblers[layer] = new FrameReassembler();
+        }
+        if (reassembler.accept(packetView, length, now)
+                && layerSelector.accept(layer, layerCount, reassembler.frameFlags())) {
+            jitterBuffer.offer(reassembler.frameData(), reassembler.frameLength(), reassembler.frameId(),
+                    reassembler.frameFlags(), reassembler.frameTimestamp(), now);
         }
     }
 
+    /**
+     * Decodes a completed frame. Inter-coded frames (H.264, tile updates) depend on what was
+     * decoded before: after a missing frame or a decode error a keyframe is requested until one
+     * arrives. H.264 frames are skipped meanwhile; tile updates are still applied since they only
+     * overwrite whole tiles.
+     * @return picture owned by the decoder, or null if nothing should be shown
+     */
+    private Mat decodeFrame(int frameId, byte frameFlags, ByteBuffer data, int length) {
+        boolean h264 = (frameFlags & VideoPacket.FLAG_CODEC_H264) != 0;
+        boolean tiles = (frameFlags & VideoPacket.FLAG_CODEC_TILES) != 0;
+        boolean keyframe = (frameFlags & VideoPacket.FLAG_KEYFRAME) != 0;
+        if (!h264 && !tiles) {
+            Mat decoded = jpegDecoder.decode(data, length);
+            if (decoded == null) {
+                System.err.println("VideoReceiveThread: Failed to decode video frame.");
+            }
+            return decoded;
+        }
+
+        boolean inSync = keyframe || (!awaitingKeyframe && frameId == lastDecodedFrameId + 1);
+        if (!inSync) {
+            awaitingKeyframe = true;
+            keyframeWanted.set(true);
+            if (h264) {
+                PerformanceLogger.logVideoFrameDropped();
+                return null;
+            }
+        }
+        VideoDecoder decoder;
+        if (h264) {
+            if (h264Decoder == null) {
+                h264Decoder = new H264VideoDecoder();
+            }
+            decoder = h264Decoder;
+        } else {
+            if (tileDecoder == null) {
+                tileDecoder = new TileVideoDecoder();
+            }
+            decoder = tileDecoder;
+        }
+        Mat decoded = decoder.decode(data, length);
+        lastDecodedFrameId = frameId;
+        if (decoded == null) {
+            if (h264) {
+                awaitingKeyframe = true;
+                keyframeWanted.set(true);
+            }
+            return null;
+        }
+        if (keyframe) {
+            awaitingKeyframe = false;
+        }
+        return decoded;
+    }
+
+    private void requestKeyframe(long now) {
+        if (senderAddress == null || now - lastKeyframeRequestTime < Constants.VIDEO_KEYFRAME_REQUEST_INTERVAL_MS) {
+            return;
+        }
+        lastKeyframeRequestTime = now;
+        PerformanceLogger.logVideoKeyframeRequest();
+        sendFeedback(VideoFeedback.writeKeyframeRequest(feedbackView));
+    }
+
+    /** Reports loss, jitter and goodput for the last interval back to the sender's socket. */
+    private void sendReport(long now) {
+        double loss = receiveStats.closeInterval(now);
+        layerSelector.onLoss(loss, now);
+        int length = VideoFeedback.writeReport(feedbackView, loss, receiveStats.intervalReceived(),
+                receiveStats.highestSeq(), now - receiveStats.highestSeqArrivalMillis(),
+                receiveStats.jitterMillis(), receiveStats.intervalKbps(), jitterBuffer.playoutDelayMillis());
+        sendFeedback(length);
+    }
+
+    private void sendNackIfDue(long now) {
+        if (senderAddress == null) return;
+        int length = nackGenerator.buildNack(feedbackView, now, jitterBuffer.playoutDelayMillis());
+        if (length > 0) {
+            sendFeedback(length);
+        }
+    }
+
+    private void sendFeedback(int length) {
+        try {
+            feedbackView.limit(length).position(0);
+            channel.send(feedbackView, senderAddress);
+            feedbackView.clear();
+        } catch (java.io.IOException e) {
+            System.err.println("VideoReceiveThread: Error sending feedback: " + e.getMessage());
+        }
+    }
+
+    /** Stops all three stages; resources are released by the receive thread on its way out. */
     public void stopReception() {
         running.set(false);
-        if (udpSocket != null) {
-            udpSocket.close();
-            System.out.println("VideoReceiveThread: UDP socket closed.");
+        Selector wake = selector;
+        if (wake != null) {
+            wake.wakeup();
+        }
+    }
+
+    private void release() {
+        joinStage(decodeThread);
+        joinStage(renderThread);
+        try {
+            if (selector != null) {
+                selector.close();
+            }
+            if (channel != null) {
+                channel.close();
+                System.out.println("VideoReceiveThread: UDP socket closed.");
+            }
+        } catch (java.io.IOException e) {
+            System.err.println("VideoReceiveThread: Error closing UDP channel: " + e.getMessage());
         }
-        if (remoteVideoFrame != null) {
-            remoteVideoFrame.dispose();
-            System.out.println("VideoReceiveThread: Remote video frame disposed.");
+        jpegDecoder.close();
+        if (h264Decoder != null) {
+            h264Decoder.close();
+        }
+        if (tileDecoder != null) {
+            tileDecoder.close();
+        }
+        renderMailbox.close();
+        if (remoteVideoSink != null) {
+            remoteVideoSink.close();
         }
         System.out.println("VideoReceiveThread stopped.");
     }
+
+    private static void joinStage(Thread stage) {
+        if (stage == null) {
+            return;
+        }
+        try {
+            stage.join(1000);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
 }
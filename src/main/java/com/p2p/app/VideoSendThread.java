@@ -2,20 +2,13 @@ package com.p2p.app;
 
 import java.net.DatagramPacket;
 import java.net.DatagramSocket;
-import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
 import java.util.concurrent.atomic.AtomicBoolean;
-import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 
-import org.bytedeco.javacpp.BytePointer;
-import org.bytedeco.javacpp.IntPointer;
-import org.bytedeco.javacv.CanvasFrame;
-import org.bytedeco.javacv.Frame;
-import org.bytedeco.javacv.FrameGrabber;
-import org.bytedeco.javacv.OpenCVFrameConverter;
-import org.bytedeco.javacv.OpenCVFrameGrabber;
-import org.bytedeco.opencv.global.opencv_imgcodecs;
 import org.bytedeco.opencv.global.opencv_imgproc;
 import org.bytedeco.opencv.opencv_core.Mat;
 import org.bytedeco.opencv.opencv_core.Scalar;
@@ -23,109 +16,144 @@ import org.bytedeco.opencv.opencv_core.Scalar;
 public class VideoSendThread extends Thread {
     private final String remoteIp;
     private final int remoteVideoPort;
-    private DatagramSocket udpSocket;
-    private OpenCVFrameGrabber grabber;
-    private OpenCVFrameConverter.ToMat converter;
-    private CanvasFrame localVideoFrame;
+    private DatagramChannel channel; // video goes out through the channel from direct buffers
+    private DatagramSocket udpSocket; // the channel's socket, used to receive feedback
+    private VideoPacketizer packetizer;
+    private FrameSource source;
+    private LocalPreview localPreview; // null when the preview is off
+    private OverlayCompositor tagOverlay;
     private AtomicBoolean running = new AtomicBoolean(true);
     private AtomicBoolean paused = new AtomicBoolean(false);
     
     // Performance optimizations
-    private ArrayBlockingQueue<Mat> frameQueue;
+    private final CaptureQueue frameQueue;
     private ExecutorService compressionExecutor;
+    private ExecutorService feedbackExecutor;
+    private FecController fecController;
+    private final RateController rateController = new RateController();
+    private final ParallelFrameEncoder encoder;
+    private final FramePool framePool;
+    private final AtomicBoolean keyframeRequested = new AtomicBoolean(false);
+    private volatile long rttMillis = Constants.VIDEO_INITIAL_RTT_MS;
     private long frameCount = 0;
     private long lastFrameTime = 0;
-    private final IntPointer jpegParams = new IntPointer(Constants.IMWRITE_JPEG_QUALITY, (int) (Constants.JPEG_QUALITY * 100));
 
     public VideoSendThread(String remoteIp, int remoteVideoPort) {
         this.remoteIp = remoteIp;
         this.remoteVideoPort = remoteVideoPort;
-        this.frameQueue = new ArrayBlockingQueue<>(Constants.FRAME_BUFFER_COUNT);
+        this.frameQueue = new CaptureQueue(Constants.FRAME_BUFFER_COUNT,
+                CaptureQueue.Policy.forName(Constants.VIDEO_QUEUE_POLICY), Constants.VIDEO_ENCODE_BUDGET_MS);
         this.compressionExecutor = Executors.newSingleThreadExecutor();
+        this.feedbackExecutor = Executors.newSingleThreadExecutor();
+        this.encoder = new ParallelFrameEncoder(Constants.VIDEO_CODEC, Constants.VIDEO_ENCODE_THREADS,
+                Constants.VIDEO_SIMULCAST_LAYERS, this::onEncoded, this::onFrameEncoded);
+        // One Mat per queue slot, one per encoder worker and one being filled by the capture loop
+        this.framePool = new FramePool(Constants.FRAME_BUFFER_COUNT + encoder.workerCount() + 1,
+                Constants.FRAME_WIDTH, Constants.FRAME_HEIGHT);
     }
 
     @Override
     public void run() {
         try {
             // Initialize networking
-            udpSocket = new DatagramSocket();
-            udpSocket.setSendBufferSize(Constants.MAX_VIDEO_PACKET_SIZE * 4);
-            System.out.println("VideoSendThread: Initializing webcam...");
+            channel = DatagramChannel.open();
+            channel.bind(null);
+            udpSocket = channel.socket();
+            udpSocket.setSendBufferSize(Constants.MAX_VIDEO_FRAME_SIZE * 2);
+            udpSocket.setSoTimeout(500); // lets the feedback listener notice shutdown
+            packetizer = new VideoPacketizer(channel, new InetSocketAddress(remoteIp, remoteVideoPort));
+            packetizer.setLayerCount(encoder.layerCount());
+            FecCodec fecCodec = FecCodec.forMode(Constants.VIDEO_FEC_MODE);
+            if (fecCodec != null) {
+                fecController = new FecController(fecCodec);
+                packetizer.setFecController(fecController);
+                System.out.println("VideoSendThread: FEC enabled (" + Constants.VIDEO_FEC_MODE + ")");
+            }
+            startFeedbackListener();
+            System.out.println("VideoSendThread: Video codec " + Constants.VIDEO_CODEC + ", "
+                    + encoder.workerCount() + " encoder thread(s), " + encoder.layerCount() + " simulcast layer(s), "
+                    + "queue policy " + frameQueue.policy());
+            System.out.println("VideoSendThread: Initializing video source " + Constants.VIDEO_SOURCE + "...");
             
-            // Initialize camera
-            grabber = new OpenCVFrameGrabber(0);
-            grabber.setImageWidth(Constants.FRAME_WIDTH);
-            grabber.setImageHeight(Constants.FRAME_HEIGHT);
-            grabber.setFrameRate(Constants.FRAME_RATE);
+            // Initialize camera, test pattern or file
+            source = FrameSource.forSpec(Constants.VIDEO_SOURCE);
             
             // Set thread priority for real-time processing
             Thread.currentThread().setPriority(Thread.MAX_PRIORITY - 1);
 
             try {
-                grabber.start();
-                System.out.println("VideoSendThread: Webcam started. Streaming to " + remoteIp + ":" + remoteVideoPort);
-            } catch (FrameGrabber.Exception e) {
-                System.err.println("VideoSendThread: Error starting webcam: " + e.getMessage());
+                source.start();
+                System.out.println("VideoSendThread: Video source started. Streaming to " + remoteIp + ":" + remoteVideoPort);
+            } catch (Exception e) {
+                System.err.println("VideoSendThread: Error starting video source: " + e.getMessage());
                 running.set(false);
                 return;
             }
 
-            converter = new OpenCVFrameConverter.ToMat();
-            localVideoFrame = new CanvasFrame("Local Video", CanvasFrame.getDefaultGamma() / grabber.getGamma());
-            localVideoFrame.setDefaultCloseOperation(javax.swing.JFrame.EXIT_ON_CLOSE);
-            localVideoFrame.setCanvasSize(Constants.FRAME_WIDTH, Constants.FRAME_HEIGHT);
+            localPreview = LocalPreview.create(source.gamma());
 
             // Start async compression thread
             startCompressionProcessor();
 
-            // Main capture loop with precise timing
-            long nextFrameTime = System.nanoTime();
-            String tag = "Video calling app";
-            Scalar tagColor = new Scalar(0, 255, 0, 0);
-            int font = opencv_imgproc.FONT_HERSHEY_SIMPLEX;
-            double fontScale = 0.7;
-            int thickness = 2;
+            // Main capture loop, paced on a fixed grid of frame intervals
+            FramePacer pacer = new FramePacer();
+            long lastCaptureNanos = -1;
+            tagOverlay = new OverlayCompositor(opencv_imgproc.FONT_HERSHEY_SIMPLEX, 0.7, 2,
+                    new Scalar(0, 255, 0, 0), 10, 20);
+            tagOverlay.setText("Video calling app");
 
             while (running.get()) {
                 if (paused.get()) {
                     Thread.sleep(50);
-                    nextFrameTime = System.nanoTime(); // Reset timing
+                    pacer.reset(); // Reset timing
+                    lastCaptureNanos = -1;
                     continue;
                 }
 
-                long currentTime = System.nanoTime();
-                if (currentTime < nextFrameTime) {
-                    long sleepTime = (nextFrameTime - currentTime) / 1000000; // Convert to milliseconds
-                    if (sleepTime > 0) {
-                        Thread.sleep(sleepTime);
-                    }
+                long intervalNanos = rateController.getLevel().frameIntervalNanos;
+                int skipped = pacer.awaitNextFrame(intervalNanos);
+                if (skipped > 0) {
+                    PerformanceLogger.logVideoPacerSkipped(skipped); // previous frame overran, drop its successors
+                }
+
+                Mat mat = source.grab();
+                long captureNanos = System.nanoTime();
+                if (lastCaptureNanos >= 0) {
+                    PerformanceLogger.logVideoCaptureInterval(captureNanos - lastCaptureNanos, intervalNanos);
                 }
-                nextFrameTime += Constants.TARGET_FRAME_TIME_NANOS;
-
-                Frame frame = grabber.grab();
-                if (frame != null) {
-                    Mat mat = converter.convert(frame);
-                    if (mat != null) {
-                        // Add overlay
-                        opencv_imgproc.putText(mat, tag, 
-                            new org.bytedeco.opencv.opencv_core.Point(10, Constants.FRAME_HEIGHT - 20), 
-                            font, fontScale, tagColor, thickness, opencv_imgproc.LINE_AA, false);
-                        
-                        // Show local video
-                        localVideoFrame.showImage(converter.convert(mat));
-                        
-                        // Queue for async compression (non-blocking)
-                        Mat matCopy = mat.clone(); // Clone for async processing
-                        if (!frameQueue.offer(matCopy)) {
-                            // Queue full, skip this frame and release memory
-                            matCopy.release();
+                lastCaptureNanos = captureNanos;
+                if (mat != null) {
+                    // Add overlay: blends the pre-rendered tag into its small region only
+                    tagOverlay.apply(mat);
+                    
+                    // Hand to the local preview, which renders on its own thread
+                    if (localPreview != null) {
+                        localPreview.offer(mat, captureNanos);
+                    }
+                    
+                    // Queue a pooled copy for async compression (non-blocking)
+                    CapturedFrame pooled = framePool.acquire();
+                    if (pooled == null) {
+                        // Every pooled Mat is still queued or being encoded: unless the policy keeps
+                        // old frames, reuse the stalest queued one for this fresher picture
+                        pooled = frameQueue.reclaimOldest();
+                        PerformanceLogger.logVideoFrameDropped();
+                        PerformanceLogger.logWarningRateLimited("VideoSend", pooled == null
+                                ? "Frame pool exhausted, skipping frame" : "Encoder behind, replacing oldest queued frame");
+                    }
+                    if (pooled != null) {
+                        mat.copyTo(pooled.mat);
+                        pooled.captureNanos = captureNanos;
+                        CapturedFrame dropped = frameQueue.offer(pooled);
+                        if (dropped != null) {
+                            framePool.release(dropped);
                             PerformanceLogger.logVideoFrameDropped();
-                            PerformanceLogger.logWarning("VideoSend", "Frame queue full, skipping frame");
+                            PerformanceLogger.logWarningRateLimited("VideoSend", dropped == pooled
+                                    ? "Frame queue full, skipping frame" : "Frame queue full, dropping oldest frame");
                         }
-                        
-                        mat.release();
-                        frameCount++;
                     }
+                    
+                    frameCount++;
                 }
             }
         } catch (InterruptedException e) {
@@ -135,7 +163,8 @@ public class VideoSendThread extends Thread {
             System.err.println("VideoSendThread: Fatal error: " + e.getMessage());
             e.printStackTrace();
         } finally {
-            stopCapture();
+            running.set(false);
+            release();
         }
     }
     
@@ -143,27 +172,16 @@ public class VideoSendThread extends Thread {
         compressionExecutor.submit(() -> {
             while (running.get()) {
                 try {
-                    Mat mat = frameQueue.take(); // Blocking wait for next frame
-                    if (mat == null) continue;
+                    // Pick the frame only once a worker is free, so a deadline skip sees its real wait
+                    encoder.reserveWorker();
+                    CapturedFrame frame = frameQueue.take(this::onFrameExpired);
                     
-                    // Compress to JPEG in background thread
-                    byte[] jpegData;
-                    try (BytePointer outputBuffer = new BytePointer()) {
-                        boolean success = opencv_imgcodecs.imencode(".jpg", mat, outputBuffer, jpegParams);
-                        if (success && outputBuffer.limit() > 0 && outputBuffer.limit() <= Constants.MAX_VIDEO_PACKET_SIZE) {
-                            jpegData = new byte[(int) outputBuffer.limit()];
-                            outputBuffer.get(jpegData);
-                            
-                            // Send frame
-                            sendFrame(jpegData);
-                            PerformanceLogger.logVideoFrameSent();
-                        } else if (outputBuffer.limit() > Constants.MAX_VIDEO_PACKET_SIZE) {
-                            System.out.println("VideoSendThread: Frame too large: " + outputBuffer.limit() + " bytes");
-                        }
-                    } catch (Exception e) {
-                        System.err.println("VideoSendThread: Compression error: " + e.getMessage());
-                    } finally {
-                        mat.release(); // Always release
+                    // Encoded at the current rate level by the next free worker, emitted in capture order
+                    try {
+                        encoder.submit(frame, rateController.getLevel(), keyframeRequested.getAndSet(false));
+                    } catch (InterruptedException e) {
+                        framePool.release(frame);
+                        throw e;
                     }
                 } catch (InterruptedException e) {
                     Thread.currentThread().interrupt();
@@ -174,12 +192,96 @@ public class VideoSendThread extends Thread {
             }
         });
     }
+
+    /** Encoder output, in capture order; all layers of a frame arrive together, layer 0 first. */
+    private void onEncoded(int layer, ByteBuffer data, int length, byte frameFlags, long captureNanos) {
+        sendFrame(data, length, frameFlags, layer, MediaClock.toMillis(captureNanos));
+        rateController.onFrameSent(length); // every layer shares the link
+        if (layer == encoder.layerCount() - 1) {
+            PerformanceLogger.logVideoCaptureToSend(System.nanoTime() - captureNanos);
+            PerformanceLogger.logVideoFrameSent();
+        }
+    }
+
+    private void onFrameExpired(CapturedFrame frame) {
+        framePool.release(frame);
+        PerformanceLogger.logVideoFrameDropped();
+    }
+
+    private void onFrameEncoded(CapturedFrame frame) {
+        framePool.release(frame); // Always hand back to the pool
+    }
     
-    private void sendFrame(byte[] jpegData) {
+    private void startFeedbackListener() {
+        feedbackExecutor.submit(() -> {
+            byte[] buffer = new byte[VideoFeedback.MAX_MESSAGE_SIZE];
+            ByteBuffer view = ByteBuffer.wrap(buffer);
+            DatagramPacket packet = new DatagramPacket(buffer, buffer.length);
+            while (running.get()) {
+                try {
+                    packet.setLength(buffer.length);
+                    udpSocket.receive(packet);
+                    handleFeedback(view, packet.getLength());
+                } catch (java.net.SocketTimeoutException e) {
+                    // No feedback in this period, keep listening
+                } catch (Exception e) {
+                    if (running.get()) {
+                        System.err.println("VideoSendThread: Feedback error: " + e.getMessage());
+                    }
+                }
+            }
+        });
+    }
+
+    private void handleFeedback(ByteBuffer message, int length) throws java.io.IOException {
+        if (length < 1) return;
+        long now = System.currentTimeMillis();
+        switch (VideoFeedback.type(message)) {
+            case VideoFeedback.TYPE_REPORT:
+                if (length < VideoFeedback.REPORT_SIZE) break;
+                updateRtt(VideoFeedback.reportHighestSeq(message), VideoFeedback.reportHoldMillis(message), now);
+                packetizer.setPlayoutDelay(VideoFeedback.reportPlayoutDelayMillis(message), rttMillis / 2);
+                double loss = VideoFeedback.reportLossFraction(message);
+                if (fecController != null) {
+                    fecController.onLossReport(loss);
+                }
+                rateController.onReport(loss, VideoFeedback.reportJitterMillis(message),
+                        VideoFeedback.reportReceivedKbps(message), now);
+                break;
+            case VideoFeedback.TYPE_KEYFRAME_REQUEST:
+                if (!keyframeRequested.getAndSet(true)) {
+                    PerformanceLogger.logInfo("VideoSend", "Keyframe requested by receiver");
+                }
+                break;
+            case VideoFeedback.TYPE_NACK:
+                int entries = VideoFeedback.nackCount(message, length);
+                for (int i = 0; i < entries; i++) {
+                    int base = VideoFeedback.nackBaseSeq(message, i);
+                    int bitmap = VideoFeedback.nackBitmap(message, i);
+                    packetizer.retransmit(base, now, rttMillis / 2);
+                    for (int bit = 0; bit < 16; bit++) {
+                        if ((bitmap & (1 << bit)) != 0) {
+                            packetizer.retransmit(base + 1 + bit, now, rttMillis / 2);
+                        }
+                    }
+                }
+                break;
+            default:
+                break;
+        }
+    }
+
+    /** RTT sample from a receiver report: time since we sent its highest seq, minus the receiver's hold time. */
+    private void updateRtt(int highestSeq, int holdMillis, long now) {
+        long sentAt = packetizer.sentAtMillis(highestSeq);
+        if (sentAt < 0) return;
+        long sample = Math.max(1, now - sentAt - holdMillis);
+        rttMillis = (7 * rttMillis + sample) / 8;
+    }
+
+    private void sendFrame(ByteBuffer data, int length, byte frameFlags, int layer, long timestampMillis) {
         try {
-            DatagramPacket packet = new DatagramPacket(jpegData, jpegData.length, 
-                InetAddress.getByName(remoteIp), remoteVideoPort);
-            udpSocket.send(packet);
+            packetizer.sendFrame(data, length, frameFlags, layer, timestampMillis);
         } catch (Exception e) {
             System.err.println("VideoSendThread: Error sending frame: " + e.getMessage());
         }
@@ -194,9 +296,15 @@ public class VideoSendThread extends Thread {
         return paused.get();
     }
 
+    /**
+     * Stops capturing. The capture thread releases the source, sinks and native buffers on its way
+     * out, so nothing is freed while it may still be using it.
+     */
     public void stopCapture() {
         running.set(false);
-        
+    }
+
+    private void release() {
         // Shutdown compression executor
         if (compressionExecutor != null) {
             compressionExecutor.shutdownNow();
@@ -206,38 +314,29 @@ public class VideoSendThread extends Thread {
                 Thread.currentThread().interrupt();
             }
         }
-        
-        // Clear frame queue and release any remaining frames
-        if (frameQueue != null) {
-            Mat frame;
-            while ((frame = frameQueue.poll()) != null) {
-                frame.release();
-            }
+        if (feedbackExecutor != null) {
+            feedbackExecutor.shutdownNow();
         }
         
-        if (grabber != null) {
-            try {
-                grabber.stop();
-                grabber.release();
-                System.out.println("VideoSendThread: Webcam grabber stopped and released.");
-            } catch (FrameGrabber.Exception e) {
-                System.err.println("VideoSendThread: Error stopping grabber: " + e.getMessage());
-            }
+        // Stop the encoder workers, then clear frame queue and free the pooled frames
+        encoder.close();
+        frameQueue.drain(framePool::release);
+        framePool.close();
+        
+        if (source != null) {
+            source.close();
+        }
+        if (localPreview != null) {
+            localPreview.close();
         }
-        if (localVideoFrame != null) {
-            localVideoFrame.dispose();
-            System.out.println("VideoSendThread: Local video frame disposed.");
+        if (tagOverlay != null) {
+            tagOverlay.close();
         }
         if (udpSocket != null) {
             udpSocket.close();
             System.out.println("VideoSendThread: UDP socket closed.");
         }
         
-        // Clean up JPEG parameters
-        if (jpegParams != null) {
-            jpegParams.deallocate();
-        }
-        
         System.out.println("VideoSendThread stopped. Processed " + frameCount + " frames.");
     }
 }
@@ -0,0 +1,59 @@
+package com.p2p.app;
+
+/**
+ * DC-blocking high-pass, voice activity detection and soft limiter in two passes over the frame:
+ * the first filters and sums the squares for the level, and only frames with voice get a second
+ * pass that applies the limiter gain. The output is bit-exact with the separate high-pass, RMS,
+ * limiter (which measured the RMS again) passes this replaces: the same double arithmetic is
+ * done per sample in the same order, and the limiter's RMS is the level already measured.
+ */
+public class VoiceDspStage implements AudioDspStage {
+    private static final double HP_A = 0.995; // y[n] = x[n] - x[n-1] + a*y[n-1]; pole close to 1 for low cutoff
+    private static final double VAD_TARGET_RMS = 2000.0; // target RMS for soft limiter scaling
+    private static final double VAD_THRESHOLD = 300.0;   // minimum RMS to consider voice present
+    private static final double VAD_DECAY = 0.9;         // moving average decay
+    private static final double MAX_BOOST = 2.0;  // limit maximum boost to avoid amplifying noise too much
+    private static final double MAX_CUT = 0.5;    // slight attenuation if too loud
+
+    private short prevIn = 0;
+    private short prevOut = 0;
+    private double vadAverage = 0.0;
+
+    @Override
+    public boolean process(short[] samples, int count) {
+        if (count == 0) {
+            return vadAverage > VAD_THRESHOLD;
+        }
+        short in = prevIn;
+        short out = prevOut;
+        long sumSq = 0;
+        for (int i = 0; i < count; i++) {
+            short x = samples[i];
+            int y = (int) (x - in + HP_A * out);
+            if (y > Short.MAX_VALUE) y = Short.MAX_VALUE;
+            if (y < Short.MIN_VALUE) y = Short.MIN_VALUE;
+            in = x;
+            out = (short) y;
+            samples[i] = out;
+            sumSq += (long) y * y;
+        }
+        prevIn = in;
+        prevOut = out;
+
+        double rms = Math.sqrt(sumSq / (double) count);
+        vadAverage = VAD_DECAY * vadAverage + (1.0 - VAD_DECAY) * rms;
+        if (vadAverage <= VAD_THRESHOLD) {
+            return false;
+        }
+        if (rms > 1e-6) {
+            double scale = Math.max(MAX_CUT, Math.min(MAX_BOOST, VAD_TARGET_RMS / rms));
+            for (int i = 0; i < count; i++) {
+                int y = (int) Math.round(samples[i] * scale);
+                if (y > Short.MAX_VALUE) y = Short.MAX_VALUE;
+                if (y < Short.MIN_VALUE) y = Short.MIN_VALUE;
+                samples[i] = (short) y;
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,44 @@
+package com.p2p.app;
+
+import org.bytedeco.javacv.Frame;
+import org.bytedeco.javacv.OpenCVFrameConverter;
+import org.bytedeco.javacv.OpenCVFrameGrabber;
+import org.bytedeco.opencv.opencv_core.Mat;
+
+/**
+ * The default camera (device 0) at the configured capture size and rate.
+ */
+public class WebcamFrameSource implements FrameSource {
+    private final OpenCVFrameGrabber grabber = new OpenCVFrameGrabber(0);
+    private final OpenCVFrameConverter.ToMat converter = new OpenCVFrameConverter.ToMat();
+
+    @Override
+    public void start() throws Exception {
+        grabber.setImageWidth(Constants.FRAME_WIDTH);
+        grabber.setImageHeight(Constants.FRAME_HEIGHT);
+        grabber.setFrameRate(Constants.FRAME_RATE);
+        grabber.start();
+    }
+
+    @Override
+    public Mat grab() throws Exception {
+        Frame frame = grabber.grab();
+        return frame != null ? converter.convert(frame) : null;
+    }
+
+    @Override
+    public double gamma() {
+        return grabber.getGamma();
+    }
+
+    @Override
+    public void close() {
+        try {
+            grabber.stop();
+            grabber.release();
+            System.out.println("WebcamFrameSource: Webcam grabber stopped and released.");
+        } catch (Exception e) {
+            System.err.println("WebcamFrameSource: Error stopping grabber: " + e.getMessage());
+        }
+    }
+}